@@ -1,15 +1,12 @@
 package jinngine.rendering;
 
-import java.util.Iterator;
-
-import jinngine.collision.RayCast;
 import jinngine.geometry.Geometry;
-import jinngine.geometry.SupportMap3;
 import jinngine.math.InertiaMatrix;
 import jinngine.math.Matrix3;
 import jinngine.math.Vector3;
 import jinngine.physics.Body;
 import jinngine.physics.Scene;
+import jinngine.physics.SceneQuery;
 import jinngine.physics.constraint.joint.BallInSocketJoint;
 
 
@@ -23,9 +20,18 @@ public class Interaction implements Rendering.EventCallback {
 	private Matrix3 inertia;
 	private Matrix3 inverse;
 	private final Vector3 planeNormal = new Vector3(0,1,0);
+	private final SceneQuery query;
+	private final SceneQuery.Hit hit = new SceneQuery.Hit();
+	private final SceneQuery.Filter unfixed = new SceneQuery.Filter() {
+		@Override
+		public boolean accept(Geometry g) {
+			return g.getBody() != null && !g.getBody().isFixed();
+		}
+	};
 	
 	public Interaction( Scene scene) {
 		this.scene = scene;
+		this.query = new SceneQuery(scene);
 		this.controller.state.anisotropicmass.assignScale(1); // hope to prevent bugs
 		this.controller.setFixed(true);
 	}
@@ -45,35 +51,11 @@ public class Interaction implements Rendering.EventCallback {
 	public void mousePressed(double x, double y, Vector3 point, Vector3 direction) {
 		target = null;
 		interacting = false;
-		double parameter = Double.POSITIVE_INFINITY;
-		Iterator<Body> bodies = scene.getBodies();
-		// go thru each body
-		while (bodies.hasNext()) {
-			Body bi = bodies.next();
-
-			// only shoot at non-fixed bodies
-			if ( !bi.isFixed()) {
-				Iterator<Geometry> geometries = bi.getGeometries();
-				Geometry gi = geometries.next();
-
-				// if geometry is usable
-				if ( gi instanceof SupportMap3) {
-
-					RayCast raycast = new RayCast();
-					Vector3 pb = new Vector3(), pc = new Vector3();
-					double t = raycast.run((SupportMap3)gi, null, point, direction, pb, pc, 0, 0.05, 1e-7, true);
-
-//					write out t for debugging
-//					System.out.println("t="+t);
-					
-					if (t<parameter) {
-						parameter = t;
-						target = bi;
-						pickpoint.assign(point.add(direction.multiply(t)));
-//						pickpoint.print();
-					}
-				} // if support map
-			} // body is unfixed
+
+		// shoot at the closest non-fixed body
+		if (query.raycast(point, direction, Double.POSITIVE_INFINITY, unfixed, hit)) {
+			target = hit.geometry.getBody();
+			pickpoint.assign(point.add(direction.multiply(hit.parameter)));
 		}
 		
 		// clicked something?
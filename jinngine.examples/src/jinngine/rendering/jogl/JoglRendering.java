@@ -16,8 +16,11 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.WindowAdapter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GLAutoDrawable;
@@ -29,6 +32,7 @@ import com.sun.opengl.util.Animator;
 
 import jinngine.geometry.Box;
 import jinngine.geometry.ConvexHull;
+import jinngine.geometry.ConvexHullData;
 import jinngine.geometry.Geometry;
 import jinngine.geometry.UniformCapsule;
 import jinngine.math.Matrix4;
@@ -54,6 +58,11 @@ public class JoglRendering extends Frame implements Rendering, GLEventListener,
 	public double[] camera = new double[16];
 	public double zoom = 0.95;
 
+	// hull data shared by all drawn shapes of the same kind and dimensions
+	private ConvexHullData unitcube;
+	private ConvexHullData icosphere;
+	private final Map<List<Double>, ConvexHullData> capsules = new HashMap<List<Double>, ConvexHullData>();
+
 	private interface DrawShape {
 		public Iterator<Vector3[]> getFaces();
 		public Matrix4 getTransform();
@@ -101,16 +110,20 @@ public class JoglRendering extends Frame implements Rendering, GLEventListener,
 		}
 		
 		if ( g instanceof Box  ) {
-			final List<Vector3> vertices = new ArrayList<Vector3>();
-			vertices.add( new Vector3(  0.5,  0.5,  0.5));
-			vertices.add( new Vector3( -0.5,  0.5,  0.5));
-			vertices.add( new Vector3(  0.5, -0.5,  0.5));
-			vertices.add( new Vector3( -0.5, -0.5,  0.5));
-			vertices.add( new Vector3(  0.5,  0.5, -0.5));
-			vertices.add( new Vector3( -0.5,  0.5, -0.5));
-			vertices.add( new Vector3(  0.5, -0.5, -0.5));
-			vertices.add( new Vector3( -0.5, -0.5, -0.5));
-			final ConvexHull hull = new ConvexHull(vertices);
+			// all boxes share the unit cube, scaled by the geometry transform
+			if (unitcube == null) {
+				final List<Vector3> vertices = new ArrayList<Vector3>();
+				vertices.add( new Vector3(  0.5,  0.5,  0.5));
+				vertices.add( new Vector3( -0.5,  0.5,  0.5));
+				vertices.add( new Vector3(  0.5, -0.5,  0.5));
+				vertices.add( new Vector3( -0.5, -0.5,  0.5));
+				vertices.add( new Vector3(  0.5,  0.5, -0.5));
+				vertices.add( new Vector3( -0.5,  0.5, -0.5));
+				vertices.add( new Vector3(  0.5, -0.5, -0.5));
+				vertices.add( new Vector3( -0.5, -0.5, -0.5));
+				unitcube = ConvexHullData.build(vertices, 0);
+			}
+			final ConvexHullData hull = unitcube;
 			
 			toDraw.add( new DrawShape() {		
 				@Override
@@ -130,40 +143,26 @@ public class JoglRendering extends Frame implements Rendering, GLEventListener,
 		
 		if ( g instanceof UniformCapsule  ) {
 			UniformCapsule cap = (UniformCapsule)g;
-			final List<Vector3> vertices = new ArrayList<Vector3>();
-			final List<Vector3> icoicosahedron = new ArrayList<Vector3>();
-			
-			// point on icosahedron
-//			final double t = (1.0 + Math.sqrt(5.0))/ 2.0;
-//			final double S = 1.0 / ( Math.sqrt(1+t*t)); 
-//			icoicosahedron.add(new Vector3(-1,  t,  0));
-//			icoicosahedron.add( new Vector3( 1,  t,  0));
-//			icoicosahedron.add( new Vector3(-1, -t,  0));
-//			icoicosahedron.add( new Vector3( 1, -t,  0));
-//			icoicosahedron.add( new Vector3( 0, -1,  t));
-//			icoicosahedron.add( new Vector3( 0,  1,  t));
-//			icoicosahedron.add( new Vector3( 0, -1, -t));
-//			icoicosahedron.add( new Vector3( 0,  1, -t));
-//			icoicosahedron.add( new Vector3( t,  0, -1));
-//			icoicosahedron.add( new Vector3( t,  0,  1));
-//			icoicosahedron.add( new Vector3(-t,  0, -1));
-//			icoicosahedron.add( new Vector3(-t,  0,  1));
-
-			ConvexHull icosphere = buildIcosphere(1, 2);
-			
-			// scale to unit
-//			for (Vector3 v: icoicosahedron)
-//				v.assign(v.multiply(S) );
 
-			// add two icos to vertices
-			Iterator<Vector3> iter = icosphere.getVertices();
-			while(iter.hasNext()) {
-				Vector3 v = iter.next();
-				vertices.add( v.multiply(cap.getRadius()).add(0,0,cap.getLength()/2));
-				vertices.add( v.multiply(cap.getRadius()).add(0,0,-cap.getLength()/2));
+			// capsules of equal dimensions share hull data
+			final List<Double> key = Arrays.asList(cap.getRadius(), cap.getLength());
+			ConvexHullData data = capsules.get(key);
+			if (data == null) {
+				if (icosphere == null)
+					icosphere = buildIcosphere(1, 2);
+
+				// add two icos to vertices
+				final List<Vector3> vertices = new ArrayList<Vector3>();
+				Iterator<Vector3> iter = icosphere.getVertices();
+				while(iter.hasNext()) {
+					Vector3 v = iter.next();
+					vertices.add( v.multiply(cap.getRadius()).add(0,0,cap.getLength()/2));
+					vertices.add( v.multiply(cap.getRadius()).add(0,0,-cap.getLength()/2));
+				}
+				data = ConvexHullData.build(vertices, 0);
+				capsules.put(key, data);
 			}
-				
-			final ConvexHull hull = new ConvexHull(vertices);
+			final ConvexHullData hull = data;
 			
 			toDraw.add( new DrawShape() {		
 				@Override
@@ -183,7 +182,7 @@ public class JoglRendering extends Frame implements Rendering, GLEventListener,
 
 	}
 	
-	private ConvexHull buildIcosphere(double r, int depth) {
+	private ConvexHullData buildIcosphere(double r, int depth) {
 		final List<Vector3> vertices = new ArrayList<Vector3>();
 //		vertices.add(new Vector3( 1, 1, 1).normalize());
 //		vertices.add(new Vector3(-1,-1, 1).normalize());
@@ -206,7 +205,7 @@ public class JoglRendering extends Frame implements Rendering, GLEventListener,
 
 		int n = 0;
 		while (true) {
-			ConvexHull hull = new ConvexHull(vertices);
+			ConvexHullData hull = ConvexHullData.build(vertices, 0);
 
 			if (n>=depth)
 				return hull;
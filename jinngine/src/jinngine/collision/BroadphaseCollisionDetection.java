@@ -9,8 +9,11 @@
 
 package jinngine.collision;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import jinngine.geometry.*;
+import jinngine.math.Vector3;
 import jinngine.util.Pair;
 
 /**
@@ -39,6 +42,18 @@ public interface BroadphaseCollisionDetection {
 		public void separation(Pair<Geometry> pair);
 	}
 	
+	/**
+	 * An optional filter for geometry pairs. The filter is consulted, in addition to the collision categories and
+	 * masks of the geometries, before a pair is tracked by the broad-phase. Rejected pairs are never reported to
+	 * any handler. 
+	 */
+	public interface PairFilter {
+		/**
+		 * @return true if the geometries a and b should be allowed to collide
+		 */
+		public boolean accept(Geometry a, Geometry b);
+	}
+	
 	/**
 	 * Add a broad-fase handler
 	 * @param h
@@ -51,6 +66,18 @@ public interface BroadphaseCollisionDetection {
 	 */
 	public void removeHandler( Handler h);
 	
+	/**
+	 * Set the pair filter, see {@link PairFilter}. Changes only affect overlaps that begin after the change.
+	 * @param filter a filter or null to remove the current filter
+	 */
+	public void setPairFilter( PairFilter filter );
+	
+	/**
+	 * Get the current pair filter, see {@link PairFilter}
+	 * @return the filter, or null if there is none
+	 */
+	public PairFilter getPairFilter();
+	
 	/**
 	 * Add a new body to be handled by this broad-phase collision detection implementation.
 	 * @param a Body to be added
@@ -63,6 +90,18 @@ public interface BroadphaseCollisionDetection {
 	 */
 	public void remove(Geometry a);
 	
+	/**
+	 * Add a number of geometries at once. Implementations may build their internal structures
+	 * much faster this way, than by adding geometries one by one.
+	 * @param geometries Geometries to be added
+	 */
+	public void addAll(Collection<Geometry> geometries);
+
+	/**
+	 * Remove a number of geometries at once
+	 * @param geometries Geometries to be removed
+	 */
+	public void removeAll(Collection<Geometry> geometries);
 
 	/**
 	 * Return a complete set of the overlapping geometry pairs
@@ -70,6 +109,15 @@ public interface BroadphaseCollisionDetection {
 	 */
 	public Set<Pair<Geometry>> getOverlappingPairs();
 	
+	/**
+	 * Find all geometries with bounding boxes that overlap the given axis aligned box. Implementations
+	 * may answer the query using the bounding boxes as they were during the last call to run().
+	 * @param min minimum bounds of the box
+	 * @param max maximum bounds of the box
+	 * @param result overlapping geometries are added to this list
+	 */
+	public void query(Vector3 min, Vector3 max, List<Geometry> result);
+	
 	/**
 	 * Run the broad-phase collision detection. This call will invoke calls to any registered event handler, se {@link Handler}.
 	 * The method overlap() in the {@link Handler} interface, is called when ever a new overlap between two objects arises. separation() is 
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available 
+ * at http://www.gnu.org/copyleft/gpl.html. 
+ */
+package jinngine.collision;
+
+import jinngine.geometry.Geometry;
+
+/**
+ * Collision filtering rules shared by the broad-phase implementations
+ */
+public final class CollisionFilter {
+	
+	private CollisionFilter() {}
+	
+	/**
+	 * Return true if the collision categories and masks of a and b allow them to collide. This is the 
+	 * case when the category of each geometry has a bit in common with the mask of the other
+	 */
+	public static boolean collides( Geometry a, Geometry b ) {
+		return (a.getCollisionCategory() & b.getCollisionMask()) != 0 
+			&& (b.getCollisionCategory() & a.getCollisionMask()) != 0;
+	}
+	
+	/**
+	 * Return true if a and b are allowed to collide, by their categories and masks and by the given pair filter
+	 * @param filter a pair filter, can be null
+	 */
+	public static boolean accept( Geometry a, Geometry b, BroadphaseCollisionDetection.PairFilter filter ) {
+		return collides(a,b) && (filter == null || filter.accept(a,b));
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.collision;
+
+import jinngine.geometry.SupportMap3;
+import jinngine.math.Vector3;
+
+/**
+ * Implementation of the Expanding Polytope Algorithm, for computing the penetration depth of intersecting
+ * convex objects, described in [Bergen, 2003, Continuous Collision Detection in Interactive 3D environments,
+ * ISBN-13: 978-1558608016]. The algorithm starts from the terminating simplex of GJK, which encloses the origin
+ * in the configuration space obstacle A-B. The simplex is grown into a polytope, and the polytope is expanded
+ * towards the face closest to the origin, until that face lies on the boundary of A-B. The closest face then
+ * gives the penetration depth and direction. All buffers are allocated up front, and an EPA instance must only
+ * be used by one thread at a time.
+ */
+public final class EPA {
+	// polytope vertices, as points on A-B and the support points of A and B that gave them
+	private final Vector3[] w, sa, sb;
+	private int vertices;
+
+	// triangular faces, counter clock-wise seen from the outside, with unit normals and distances to the origin
+	private final int[] fa, fb, fc;
+	private final Vector3[] normals;
+	private final double[] distances;
+	private final boolean[] removed;
+	private int faces;
+
+	// edges of the hole left by faces that are visible from a new vertex
+	private final int[] e0, e1;
+	private int edges;
+
+	private final int maxiterations;
+	private final Vector3 direction = new Vector3();
+	private final Vector3 centroid = new Vector3();
+	private final Vector3 u = new Vector3();
+	private final Vector3 t = new Vector3();
+	private final Vector3 negated = new Vector3();
+
+	/**
+	 * Create a new EPA instance, expanding the polytope at most 64 times
+	 */
+	public EPA() {
+		this(64);
+	}
+
+	/**
+	 * Create a new EPA instance
+	 * @param maxiterations the largest number of times the polytope is expanded. When reached, the closest
+	 * face of the polytope is used as an approximation
+	 */
+	public EPA( int maxiterations ) {
+		if (maxiterations < 1)
+			throw new IllegalArgumentException("EPA: maximum number of iterations must be at least one");
+
+		this.maxiterations = maxiterations;
+
+		// the initial polytope has at most 5 vertices, and each iteration adds one. A convex polytope
+		// with n vertices has at most 2n-4 faces, and removed faces are compacted when space runs out
+		final int maxvertices = maxiterations + 5;
+		final int maxfaces = 3*maxvertices;
+		w = new Vector3[maxvertices];
+		sa = new Vector3[maxvertices];
+		sb = new Vector3[maxvertices];
+		for (int i=0; i<maxvertices; i++) {
+			w[i] = new Vector3(); sa[i] = new Vector3(); sb[i] = new Vector3();
+		}
+		fa = new int[maxfaces]; fb = new int[maxfaces]; fc = new int[maxfaces];
+		normals = new Vector3[maxfaces];
+		for (int i=0; i<maxfaces; i++)
+			normals[i] = new Vector3();
+		distances = new double[maxfaces];
+		removed = new boolean[maxfaces];
+		e0 = new int[3*maxfaces];
+		e1 = new int[3*maxfaces];
+	}
+
+	/**
+	 * Compute the penetration depth of A and B, starting from the terminating simplex of a GJK run on the
+	 * same support maps, that reported intersection. The simplex in the GJK state is not modified.
+	 * @param Sa support map of A
+	 * @param Sb support map of B
+	 * @param state state of the GJK instance that found the intersection
+	 * @param pa upon return, the deepest point of A inside B
+	 * @param pb upon return, the deepest point of B inside A
+	 * @param normal upon return, the unit direction from B towards A. Translating A by depth times normal
+	 * separates the objects, and pb-pa equals depth times normal
+	 * @param epsilon the desired accuracy of the depth
+	 * @return the penetration depth, or positive infinity if no initial polytope could be built from the
+	 * simplex. This happens if the objects are merely touching, or if they are flat
+	 */
+	public final double run( SupportMap3 Sa, SupportMap3 Sb, GJK.State state, Vector3 pa, Vector3 pb, Vector3 normal, double epsilon ) {
+		vertices = 0;
+		faces = 0;
+
+		// copy the simplex
+		for (int i=0; i<state.simplexSize; i++) {
+			final Vector3[] row = state.simplices[state.permutation[i]];
+			addVertex(row[1], row[2]);
+		}
+
+		if (!initialPolytope(Sa, Sb, epsilon))
+			return Double.POSITIVE_INFINITY;
+
+		int iterations = 0;
+		while (true) {
+			// find the face closest to the origin
+			int closest = -1;
+			double best = Double.POSITIVE_INFINITY;
+			for (int f=0; f<faces; f++) {
+				if (!removed[f] && distances[f] < best) {
+					best = distances[f];
+					closest = f;
+				}
+			}
+
+			// no more faces (should not happen)
+			if (closest < 0)
+				return Double.POSITIVE_INFINITY;
+
+			// terminate if the face is on the boundary of A-B, or if no more room
+			if (iterations++ >= maxiterations)
+				return result(closest, pa, pb, normal);
+
+			final int v = support(Sa, Sb, normals[closest]);
+			if (w[v].dot(normals[closest]) - best < epsilon || !expand(v))
+				return result(closest, pa, pb, normal);
+		}
+	}
+
+	/**
+	 * Grow the simplex into a polytope that encloses the origin
+	 * @return false if this was not possible
+	 */
+	private boolean initialPolytope( SupportMap3 Sa, SupportMap3 Sb, double epsilon ) {
+		switch (vertices) {
+		case 4:
+			// the simplex is a tetrahedron
+			if (!addFace(0,1,2) || !addFace(0,3,1) || !addFace(0,2,3) || !addFace(1,3,2))
+				return false;
+			break;
+
+		case 3: {
+			// the origin is in a triangle, add a vertex on both sides of it
+			Vector3.sub(u.assign(w[1]), w[0]);
+			Vector3.sub(t.assign(w[2]), w[0]);
+			Vector3.crossProduct(u, t, direction);
+			if (direction.norm() < epsilon)
+				return false;
+			support(Sa, Sb, direction);
+			support(Sa, Sb, direction.assign(-direction.x, -direction.y, -direction.z));
+			if (!addFace(0,1,3) || !addFace(1,2,3) || !addFace(2,0,3)
+					|| !addFace(1,0,4) || !addFace(2,1,4) || !addFace(0,2,4))
+				return false;
+			break;
+		}
+
+		case 2: {
+			// the origin is on a segment, add three vertices around it
+			final Vector3 d = t.assign(w[1]);
+			Vector3.sub(d, w[0]);
+			if (d.norm() < epsilon)
+				return false;
+
+			// two directions perpendicular to the segment, using the axis that is most perpendicular
+			final double ax = Math.abs(d.x), ay = Math.abs(d.y), az = Math.abs(d.z);
+			if (ax <= ay && ax <= az) u.assign(1,0,0); else if (ay <= az) u.assign(0,1,0); else u.assign(0,0,1);
+			Vector3.crossProduct(d, u, direction);
+			Vector3.multiply(direction, 1/direction.norm());
+			Vector3.crossProduct(d, direction, u);
+			Vector3.multiply(u, 1/u.norm());
+
+			// three directions, 120 degrees apart
+			final double s = Math.sqrt(3)*0.5;
+			final double x = direction.x, y = direction.y, z = direction.z;
+			support(Sa, Sb, direction);
+			support(Sa, Sb, direction.assign(-0.5*x+s*u.x, -0.5*y+s*u.y, -0.5*z+s*u.z));
+			support(Sa, Sb, direction.assign(-0.5*x-s*u.x, -0.5*y-s*u.y, -0.5*z-s*u.z));
+			if (!addFace(0,2,3) || !addFace(0,3,4) || !addFace(0,4,2)
+					|| !addFace(1,3,2) || !addFace(1,4,3) || !addFace(1,2,4))
+				return false;
+			break;
+		}
+
+		default:
+			// a single point, the objects are touching
+			return false;
+		}
+
+		// orient the faces outwards, seen from the centroid of the vertices
+		centroid.assignZero();
+		for (int i=0; i<vertices; i++)
+			Vector3.add(centroid, w[i]);
+		Vector3.multiply(centroid, 1.0/vertices);
+		for (int f=0; f<faces; f++) {
+			final Vector3 n = normals[f];
+			if (n.dot(w[fa[f]]) - n.dot(centroid) < 0) {
+				final int tmp = fb[f]; fb[f] = fc[f]; fc[f] = tmp;
+				Vector3.multiply(n, -1);
+				distances[f] = -distances[f];
+			}
+
+			// the origin must be inside the polytope
+			if (distances[f] < -epsilon)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Replace the faces that are visible from vertex v with faces connecting v to the horizon
+	 * @return false if the polytope could not be expanded
+	 */
+	private boolean expand( int v ) {
+		// remove visible faces, and keep the edges that are not shared by two removed faces
+		edges = 0;
+		for (int f=0; f<faces; f++) {
+			if (removed[f])
+				continue;
+
+			final Vector3 n = normals[f];
+			if (n.dot(w[v]) - n.dot(w[fa[f]]) > 0) {
+				removed[f] = true;
+				addEdge(fa[f], fb[f]);
+				addEdge(fb[f], fc[f]);
+				addEdge(fc[f], fa[f]);
+			}
+		}
+
+		// make room for the new faces
+		if (faces + edges > fa.length) {
+			compact();
+			if (faces + edges > fa.length)
+				return false;
+		}
+
+		// new faces keep the orientation of the removed faces
+		for (int i=0; i<edges; i++)
+			if (!addFace(e0[i], e1[i], v))
+				return false;
+
+		return true;
+	}
+
+	// add the edge (i,j), or remove it if (j,i) is already present
+	private void addEdge( int i, int j ) {
+		for (int k=0; k<edges; k++) {
+			if (e0[k] == j && e1[k] == i) {
+				edges--;
+				e0[k] = e0[edges];
+				e1[k] = e1[edges];
+				return;
+			}
+		}
+		e0[edges] = i;
+		e1[edges] = j;
+		edges++;
+	}
+
+	// move the remaining faces to the front of the face arrays
+	private void compact() {
+		int n = 0;
+		for (int f=0; f<faces; f++) {
+			if (removed[f])
+				continue;
+			fa[n] = fa[f]; fb[n] = fb[f]; fc[n] = fc[f];
+			normals[n].assign(normals[f]);
+			distances[n] = distances[f];
+			removed[n] = false;
+			n++;
+		}
+		faces = n;
+	}
+
+	/**
+	 * Add the face (a,b,c)
+	 * @return false if the face is degenerate
+	 */
+	private boolean addFace( int a, int b, int c ) {
+		final Vector3 n = normals[faces];
+		Vector3.sub(u.assign(w[b]), w[a]);
+		Vector3.sub(t.assign(w[c]), w[a]);
+		Vector3.crossProduct(u, t, n);
+		final double length = n.norm();
+		if (length < 1e-12)
+			return false;
+
+		Vector3.multiply(n, 1/length);
+		fa[faces] = a; fb[faces] = b; fc[faces] = c;
+		distances[faces] = n.dot(w[a]);
+		removed[faces] = false;
+		faces++;
+		return true;
+	}
+
+	// add a vertex given the support points of A and B
+	private int addVertex( Vector3 pa, Vector3 pb ) {
+		final int v = vertices++;
+		sa[v].assign(pa);
+		sb[v].assign(pb);
+		w[v].assign(pa.x-pb.x, pa.y-pb.y, pa.z-pb.z);
+		return v;
+	}
+
+	// add the support point of A-B in the given direction as a new vertex
+	private int support( SupportMap3 Sa, SupportMap3 Sb, Vector3 n ) {
+		final Vector3 pa = Sa.supportPoint(n);
+		final Vector3 pb = Sb.supportPoint(negated.assign(-n.x, -n.y, -n.z));
+		return addVertex(pa, pb);
+	}
+
+	/**
+	 * Compute the witness points and the normal from the closest point on face f, and return the depth
+	 */
+	private double result( int f, Vector3 pa, Vector3 pb, Vector3 normal ) {
+		final Vector3 n = normals[f];
+		final double depth = distances[f];
+		final Vector3 a = w[fa[f]], b = w[fb[f]], c = w[fc[f]];
+
+		// barycentric coordinates of the closest point, depth times n, in the face
+		final double v0x = b.x-a.x, v0y = b.y-a.y, v0z = b.z-a.z;
+		final double v1x = c.x-a.x, v1y = c.y-a.y, v1z = c.z-a.z;
+		final double v2x = n.x*depth-a.x, v2y = n.y*depth-a.y, v2z = n.z*depth-a.z;
+		final double d00 = v0x*v0x+v0y*v0y+v0z*v0z;
+		final double d01 = v0x*v1x+v0y*v1y+v0z*v1z;
+		final double d11 = v1x*v1x+v1y*v1y+v1z*v1z;
+		final double d20 = v2x*v0x+v2y*v0y+v2z*v0z;
+		final double d21 = v2x*v1x+v2y*v1y+v2z*v1z;
+		final double denom = d00*d11-d01*d01;
+		final double lb = (d11*d20-d01*d21)/denom;
+		final double lc = (d00*d21-d01*d20)/denom;
+		final double la = 1-lb-lc;
+
+		final Vector3 sa0 = sa[fa[f]], sa1 = sa[fb[f]], sa2 = sa[fc[f]];
+		final Vector3 sb0 = sb[fa[f]], sb1 = sb[fb[f]], sb2 = sb[fc[f]];
+		pa.assign(la*sa0.x+lb*sa1.x+lc*sa2.x, la*sa0.y+lb*sa1.y+lc*sa2.y, la*sa0.z+lb*sa1.z+lc*sa2.z);
+		pb.assign(la*sb0.x+lb*sb1.x+lc*sb2.x, la*sb0.y+lb*sb1.y+lc*sb2.y, la*sb0.z+lb*sb1.z+lc*sb2.z);
+		normal.assign(-n.x, -n.y, -n.z);
+		return depth;
+	}
+}
@@ -27,6 +27,7 @@ public class ExhaustiveSearch implements BroadphaseCollisionDetection {
 	private final Set<Pair<Geometry>> leavingPairs = new LinkedHashSet<Pair<Geometry>>();
 	private final List<Geometry> geometries = new ArrayList<Geometry>();
 	private final List<BroadphaseCollisionDetection.Handler> handlers = new ArrayList<Handler>();
+	private PairFilter filter = null;
 
 	public ExhaustiveSearch() {}
 	
@@ -44,7 +45,7 @@ public class ExhaustiveSearch implements BroadphaseCollisionDetection {
 			for (int j=i+1; j<size; j++ ) {
 				Geometry c2 = geometries.get(j);
 				if (c1 != c2 ) {
-					if ( overlap(c1,c2)  ) {
+					if ( overlap(c1,c2) && CollisionFilter.accept(c1, c2, filter) ) {
 						Pair<Geometry> pair = new Pair<Geometry>(c1,c2);
 						
 						//if we discover a new pair, report it and add to table
@@ -122,11 +123,43 @@ public class ExhaustiveSearch implements BroadphaseCollisionDetection {
 		geometries.remove(a);
 	}
 
+	@Override
+	public void addAll(Collection<Geometry> a) {
+		geometries.addAll(a);
+	}
+
+	@Override
+	public void removeAll(Collection<Geometry> a) {
+		// a set makes this a single pass over the geometries
+		geometries.removeAll(new HashSet<Geometry>(a));
+	}
+
+	@Override
+	public void query(Vector3 min, Vector3 max, List<Geometry> result) {
+		for (Geometry g: geometries) {
+			Vector3 gmin = g.getMinBounds();
+			Vector3 gmax = g.getMaxBounds();
+			if (gmin.x <= max.x && min.x <= gmax.x && gmin.y <= max.y && min.y <= gmax.y 
+					&& gmin.z <= max.z && min.z <= gmax.z)
+				result.add(g);
+		}
+	}
+
 	@Override
 	public void addHandler(Handler h) {
 		handlers.add(h);		
 	}
 
+	@Override
+	public void setPairFilter(PairFilter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public PairFilter getPairFilter() {
+		return filter;
+	}
+
 	@Override
 	public void removeHandler(Handler h) {
 		handlers.remove(h);
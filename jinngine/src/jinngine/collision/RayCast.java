@@ -14,11 +14,46 @@ import jinngine.geometry.SupportMap3;
 import jinngine.math.Vector3;
 
 /**
- * Performs a collision query between a ray in space and a convex shape, defined by a support mapping. 
+ * Performs a collision query between a ray in space and a convex shape, defined by a support mapping. A RayCast 
+ * instance reuses its internal buffers, and must only be used by one thread at a time.
  */
 public final class RayCast {
 	final GJK gjk = new GJK();
 	final GJK.State gjkstate = gjk.getState();
+	
+	// current point on the ray, and the optional shape added to it
+	private final Vector3 x = new Vector3();
+	private SupportMap3 shape;
+	
+	// shapes of the previous run. The GJK simplex is only reused when casting against the same shapes
+	private SupportMap3 previousSb, previousSc;
+	
+	// support mapping of the translated shape Sc+x, reused between calls. GJK copies the returned 
+	// support points, so they are written into a single vector
+	private final Vector3 support = new Vector3();
+	private final SupportMap3 Sa = new SupportMap3() {
+		@Override
+		public final Vector3 supportPoint(Vector3 direction) { 
+			support.assign(x);
+			if (shape != null)
+				Vector3.add(support, shape.supportPoint(direction));
+			return support;
+		}
+		@Override
+		public final void supportFeature(Vector3 d, List<Vector3> returnList) {}
+		@Override
+		public final double sphereSweepRadius() {return 0;}
+	};
+	
+	/**
+	 * Forget the simplex of the previous run, so that the result of the next run does not depend on
+	 * earlier runs. Near misses within the envelope can otherwise be decided differently, depending on
+	 * which rays were cast before.
+	 */
+	public final void reset() {
+		previousSb = previousSc = null;
+	}
+	
 	/** 
 	 * Perform ray cast against the convex object defined by Sb. 
 	 * @param Sb support mapping of a convex shape
@@ -50,7 +85,7 @@ public final class RayCast {
 			final boolean sweep) {
 		
 		int iterations = 0; 
-		final Vector3 x = point.add(direction.multiply(lambda));
+		x.assign(point.add(direction.multiply(lambda)));
 		final double sphere;
 		
 		// sphere swept volumes?
@@ -60,29 +95,17 @@ public final class RayCast {
 			sphere = 0;
 		}
 		
+		// translated support mapping Sc+x. If Sc is not given, Sa is just the point x
+		shape = Sc;
 		
-		// translated support mapping Sc+x
-		final SupportMap3 Sa;		
-		if (Sc == null) {
-			Sa = new SupportMap3() {
-				@Override
-				public final Vector3 supportPoint(Vector3 direction) { return new Vector3(x); }
-				@Override
-				public final void supportFeature(Vector3 d, List<Vector3> returnList) {}
-				@Override
-				public final double sphereSweepRadius() {return 0;}
-			};
-		} else {
-			// if Sc is given, add it to the second support map
-			Sa = new SupportMap3() {
-				@Override
-				public final Vector3 supportPoint(Vector3 direction) { return x.add(Sc.supportPoint(direction)); }
-				@Override
-				public final void supportFeature(Vector3 d, List<Vector3> returnList) {}
-				@Override
-				public final double sphereSweepRadius() {return 0;}
-				
-			};			
+		// the simplex from a run against other shapes would mislead GJK
+		if (Sb != previousSb || Sc != previousSc) {
+			gjkstate.simplexSize = 0;
+			gjkstate.v.assign(10,10,10);
+			for (int i=0; i<4; i++)
+				gjkstate.permutation[i] = i;
+			previousSb = Sb;
+			previousSc = Sc;
 		}
 		
 		// vectors from the GJK internal state (pretty ugly but it works) 
@@ -1,123 +1,275 @@
 package jinngine.collision;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 import jinngine.geometry.Geometry;
+import jinngine.math.Vector3;
 import jinngine.util.Pair;
 
 /**
- * Better Sweep-and-prune implementation, replacing the old SweepAndPrune.java
+ * Better Sweep-and-prune implementation, replacing the old SweepAndPrune.java. The bounding box of each
+ * geometry is read once per call to run(), and kept in a proxy object. Whenever two sweep points are
+ * interchanged by the insertion sort, such that two boxes might have started to overlap, the two cached
+ * boxes are tested directly against each other. If two sweep points are interchanged such that two boxes
+ * are separated along the sorted axis, any overlap between them is removed.
+ * <p>
+ * Added geometries are not inserted immediately, but at the beginning of the next call to run(). All pending
+ * geometries are sorted and merged into the sweep axes in one go, and their initial overlaps are found in
+ * a single sweep along the first axis. This makes adding a large number of geometries at once, using add()
+ * or addAll(), about as expensive as sorting them.
  */
 public class SAP2 implements BroadphaseCollisionDetection {
 
-	private final class SweepPoint {
+	// cached bounding box of a geometry
+	private static final class Proxy {
 		public final Geometry geo;
-		public final boolean begin;
-		public final int axis;
-		public SweepPoint(Geometry geo, boolean begin, int axis) {
-			super();
+		// min x,y,z followed by max x,y,z
+		public final double[] bounds = new double[6];
+		public boolean pending = true;
+		public boolean oversized = false;
+		public int index;
+		public Proxy(Geometry geo) {
 			this.geo = geo;
+		}
+		public final void update() {
+			final Vector3 min = geo.getMinBounds();
+			final Vector3 max = geo.getMaxBounds();
+			bounds[0] = min.x; bounds[1] = min.y; bounds[2] = min.z;
+			bounds[3] = max.x; bounds[4] = max.y; bounds[5] = max.z;
+
+			for (double d: bounds) {
+				if (Double.isNaN(d)) {
+					throw new IllegalStateException("Geometry has NaN in its bounding box values"
+							+ (geo.getBody()!=null? geo.getBody().identifier : ""));
+				}
+			}
+		}
+	}
+
+	private static final class SweepPoint {
+		public final Proxy proxy;
+		public final boolean begin;
+		private final int index;
+		public SweepPoint(Proxy proxy, boolean begin, int axis) {
+			this.proxy = proxy;
 			this.begin = begin;
-			this.axis = axis;
-			
-			//do an initial check on value
-			if (Double.isNaN(value())) {
-				throw new IllegalStateException("Geometry has a NaN as bounding value");
-			}		
+			this.index = begin? axis : axis+3;
 		}
 		public final double value() {
-			if (begin) {
-				return geo.getMinBounds().get(axis);
-			} else {
-				return geo.getMaxBounds().get(axis);				
-			}
+			return proxy.bounds[index];
+		}
+		/**
+		 * Sort order of points. Begin points are ordered before end points of equal value, such that the
+		 * order along an axis exactly reflects the inclusive overlap test
+		 */
+		public final boolean isAfter( SweepPoint p ) {
+			final double a = value(), b = p.value();
+			return a > b || (a == b && !begin && p.begin);
+		}
+	}
+
+	private static final Comparator<SweepPoint> order = new Comparator<SweepPoint>() {
+		@Override
+		public int compare(SweepPoint p, SweepPoint q) {
+			return p.isAfter(q)? 1 : (q.isAfter(p)? -1 : 0);
+		}
+	};
+
+	private final ArrayList<Handler> handlers = new ArrayList<Handler>();
+	private final Set<Pair<Geometry>> overlaps = new LinkedHashSet<Pair<Geometry>>();
+	private final Map<Geometry,Proxy> proxies = new HashMap<Geometry,Proxy>();
+	private final ArrayList<Proxy> proxylist = new ArrayList<Proxy>();
+	private final ArrayList<Proxy> pending = new ArrayList<Proxy>();
+	private final ArrayList<SweepPoint> axis1 = new ArrayList<SweepPoint>();
+	private final ArrayList<SweepPoint> axis2 = new ArrayList<SweepPoint>();
+	private final ArrayList<SweepPoint> axis3 = new ArrayList<SweepPoint>();
+
+	// overlaps that appeared or vanished during the current call to run()
+	private final Set<Pair<Geometry>> incoming = new LinkedHashSet<Pair<Geometry>>();
+	private final Set<Pair<Geometry>> leaving = new LinkedHashSet<Pair<Geometry>>();
+
+	// largest extent along the first axis of any bounding box that is not oversized. Oversized boxes, 
+	// such as a large floor, are kept in a separate list, so they do not widen the range scanned by queries
+	private double maxextent = 0;
+	private final ArrayList<Proxy> oversized = new ArrayList<Proxy>();
+
+	// optional pair filter
+	private PairFilter filter = null;
+
+	// auxiliary lists for the sweep
+	private final ArrayList<SweepPoint> newpoints = new ArrayList<SweepPoint>();
+	private final ArrayList<Proxy> activepending = new ArrayList<Proxy>();
+	private final ArrayList<Proxy> activeinserted = new ArrayList<Proxy>();
+
+	private static final boolean overlap( Proxy p, Proxy q ) {
+		final double[] a = p.bounds, b = q.bounds;
+		return a[0] <= b[3] && b[0] <= a[3]
+		    && a[1] <= b[4] && b[1] <= a[4]
+		    && a[2] <= b[5] && b[2] <= a[5];
+	}
+
+	// overlapping boxes whose geometries are allowed to collide
+	private final boolean collides( Proxy p, Proxy q ) {
+		return overlap(p,q) && CollisionFilter.accept(p.geo, q.geo, filter);
+	}
+
+	private final void addOverlap( Pair<Geometry> pair ) {
+		if (overlaps.add(pair)) {
+			// if the pair vanished earlier in this run, it was never really gone
+			if (!leaving.remove(pair))
+				incoming.add(pair);
+		}
+	}
+
+	private final void removeOverlap( Pair<Geometry> pair ) {
+		if (overlaps.remove(pair)) {
+			// if the pair appeared earlier in this run, it was never really there
+			if (!incoming.remove(pair))
+				leaving.add(pair);
 		}
 	}
-	
-	private final class Counter {
-		public boolean wasOverlapping = false;
-		public int overlaps;		
-	}
-	
-	private ArrayList<Handler> handlers = new ArrayList<Handler>();
-	private ArrayList<Pair<Geometry>> overlaps = new ArrayList<Pair<Geometry>>();
-	private Map<Pair<Geometry>,Counter> counters = new LinkedHashMap<Pair<Geometry>, Counter>();
-	private ArrayList<Geometry> geometries = new ArrayList<Geometry>();
-	private ArrayList<SweepPoint> axis1 = new ArrayList<SweepPoint>();
-	private ArrayList<SweepPoint> axis2 = new ArrayList<SweepPoint>();
-	private ArrayList<SweepPoint> axis3 = new ArrayList<SweepPoint>();
-	
-	
+
 	private final void sortAxis( ArrayList<SweepPoint> axis) {
 		// insertion sort from Cormen et al, Introduction to Algorithms
 		for (int j=1; j<axis.size(); j++ ) {
 			final SweepPoint keyelement = axis.get(j);
-			double key = keyelement.value();
-			
-			if (Double.isNaN(key))
-				throw new IllegalStateException("Geometry has NaN in its bounding box values" + keyelement.geo.getBody().identifier );
-				
+
 			int i = j-1;
-			while(i>=0 && axis.get(i).value() > key) {
+			while(i>=0 && axis.get(i).isAfter(keyelement)) {
 				// swap
 				final SweepPoint swapper = axis.get(i);
-				
+
 				if (keyelement.begin && !swapper.begin) {
-					// increment overlap (end before begin)
-					final Pair<Geometry> pair = new Pair<Geometry>(keyelement.geo,swapper.geo);
-					if (counters.containsKey(pair)) {
-						counters.get(pair).overlaps++;
-					} else {
-						Counter counter = new Counter(); counter.overlaps = 1;
-						counters.put(pair,counter);
+					// a begin point was moved before an end point, the boxes may have started to overlap
+					if (collides(keyelement.proxy, swapper.proxy)) {
+						addOverlap(new Pair<Geometry>(keyelement.proxy.geo,swapper.proxy.geo));
 					}
 				}
 
 				if (!keyelement.begin && swapper.begin) {
-					// decrement overlap (begin before end)
-					final Pair<Geometry> pair = new Pair<Geometry>(keyelement.geo,swapper.geo);
-					if (counters.containsKey(pair)) {
-						counters.get(pair).overlaps--;
-						
-						
-					} else {
-						//ignore this case
-						System.out.println("hmm?");
-					}
+					// an end point was moved before a begin point, the boxes are now separated
+					removeOverlap(new Pair<Geometry>(keyelement.proxy.geo,swapper.proxy.geo));
 				}
-				
+
 				axis.set(i+1,swapper);
 				i=i-1;
 			}
 			axis.set(i+1,keyelement);
 		}
 	}
-	
+
+	/**
+	 * Merge the sorted list of new points into the sorted axis
+	 */
+	private static final void mergeAxis( ArrayList<SweepPoint> axis, ArrayList<SweepPoint> points) {
+		int i = axis.size()-1;
+		int j = points.size()-1;
+		int k = axis.size()+points.size()-1;
+
+		// make room
+		axis.ensureCapacity(k+1);
+		for (int n=0; n<points.size(); n++)
+			axis.add(null);
+
+		// merge from the back
+		while (j>=0) {
+			if (i>=0 && axis.get(i).isAfter(points.get(j))) {
+				axis.set(k--, axis.get(i--));
+			} else {
+				axis.set(k--, points.get(j--));
+			}
+		}
+	}
+
+	/**
+	 * Insert all pending geometries into the sweep axes, and find their overlaps
+	 */
+	private final void insertPending() {
+		// read bounds of the new geometries. The inserted geometries keep the
+		// bounds from the last run, such that their axes are still sorted
+		for (Proxy p: pending)
+			p.update();
+
+		// build, sort, and merge sweep points for each axis
+		final ArrayList<ArrayList<SweepPoint>> axes = new ArrayList<ArrayList<SweepPoint>>(3);
+		axes.add(axis1); axes.add(axis2); axes.add(axis3);
+		for (int axis=0; axis<3; axis++) {
+			newpoints.clear();
+			for (Proxy p: pending) {
+				newpoints.add(new SweepPoint(p,true,axis));
+				newpoints.add(new SweepPoint(p,false,axis));
+			}
+			Collections.sort(newpoints, order);
+			mergeAxis(axes.get(axis), newpoints);
+		}
+		newpoints.clear();
+
+		// sweep the first axis. Pending boxes are tested against all active boxes, while already
+		// inserted boxes are only tested against active pending boxes
+		for (SweepPoint point: axis1) {
+			final Proxy p = point.proxy;
+			if (point.begin) {
+				for (Proxy q: activepending)
+					if (collides(p,q))
+						addOverlap(new Pair<Geometry>(p.geo,q.geo));
+
+				if (p.pending) {
+					for (Proxy q: activeinserted)
+						if (collides(p,q))
+							addOverlap(new Pair<Geometry>(p.geo,q.geo));
+					activate(activepending, p);
+				} else {
+					activate(activeinserted, p);
+				}
+			} else {
+				deactivate(p.pending? activepending : activeinserted, p);
+			}
+		}
+
+		// both active lists are empty at this point
+		for (Proxy p: pending)
+			p.pending = false;
+		pending.clear();
+	}
+
+	private static final void activate( ArrayList<Proxy> active, Proxy p ) {
+		p.index = active.size();
+		active.add(p);
+	}
+
+	private static final void deactivate( ArrayList<Proxy> active, Proxy p ) {
+		// swap with last element
+		final Proxy last = active.remove(active.size()-1);
+		if (last != p) {
+			active.set(p.index, last);
+			last.index = p.index;
+		}
+	}
+
 	@Override
 	public void add(Geometry g) {
-		if ( !geometries.contains(g)) {
-			geometries.add(g);
-
-			//create new sweep points
-			axis1.add(new SweepPoint(g,true,0));
-			axis1.add(new SweepPoint(g,false,0));
-			axis2.add(new SweepPoint(g,true,1));
-			axis2.add(new SweepPoint(g,false,1));
-			axis3.add(new SweepPoint(g,true,2));
-			axis3.add(new SweepPoint(g,false,2));
-			
-
-		} else {
+		if (proxies.containsKey(g))
 			throw new IllegalArgumentException("Given geometry already exsist");
-		}
+
+		final Proxy proxy = new Proxy(g);
+		proxies.put(g, proxy);
+		pending.add(proxy);
+	}
+
+	@Override
+	public void addAll(Collection<Geometry> geometries) {
+		for (Geometry g: geometries)
+			add(g);
 	}
 
 	@Override
@@ -132,49 +284,128 @@ public class SAP2 implements BroadphaseCollisionDetection {
 
 	@Override
 	public void remove(Geometry g) {
-		if (geometries.contains(g)) {
-			// remove 
-			geometries.remove(g);
-
-			// remove sweep points
-			removeSweepPoint(axis1, g);
-			removeSweepPoint(axis2, g);
-			removeSweepPoint(axis3, g);
-
-			// go through counters, and delete the ones that involve g. If the counter var 
-			// an overlapping counter, signal an separation event
-			Iterator<Entry<Pair<Geometry>,Counter>> iter = counters.entrySet().iterator();		
-			while (iter.hasNext()) {
-				Entry<Pair<Geometry>,Counter> entry = iter.next();
-				Counter c = entry.getValue();
-				Pair<Geometry> pair = entry.getKey();
-				if ( pair.getFirst() == g || pair.getSecond() == g) {
-					if (c.wasOverlapping) {
-						// notify handlers
-						for (Handler h: handlers) {
-							h.separation(pair);
-						}
-
-						overlaps.remove(pair);
-					}
+		removeAll(Collections.singletonList(g));
+	}
+
+	@Override
+	public void removeAll(Collection<Geometry> geometries) {
+		// find proxies to remove. The whole batch is validated before anything is removed
+		final Set<Proxy> removed = new HashSet<Proxy>();
+		for (Geometry g: geometries) {
+			final Proxy p = proxies.get(g);
+			if (p == null)
+				throw new IllegalArgumentException("Given geometry does not exist");
+			if (!removed.add(p))
+				throw new IllegalArgumentException("Given geometry is removed twice");
+		}
+
+		if (removed.isEmpty())
+			return;
 
-					// remove counter
-					iter.remove();
+		for (Proxy p: removed)
+			proxies.remove(p.geo);
+
+		// remove from pending geometries or sweep axes, in a single pass each
+		removeProxies(pending, removed);
+		removeProxies(proxylist, removed);
+		removeProxies(oversized, removed);
+		removeSweepPoints(axis1, removed);
+		removeSweepPoints(axis2, removed);
+		removeSweepPoints(axis3, removed);
+
+		// remove overlaps that involve removed geometries, and notify handlers
+		final Iterator<Pair<Geometry>> iter = overlaps.iterator();
+		while (iter.hasNext()) {
+			final Pair<Geometry> pair = iter.next();
+			if (!proxies.containsKey(pair.getFirst()) || !proxies.containsKey(pair.getSecond())) {
+				iter.remove();
+				for (Handler h: handlers) {
+					h.separation(pair);
 				}
 			}
-		} else {
-			throw new IllegalArgumentException("Given geometry does not exist");
 		}
+	}
 
+	private static final void removeProxies( List<Proxy> list, Set<Proxy> removed ) {
+		int i=0;
+		for (Proxy p: list)
+			if (!removed.contains(p))
+				list.set(i++, p);
+		while (list.size() > i)
+			list.remove(list.size()-1);
 	}
 
-	private final void removeSweepPoint( List<SweepPoint> list, Geometry g ) {
-		ListIterator<SweepPoint> iter = list.listIterator();
-		while(iter.hasNext()) {
-			SweepPoint p = iter.next();
-			if (p.geo == g)
-				iter.remove();
+	private static final void removeSweepPoints( List<SweepPoint> list, Set<Proxy> removed ) {
+		int i=0;
+		for (SweepPoint p: list)
+			if (!removed.contains(p.proxy))
+				list.set(i++, p);
+		while (list.size() > i)
+			list.remove(list.size()-1);
+	}
+
+	/**
+	 * Query the first sweep axis. Only geometries present at the last call to run() are considered, 
+	 * using their bounding boxes at that time. Oversized boxes are tested one by one.
+	 */
+	@Override
+	public void query(Vector3 min, Vector3 max, List<Geometry> result) {
+		// any overlapping box must begin after this value
+		final double start = min.x - maxextent;
+
+		// binary search for the first point at or after start
+		int lo = 0, hi = axis1.size();
+		while (lo < hi) {
+			final int mid = (lo+hi) >>> 1;
+			if (axis1.get(mid).value() < start)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+
+		// scan begin points until the end of the query box
+		for (int i=lo; i<axis1.size(); i++) {
+			final SweepPoint point = axis1.get(i);
+			if (point.value() > max.x)
+				break;
+
+			if (point.begin && !point.proxy.oversized) {
+				final double[] b = point.proxy.bounds;
+				if (min.x <= b[3] && min.y <= b[4] && b[1] <= max.y && min.z <= b[5] && b[2] <= max.z)
+					result.add(point.proxy.geo);
+			}
 		}
+		
+		for (Proxy p: oversized) {
+			final double[] b = p.bounds;
+			if (min.x <= b[3] && b[0] <= max.x && min.y <= b[4] && b[1] <= max.y && min.z <= b[5] && b[2] <= max.z)
+				result.add(p.geo);
+		}
+	}
+
+	/**
+	 * Get the bounding box of a geometry, as it was at the last call to run(). This is the box used by 
+	 * query(), and reading it does not allocate.
+	 * @return false if the geometry is not present, or was added after the last call to run()
+	 */
+	public boolean getBounds(Geometry g, Vector3 min, Vector3 max) {
+		final Proxy p = proxies.get(g);
+		if (p == null || p.pending)
+			return false;
+		final double[] b = p.bounds;
+		min.assign(b[0], b[1], b[2]);
+		max.assign(b[3], b[4], b[5]);
+		return true;
+	}
+
+	@Override
+	public void setPairFilter(PairFilter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public PairFilter getPairFilter() {
+		return filter;
 	}
 
 	@Override
@@ -184,53 +415,55 @@ public class SAP2 implements BroadphaseCollisionDetection {
 
 	@Override
 	public void run() {
-		// sort each axis and update counters
+		incoming.clear();
+		leaving.clear();
+
+		// insert new geometries
+		if (!pending.isEmpty()) {
+			proxylist.addAll(pending);
+			insertPending();
+		}
+
+		// update cached bounds
+		double total = 0;
+		for (Proxy p: proxylist) {
+			p.update();
+			total += p.bounds[3]-p.bounds[0];
+		}
+		
+		// boxes more than four times the mean extent are oversized. This is at most a quarter of the boxes
+		final double limit = 4*total/Math.max(1, proxylist.size());
+		maxextent = 0;
+		oversized.clear();
+		for (Proxy p: proxylist) {
+			final double extent = p.bounds[3]-p.bounds[0];
+			p.oversized = extent > limit;
+			if (p.oversized)
+				oversized.add(p);
+			else
+				maxextent = Math.max(maxextent, extent);
+		}
+
+		// sort each axis and update overlaps
 		sortAxis(axis1);
 		sortAxis(axis2);
 		sortAxis(axis3);
-		
-		int countingOverlaps = 0;
-		// go through all counters
-		Iterator<Entry<Pair<Geometry>,Counter>> iter = counters.entrySet().iterator();		
-		while (iter.hasNext()) {
-			Entry<Pair<Geometry>,Counter> entry = iter.next();
-			Counter c = entry.getValue();
-			Pair<Geometry> pair = entry.getKey();
-			
-			if (c.overlaps == 3) 
-				countingOverlaps ++;
-			
-			if (c.wasOverlapping) {
-				// report separation 
-				if (c.overlaps < 3 ) {
-					overlaps.remove(pair);
-					c.wasOverlapping = false;
-					
-					// notify handlers
-					for (Handler h: handlers) {
-						h.separation(pair);
-					}			
-				}
-			} else {
-				// report overlap
-				if (c.overlaps > 2) {
-					overlaps.add(pair);
-					c.wasOverlapping = true;
-					
-					// notify handlers
-					for (Handler h: handlers) {
-						h.overlap(pair);
-					}			
 
-				}
-			} // if was overlapping
-			
-			// if counter is zero at this 
-			// point, remove it
-			if (c.overlaps < 1) {
-				iter.remove();
+		// report new overlaps
+		for (Pair<Geometry> pair: incoming) {
+			for (Handler h: handlers) {
+				h.overlap(pair);
 			}
-		} // for all counters
-	} 
+		}
 
+		// report separations
+		for (Pair<Geometry> pair: leaving) {
+			for (Handler h: handlers) {
+				h.separation(pair);
+			}
+		}
+
+		incoming.clear();
+		leaving.clear();
+	}
 }
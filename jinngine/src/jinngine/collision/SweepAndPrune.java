@@ -33,6 +33,7 @@ public class SweepAndPrune implements BroadphaseCollisionDetection {
 	private final Set<Pair<Geometry>> overlappingPairs = new LinkedHashSet<Pair<Geometry>>();
 	private final Set<Pair<Geometry>> incomming = new LinkedHashSet<Pair<Geometry>>();
 	private final Set<Pair<Geometry>> leaving = new LinkedHashSet<Pair<Geometry>>();
+	private PairFilter filter = null;
 
 	public SweepAndPrune() {}
 	
@@ -95,7 +96,6 @@ public class SweepAndPrune implements BroadphaseCollisionDetection {
 
 					j--;
 
-
 					//handle counters
 					if (!e.begin && pivot.begin) {
 						//an end-point was put before a begin point, we increment
@@ -105,8 +105,9 @@ public class SweepAndPrune implements BroadphaseCollisionDetection {
 						}
 						counters.put(new Pair<Geometry>(e.geometry,pivot.geometry),++counter);
 //						System.out.println("vounter="+counter);
-						//overlap was found
-						if (counter == 3 ) {
+						//overlap was found, it is only reported if the geometries are allowed to collide.
+						//counting always happens, so the filter can change at any time
+						if (counter == 3 && CollisionFilter.accept(e.geometry, pivot.geometry, filter)) {
 							Pair<Geometry> pair = new Pair<Geometry>(e.geometry,pivot.geometry);
 							pairs.add(pair);
 							incomming.add(pair);
@@ -117,21 +118,17 @@ public class SweepAndPrune implements BroadphaseCollisionDetection {
 					if (e.begin && !pivot.begin) {
 						//a begin point was put before an end point, we decrement
 						Integer counter = counters.get(new Pair<Geometry>(e.geometry,pivot.geometry));
-						if (counter == null) {
-							System.out.println("why does this happen?");
-							System.exit(0);
-							break;
-							//counter = new Integer(0);
-						}
+						if (counter == null)
+							throw new IllegalStateException("SweepAndPrune: decrement of a pair that was never counted");
 						counters.put(new Pair<Geometry>(e.geometry,pivot.geometry),--counter);
 						//System.out.println("vounter="+counter);
-						//overlap vanished
+						//overlap vanished, pairs rejected by the filter were never reported
 						if (counter == 2) { //counter < 3 (but ==2 is more effective)
 							//O(k) operation
 							Pair<Geometry> pair = new Pair<Geometry>(e.geometry,pivot.geometry);
-							pairs.remove(pair);
-							if(!incomming.remove(pair))
-								leaving.add(pair);
+							if (pairs.remove(pair))
+								if(!incomming.remove(pair))
+									leaving.add(pair);
 
 						}
 					}
@@ -146,6 +143,32 @@ public class SweepAndPrune implements BroadphaseCollisionDetection {
 	}
 
 
+	@Override
+	public void addAll(Collection<Geometry> a) {
+		for (Geometry g: a)
+			add(g);
+	}
+
+	@Override
+	public void removeAll(Collection<Geometry> a) {
+		for (Geometry g: a)
+			remove(g);
+	}
+
+	@Override
+	public void query(Vector3 min, Vector3 max, List<Geometry> result) {
+		for (int i=0; i<geometries*2; i++) {
+			SweepPoint p = xAxis[i];
+			if (p.begin) {
+				Vector3 gmin = p.aabb.getMinBounds();
+				Vector3 gmax = p.aabb.getMaxBounds();
+				if (gmin.x <= max.x && min.x <= gmax.x && gmin.y <= max.y && min.y <= gmax.y 
+						&& gmin.z <= max.z && min.z <= gmax.z)
+					result.add(p.geometry);
+			}
+		}
+	}
+
 	public Iterator<Pair<Geometry>> overlappingPairs() {
 		return overlappingPairs.iterator();
 	}
@@ -318,6 +341,16 @@ public class SweepAndPrune implements BroadphaseCollisionDetection {
 		handlers.add(h);
 	}
 
+	@Override
+	public void setPairFilter(PairFilter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public PairFilter getPairFilter() {
+		return filter;
+	}
+
 	@Override
 	public void removeHandler(Handler h) {
 		handlers.remove(h);
@@ -15,7 +15,7 @@ import jinngine.physics.Body;
 /**
  * A box geometry implementation
  */
-public class Box implements SupportMap3, Geometry, Material {
+public class Box implements FlatSupportMap3, Geometry, Material {
 
 	// transforms and body reference
 	private Body body;
@@ -34,6 +34,11 @@ public class Box implements SupportMap3, Geometry, Material {
 	// auxiliary user reference
 	private Object auxiliary;
 	
+	// collision filtering
+	private int category = 1;
+	private int mask = 0xffffffff;
+	private boolean sensor = false;
+	
 	// material settings (defaults)
 	private double restitution = 0.7;
 	private double friction = 0.5;
@@ -86,6 +91,14 @@ public class Box implements SupportMap3, Geometry, Material {
 	// user auxiliary methods
 	public Object getAuxiliary() { return auxiliary; }
 	public void setAuxiliary(Object auxiliary) { this.auxiliary = auxiliary; }
+	
+	// collision filtering methods
+	public int getCollisionCategory() { return category; }
+	public void setCollisionCategory(int category) { this.category = category; }
+	public int getCollisionMask() { return mask; }
+	public void setCollisionMask(int mask) { this.mask = mask; }
+	public boolean isSensor() { return sensor; }
+	public void setSensor(boolean sensor) { this.sensor = sensor; }
 
 	@Override
 	public Vector3 supportPoint(Vector3 direction) {
@@ -332,6 +345,85 @@ public class Box implements SupportMap3, Geometry, Material {
 			assert false;
 		}
 	}
+	
+	@Override
+	public int supportFeature(final Vector3 d, final double[] feature) {
+		final double epsilon = 0.09;
+		//get d into the canonical box space
+		final Matrix3 R = body.state.rotation;
+		final double ux = R.a11*d.x + R.a21*d.y + R.a31*d.z;
+		final double uy = R.a12*d.x + R.a22*d.y + R.a32*d.z;
+		final double uz = R.a13*d.x + R.a23*d.y + R.a33*d.z;
+		final Matrix3 L = localrotation;
+		final double vx = L.a11*ux + L.a21*uy + L.a31*uz;
+		final double vy = L.a12*ux + L.a22*uy + L.a32*uz;
+		final double vz = L.a13*ux + L.a23*uy + L.a33*uz;
+		
+		final double sx = vx<0?-0.5:0.5;
+		final double sy = vy<0?-0.5:0.5;
+		final double sz = vz<0?-0.5:0.5;
+		final boolean zx = Math.abs(vx) < epsilon;
+		final boolean zy = Math.abs(vy) < epsilon;
+		final boolean zz = Math.abs(vz) < epsilon;
+		final int numberOfZeroAxis = (zx?1:0) + (zy?1:0) + (zz?1:0);
+		
+		switch (numberOfZeroAxis) {
+		case 0:
+			// vertex
+			transform(sx, sy, sz, feature, 0);
+			return 1;
+		case 1:
+			// edge along the zero axis
+			transform(zx?0.5:sx, zy?0.5:sy, zz?0.5:sz, feature, 0);
+			transform(zx?-0.5:sx, zy?-0.5:sy, zz?-0.5:sz, feature, 3);
+			return 2;
+		case 2:
+			// face, in counter clock-wise order wrt. the non zero axis direction
+			if (!zx) {
+				final double s = vx > 0? 1 : -1;
+				transform(sx,  0.5,      0.5,      feature, 0);
+				transform(sx, -0.5*s,    0.5*s,    feature, 3);
+				transform(sx, -0.5,     -0.5,      feature, 6);
+				transform(sx,  0.5*s,   -0.5*s,    feature, 9);
+			} else if (!zy) {
+				final double s = vy > 0? 1 : -1;
+				transform( 0.5,    sy,  0.5,      feature, 0);
+				transform( 0.5*s,  sy, -0.5*s,    feature, 3);
+				transform(-0.5,    sy, -0.5,      feature, 6);
+				transform(-0.5*s,  sy,  0.5*s,    feature, 9);
+			} else {
+				final double s = vz > 0? 1 : -1;
+				transform( 0.5,     0.5,    sz, feature, 0);
+				transform(-0.5*s,   0.5*s,  sz, feature, 3);
+				transform(-0.5,    -0.5,    sz, feature, 6);
+				transform( 0.5*s,  -0.5*s,  sz, feature, 9);
+			}
+			return 4;
+		default:
+			//should never happen, undefinded result
+			return 0;
+		}
+	}
+	
+	/**
+	 * Transform the point (x,y,z) in canonical box space to world space, and write it to f at index i
+	 */
+	private void transform(final double x, final double y, final double z, final double[] f, final int i) {
+		final Matrix3 T = localtransform;
+		final double lx = T.a11*x + T.a12*y + T.a13*z + localdisplacement.x;
+		final double ly = T.a21*x + T.a22*y + T.a23*z + localdisplacement.y;
+		final double lz = T.a31*x + T.a32*y + T.a33*z + localdisplacement.z;
+		final Matrix3 R = body.state.rotation;
+		final Vector3 p = body.state.position;
+		f[i]   = R.a11*lx + R.a12*ly + R.a13*lz + p.x;
+		f[i+1] = R.a21*lx + R.a22*ly + R.a23*lz + p.y;
+		f[i+2] = R.a31*lx + R.a32*ly + R.a33*lz + p.z;
+	}
+	
+	@Override
+	public int getMaxFeatureSize() {
+		return 4;
+	}
 
 	//Material getters and setters
 	@Override
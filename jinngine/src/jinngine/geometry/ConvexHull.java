@@ -8,14 +8,9 @@
  */
 package jinngine.geometry;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import quickhull3d.Point3d;
-import quickhull3d.QuickHull3D;
-
-import jinngine.geometry.util.MassProperties;
 import jinngine.math.InertiaMatrix;
 import jinngine.math.Matrix3;
 import jinngine.math.Matrix4;
@@ -24,174 +19,60 @@ import jinngine.math.Vector3;
 import jinngine.physics.Body;
 
 /**
- * Convex hull geometry implementation, given by a user defined set of points
+ * Convex hull geometry implementation, given by a user defined set of points. The hull shape, including its
+ * adjacency and mass properties, is kept in an immutable {@link ConvexHullData}, which can be precomputed and
+ * shared between many hulls of the same shape. A ConvexHull instance only holds the body, local transform, scale,
+ * envelope and material, so creating many instances of a single shape is cheap.
  */
-public class ConvexHull implements SupportMap3, Geometry, Material {
-
-	private final List<Vector3[]> faces = new ArrayList<Vector3[]>();
-	private final ArrayList<Vector3> vertices = new ArrayList<Vector3>();
-	private final ArrayList<ArrayList<Integer>> adjacent;
-	private final ArrayList<Vector3> dualvertices = new ArrayList<Vector3>();
-	private final ArrayList<ArrayList<Integer>> dualadjacent;
-	private final Vector3 centreOfMass;
-	private final double referenceMass;
-	private final int numberOfVertices;
+public class ConvexHull implements FlatSupportMap3, Geometry, Material {
+
+	private final ConvexHullData data;
+	private final Vector3[] vertices;
+	private final int[][] adjacent;
+	private final Vector3[] dualvertices;
+	private final int[][] dualadjacent;
+	private final List<Vector3[]> faces;
 	private int cachedVertex = 0;
+	private final Vector3 featuredirection = new Vector3();
 	
 	// Material
 	private double friction = 0.5;
 	private double restitution = 0.7;
 	
-	/**
-	 * Computes vertex adjacency lists. Method simply runs through all faces, which are given as lists of vertex indices, and fills out 
-	 * adjacency lists along the way. It also roots out duplicate adjacency entries, arising from the same pair of vertices being present
-	 * two adjacent faces. The motivation for this approach is that the face index lists are the only adjacency information available from 
-	 * the QuickHull3D implementation.
-	 */
-	private final ArrayList<ArrayList<Integer>> adjacencyList( int[][] faceindices, int numberOfVertices) {
-		ArrayList<ArrayList<Integer>> adjacent = new ArrayList<ArrayList<Integer>>();
-		
-		//create array of arrays for adjacency lists 
-		adjacent.ensureCapacity(numberOfVertices);
-		for (int i=0;i<numberOfVertices; i++)
-			adjacent.add(i, new ArrayList<Integer>());
-		
-		// for each face
-		for ( int[] face : faceindices) {
-			//for each vertex 
-			int prevvertex = face[face.length-1];
-			for (int i=0; i<face.length; i++) {
-				//add both ways in adjacency list
-				int vertex = face[i];
-				
-				// first vertex (if not already there)
-				List<Integer> adj = adjacent.get(prevvertex);
-				boolean found = false;
-				for (int a : adj)
-					if (a == vertex) 
-						found = true;
-				if (!found)
-					adj.add(vertex);
-				
-				// second vertex
-				adj = adjacent.get(vertex);
-				found = false;
-				for (int a : adj)
-					if (a == prevvertex) 
-						found = true;
-				if (!found)
-					adj.add(prevvertex);
-
-				// set next previous vertex
-				prevvertex = vertex;
-			}			
-		}
-		
-		return adjacent;
-	}
-	
 	/**
 	 * Create a convex hull geometry, based on the points given 
 	 * @param input
 	 */
 	public ConvexHull(List<Vector3> input) {	
-		final QuickHull3D dualhull = new QuickHull3D();
-		final QuickHull3D hull = new QuickHull3D();
-
-		// convert points 	
-		int i=0; double[] vectors = new double[3*input.size()];
-		for (Vector3 v: input) {
-			vectors[i+0] = v.x;
-			vectors[i+1] = v.y;
-			vectors[i+2] = v.z;
-			i = i+3;
-		}
-		
-		// build the hull
-		hull.build(vectors);
-				
-		// extract faces from the QuickHull3D implementation
-		Point3d[] points = hull.getVertices();
-		int[][] faceIndices = hull.getFaces();
-		
-		// get hull vertices 
-		for ( Point3d p: points) 
-			vertices.add(new Vector3( p.x, p.y, p.z));
+		this(ConvexHullData.build(input));
+	}
 	
-		// grab the number of vertices
-		numberOfVertices = vertices.size();
-		
-		// adjacency lists for hull
-		adjacent = adjacencyList(faceIndices, numberOfVertices );
-		
-		// go thru all faces to make the dual hull points
-		for (i=0; i< faceIndices.length; i++) { 	
-			//convert to Vector3 array
-			Vector3[] f = new Vector3[faceIndices[i].length];
-			for (int j=0; j<faceIndices[i].length; j++) {
-				//Point3d p = points[faceIndices[i][j]];	
-				//f[j] = new Vector3(p.x,p.y,p.z );
-				// use the vectors in vertices insted of new vectors
-				f[j] = vertices.get(faceIndices[i][j]);
-			}
-
-			//append face to external representation
-			faces.add(f);
-			
-			//get face vertices
-			Vector3 v1 = f[0];
-			Vector3 v2 = f[1];
-			Vector3 v3 = f[2];
-
-			// set normal
-			Vector3 normal = v1.sub(v2).cross(v3.sub(v2)).normalize().multiply(-1);
-			
-			// add to the dual polygon vertices (index corresponds to a face)
-			dualvertices.add(normal);
-		}
-		
-		// create the dual hull
-		i=0; double[] dualvectors = new double[3*dualvertices.size()];
-		for (Vector3 v: dualvertices) {
-			dualvectors[i+0] = v.x;
-			dualvectors[i+1] = v.y;
-			dualvectors[i+2] = v.z;
-			i = i+3;
-		}
-		
-		// build the dual hull
-		dualhull.build(dualvectors);
-		
-		// create an adjacency list for the dual hull
-		dualadjacent = adjacencyList(dualhull.getFaces(), dualvertices.size());			
-					
-		// perform approximate mass calculation
-		MassProperties masscalculation = new MassProperties( this, 0.05 );
-		
-		// set propperties
-		mass = referenceMass = masscalculation.getMass();
-		inertiamatrix = new InertiaMatrix(masscalculation.getInertiaMatrix());
-		centreOfMass = masscalculation.getCentreOfMass();
+	/**
+	 * Create a convex hull geometry from precomputed hull data. The data is shared, not copied
+	 * @param data
+	 */
+	public ConvexHull(ConvexHullData data) {
+		this.data = data;
+		vertices = data.vertices;
+		adjacent = data.adjacent;
+		dualvertices = data.dualvertices;
+		dualadjacent = data.dualadjacent;
+		faces = data.faces;
 
-		// align all vertices and faces to centre of mass coordinates
-		for ( Vector3 p: vertices)
-			Vector3.add( p, centreOfMass.multiply(-1) );
-		
-//		for ( Vector3[] f: faces) 
-//			for (Vector3 p: f)
-//				Vector3.add( p, centreOfMass.multiply(-1));
+		// set propperties
+		mass = data.mass;
 
-		
-		//search vertices to find extremal bounds
-		extremalpoint.assignZero();
-		for ( Vector3 v: vertices) {
-			if (extremalpoint.norm() < v.norm()) extremalpoint.assign(v);
-		}
-		
 		// assign max extends ( assume identity scale at this point)
-		double max = extremalpoint.norm();
+		double max = data.radius;
 		bounds.assign(max,max,max);
-
+	}
+	
+	/**
+	 * Get the hull data that this convex hull was created from
+	 * @return
+	 */
+	public final ConvexHullData getHullData() {
+		return data;
 	}
 	
 	/**
@@ -199,7 +80,7 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	 * @return
 	 */
 	public final int getNumberOfVertices() {
-		return vertices.size();
+		return vertices.length;
 	}
 	
 	/**
@@ -207,7 +88,7 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	 * @return
 	 */
 	public final Iterator<Vector3> getVertices() {
-		return vertices.iterator();
+		return data.getVertices();
 	}
 	
 	/**
@@ -215,12 +96,15 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	 * @return
 	 */
 	public final Iterator<Vector3[]> getFaces() {
-		return faces.iterator();
+		return data.getFaces();
 	}
 
 	// Geometry
 	private Object auxiliary;
-	private Body body = new Body("default");
+	private int category = 1;
+	private int mask = 0xffffffff;
+	private boolean sensor = false;
+	private Body body;
 	private double envelope = 0.125;
 	private Matrix3 localrotation = Matrix3.identity();
 	private Matrix4 localtransform4 = Matrix4.identity();
@@ -230,7 +114,6 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	private final Vector3 inverselocalscale = new Vector3(1,1,1);
 
 	// AxisAlignedBoundingBox
-	private final Vector3 extremalpoint = new Vector3();
 	private final Vector3 bounds = new Vector3();
 //	private final Vector3 minBounds = new Vector3();
 //	private final Vector3 maxBounds = new Vector3();
@@ -239,54 +122,25 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	
 	// Material
 	private double mass = 1;
-	private final InertiaMatrix inertiamatrix;
 	
 	@Override
 	public Vector3 supportPoint(Vector3 direction) {
 		// normals are transformed (RS^-1)
 		Vector3 v = body.state.rotation.multiply(localrotation).scale(localscale).transpose().multiply(direction);
 		
-		// do hill climbing if the hull has a considerable number of vertices
-//		if (numberOfVertices > 32) {
-			//hill climb along v
-			int index = cachedVertex;
-			double value = v.dot(vertices.get(index));
-			boolean better = true;
-			while (better) {
-				better = false;
-				//go through adjacency list and pick first improver (greedy)
-				for ( int i: adjacent.get(index)) {
-					double newvalue = v.dot(vertices.get(i));
-					if ( newvalue > value) {
-						value = newvalue;
-						index = i;
-						better = true;
-						break;
-					} 
-				}
-			}
-			
-			// keep the vertex
-			cachedVertex = index;
-			
-			// return the final support point in world space
-			return body.state.rotation.multiply(localrotation.scale(localscale).multiply(vertices.get(index)).add(localtranslation)).add(body.state.position);
-
-//		} else {
-//			// if not, just check each vertex
-//			double value = Double.NEGATIVE_INFINITY;
-//			Vector3 best = null;
-//			for (Vector3 p: vertices) {
-//				if (v.dot(p) > value || best == null) {
-//					best = p;
-//					value = v.dot(p);
-//				}
-//			}
-//			
-//			// return final support point in world space
-//			return body.state.rotation.multiply(localrotation.multiply(best).add(localtranslation)).add(body.state.position);			
-//		}
-
+		// start from the cube map cell of v if there is one, otherwise from the previous support vertex
+		int index = data.lookupVertex(v);
+		if (index < 0)
+			index = cachedVertex;
+		
+		//hill climb along v
+		index = ConvexHullData.climb(v, vertices, adjacent, index);
+		
+		// keep the vertex
+		cachedVertex = index;
+		
+		// return the final support point in world space
+		return body.state.rotation.multiply(localrotation.scale(localscale).multiply(vertices[index]).add(localtranslation)).add(body.state.position);
 	}
 
 	@Override
@@ -297,29 +151,53 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 		// maps a vertex onto a face in the original convex hull. Therefore, this method will 
 		// return a face at all times
 		Vector3 v = body.state.rotation.multiply(localrotation).scale(localscale).transpose().multiply(direction);
-		// hill climb the dual hull to find face 
-		int index = 0;
-		double value = v.dot(dualvertices.get(index));
-		boolean better = true;
-		while (better) {
-			better = false;
-			//go through adjacency list and pick first improver (greedy)
-			for ( int i: dualadjacent.get(index)) {
-				double newvalue = v.dot(dualvertices.get(i));
-				if ( newvalue > value) {
-					value = newvalue;
-					index = i;
-					better = true;
-					break;
-				} 
-			}
-		}
+		// hill climb the dual hull to find face, starting from the cube map cell of v if there is one
+		int index = data.lookupFace(v);
+		if (index < 0)
+			index = 0;
+		index = ConvexHullData.climb(v, dualvertices, dualadjacent, index);
 		
 		// output the face according to the dual hull index
 		for (Vector3 p: faces.get(index)) 
 			returnface.add( body.state.rotation.multiply(localrotation.scale(localscale).multiply(p).add(localtranslation)).add(body.state.position) );
 	}
 
+	@Override
+	public int supportFeature(Vector3 direction, double[] feature) {
+		// transform the direction into hull space, v = (R L S)^T d
+		final Vector3 v = featuredirection;
+		Matrix3.transposeVectorAndMultiply(direction, body.state.rotation, v);
+		Matrix3.transposeVectorAndMultiply(v, localrotation, v);
+		v.assign(v.x*localscale.x, v.y*localscale.y, v.z*localscale.z);
+
+		// hill climb the dual hull to find face, starting from the cube map cell of v if there is one
+		int index = data.lookupFace(v);
+		if (index < 0)
+			index = 0;
+		index = ConvexHullData.climb(v, dualvertices, dualadjacent, index);
+
+		// output the face in world space, w = R (L S p + t) + x
+		final Matrix3 L = localrotation;
+		final Matrix3 R = body.state.rotation;
+		final Vector3 x = body.state.position;
+		final Vector3[] face = faces.get(index);
+		for (int i=0; i<face.length; i++) {
+			final Vector3 p = face[i];
+			final double px = p.x*localscale.x, py = p.y*localscale.y, pz = p.z*localscale.z;
+			final double lx = L.a11*px + L.a12*py + L.a13*pz + localtranslation.x;
+			final double ly = L.a21*px + L.a22*py + L.a23*pz + localtranslation.y;
+			final double lz = L.a31*px + L.a32*py + L.a33*pz + localtranslation.z;
+			feature[3*i]   = R.a11*lx + R.a12*ly + R.a13*lz + x.x;
+			feature[3*i+1] = R.a21*lx + R.a22*ly + R.a23*lz + x.y;
+			feature[3*i+2] = R.a31*lx + R.a32*ly + R.a33*lz + x.z;
+		}
+		return face.length;
+	}
+
+	@Override
+	public int getMaxFeatureSize() {
+		return data.maxfacesize;
+	}
 	
 	@Override
 	public Body getBody() {
@@ -334,7 +212,7 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	@Override
 	public InertiaMatrix getInertialMatrix() {
 		// scale the inertia matrix in the specified mass and reference mass ratio
-		return new InertiaMatrix(inertiamatrix.multiply( mass / referenceMass ));
+		return new InertiaMatrix(data.inertia.multiply( mass / data.mass ));
 	}
 
 		
@@ -403,9 +281,39 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 	public void setAuxiliary(Object auxiliary) {
 		this.auxiliary = auxiliary;
 	}
+
+	@Override
+	public int getCollisionCategory() {
+		return category;
+	}
+
+	@Override
+	public void setCollisionCategory(int category) {
+		this.category = category;
+	}
+
+	@Override
+	public int getCollisionMask() {
+		return mask;
+	}
+
+	@Override
+	public void setCollisionMask(int mask) {
+		this.mask = mask;
+	}
+
+	@Override
+	public boolean isSensor() {
+		return sensor;
+	}
+
+	@Override
+	public void setSensor(boolean sensor) {
+		this.sensor = sensor;
+	}
 	
 	public Vector3 getCentreOfMass() {
-		return new Vector3(centreOfMass);
+		return data.getCentreOfMass();
 	}
 
 	@Override
@@ -435,14 +343,10 @@ public class ConvexHull implements SupportMap3, Geometry, Material {
 		
 		//re-assign bounds by scaling the previous extremal point TODO not sure this is tight
 		//search vertices to find extremal bounds
-		extremalpoint.assignZero();
-		for ( Vector3 v: vertices) {
-			if (extremalpoint.norm() < v.scale(localscale).norm()) 
-				extremalpoint.assign(v.scale(localscale));
-		}
-		double max = extremalpoint.norm();
+		double max = 0;
+		for ( Vector3 v: vertices)
+			max = Math.max(max, v.scale(localscale).norm());
 		bounds.assign(max,max,max);
-		System.out.println("max="+max);
 
 	}
 
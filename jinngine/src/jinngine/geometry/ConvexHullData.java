@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import quickhull3d.Point3d;
+import quickhull3d.QuickHull3D;
+
+import jinngine.geometry.util.PolyhedronMassProperties;
+import jinngine.math.InertiaMatrix;
+import jinngine.math.Vector3;
+
+/**
+ * Precomputed shape of a {@link ConvexHull}. Holds the hull vertices and their adjacency, the faces, the dual hull
+ * used for finding support features, and the mass properties. Building the data runs QuickHull3D on the points and
+ * on the face normals, which is expensive. The data can be written to a file once, and loaded again through a
+ * memory mapped buffer, so creating hulls of a known shape only costs copying arrays. The data is immutable, and
+ * can be shared by any number of ConvexHull instances.
+ * <p>
+ * Hulls with many vertices also get a support cube map. Each face of a cube around the origin is divided into a
+ * grid of cells, and every cell stores the support vertex and support face for the direction through its centre.
+ * A support query looks up the cell of the direction, and hill climbs from the stored vertex. This takes a few
+ * steps regardless of the number of vertices, where climbing from an arbitrary vertex takes a number of steps
+ * that grows with the size of the hull.
+ */
+public final class ConvexHullData {
+	// identifies the binary format
+	private static final int MAGIC = 0x4a48554c;
+	private static final int VERSION = 2;
+
+	// hulls with fewer vertices get no cube map
+	private static final int CUBE_MAP_MIN_VERTICES = 32;
+	private static final int CUBE_MAP_MAX_RESOLUTION = 32;
+
+	// hull vertices in centre of mass coordinates, and their adjacency
+	final Vector3[] vertices;
+	final int[][] adjacent;
+
+	// faces as vertex indices, and as arrays of the vertex vectors
+	final int[][] faceindices;
+	final List<Vector3[]> faces;
+
+	// dual hull, with a vertex for each face given by the face normal
+	final Vector3[] dualvertices;
+	final int[][] dualadjacent;
+
+	// mass properties, with unit density
+	final double mass;
+	final InertiaMatrix inertia;
+	final Vector3 centreofmass;
+
+	// support cube map, cells per side of a cube face, and vertex and face index for each cell
+	final int cuberesolution;
+	final int[] supportcube;
+	final int[] featurecube;
+
+	// distance to the vertex furthest from the centre of mass
+	final double radius;
+
+	// largest number of vertices in a face
+	final int maxfacesize;
+
+	private ConvexHullData( Vector3[] vertices, int[][] adjacent, int[][] faceindices, Vector3[] dualvertices,
+			int[][] dualadjacent, double mass, InertiaMatrix inertia, Vector3 centreofmass,
+			int cuberesolution, int[] supportcube, int[] featurecube ) {
+		this.vertices = vertices;
+		this.adjacent = adjacent;
+		this.faceindices = faceindices;
+		this.dualvertices = dualvertices;
+		this.dualadjacent = dualadjacent;
+		this.mass = mass;
+		this.inertia = inertia;
+		this.centreofmass = centreofmass;
+		this.cuberesolution = cuberesolution;
+		this.supportcube = supportcube;
+		this.featurecube = featurecube;
+
+		// faces share the vertex vectors
+		final List<Vector3[]> faces = new ArrayList<Vector3[]>(faceindices.length);
+		for (int[] face: faceindices) {
+			final Vector3[] f = new Vector3[face.length];
+			for (int j=0; j<face.length; j++)
+				f[j] = vertices[face[j]];
+			faces.add(f);
+		}
+		this.faces = Collections.unmodifiableList(faces);
+
+		double max = 0;
+		for (Vector3 v: vertices)
+			max = Math.max(max, v.norm());
+		this.radius = max;
+
+		int maxfacesize = 0;
+		for (int[] face: faceindices)
+			maxfacesize = Math.max(maxfacesize, face.length);
+		this.maxfacesize = maxfacesize;
+	}
+
+	/**
+	 * Build the convex hull of the given points. A support cube map is built if the hull has many vertices
+	 */
+	public static ConvexHullData build( List<Vector3> input ) {
+		return build(input, -1);
+	}
+
+	/**
+	 * Build the convex hull of the given points, with a support cube map of the given resolution
+	 * @param input points to build the hull from
+	 * @param cuberesolution number of cells along each side of a cube face. Zero gives no cube map, and a
+	 * negative value chooses a resolution based on the number of hull vertices
+	 */
+	public static ConvexHullData build( List<Vector3> input, int cuberesolution ) {
+		final QuickHull3D hull = new QuickHull3D();
+		final QuickHull3D dualhull = new QuickHull3D();
+
+		// convert points
+		int i=0; double[] vectors = new double[3*input.size()];
+		for (Vector3 v: input) {
+			vectors[i+0] = v.x;
+			vectors[i+1] = v.y;
+			vectors[i+2] = v.z;
+			i = i+3;
+		}
+
+		// build the hull
+		hull.build(vectors);
+		final Point3d[] points = hull.getVertices();
+		final int[][] faceindices = hull.getFaces();
+
+		final Vector3[] vertices = new Vector3[points.length];
+		for (i=0; i<points.length; i++)
+			vertices[i] = new Vector3(points[i].x, points[i].y, points[i].z);
+
+		// face normals are the vertices of the dual hull (index corresponds to a face)
+		final Vector3[] dualvertices = new Vector3[faceindices.length];
+		double[] dualvectors = new double[3*faceindices.length];
+		for (i=0; i<faceindices.length; i++) {
+			final Vector3 v1 = vertices[faceindices[i][0]];
+			final Vector3 v2 = vertices[faceindices[i][1]];
+			final Vector3 v3 = vertices[faceindices[i][2]];
+			final Vector3 normal = v1.sub(v2).cross(v3.sub(v2)).normalize().multiply(-1);
+			dualvertices[i] = normal;
+			dualvectors[3*i+0] = normal.x;
+			dualvectors[3*i+1] = normal.y;
+			dualvectors[3*i+2] = normal.z;
+		}
+
+		// build the dual hull
+		dualhull.build(dualvectors);
+
+		// exact mass calculation
+		final PolyhedronMassProperties masscalculation = new PolyhedronMassProperties(vertices, faceindices);
+		final Vector3 centreofmass = masscalculation.getCentreOfMass();
+
+		// align all vertices to centre of mass coordinates
+		for (Vector3 p: vertices)
+			Vector3.sub(p, centreofmass);
+
+		final int[][] adjacent = adjacencyList(faceindices, vertices.length);
+		final int[][] dualadjacent = adjacencyList(dualhull.getFaces(), dualvertices.length);
+
+		// about one cell for every vertex, for hulls large enough to benefit
+		if (cuberesolution < 0)
+			cuberesolution = vertices.length < CUBE_MAP_MIN_VERTICES ? 0 :
+				Math.min(CUBE_MAP_MAX_RESOLUTION, (int)Math.ceil(Math.sqrt(vertices.length/6.0)));
+
+		int[] supportcube = null, featurecube = null;
+		if (cuberesolution > 0) {
+			supportcube = cubeMap(cuberesolution, vertices, adjacent);
+			featurecube = cubeMap(cuberesolution, dualvertices, dualadjacent);
+		}
+
+		return new ConvexHullData(vertices, adjacent, faceindices, dualvertices, dualadjacent,
+				masscalculation.getMass(), new InertiaMatrix(masscalculation.getInertiaMatrix()), centreofmass,
+				cuberesolution, supportcube, featurecube);
+	}
+
+	/**
+	 * Find the support point of the given points in direction d, by hill climbing the adjacency graph from the
+	 * start index. Because the points are the vertices of a convex polyhedron, a vertex with no better neighbour
+	 * is a support point.
+	 */
+	static int climb( Vector3 d, Vector3[] points, int[][] adjacency, int start ) {
+		int index = start;
+		double value = d.dot(points[index]);
+		boolean better = true;
+		while (better) {
+			better = false;
+			//go through adjacency list and pick first improver (greedy)
+			for (int i: adjacency[index]) {
+				final double newvalue = d.dot(points[i]);
+				if (newvalue > value) {
+					value = newvalue;
+					index = i;
+					better = true;
+					break;
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Get the cube map cell that the direction d passes through, or -1 if there is no cube map or d is zero
+	 */
+	final int cell( Vector3 d ) {
+		if (cuberesolution == 0)
+			return -1;
+
+		// the major axis selects the cube face
+		final double ax = Math.abs(d.x), ay = Math.abs(d.y), az = Math.abs(d.z);
+		final int face; final double m, u, w;
+		if (ax >= ay && ax >= az) {
+			face = d.x > 0 ? 0 : 1; m = ax; u = d.y; w = d.z;
+		} else if (ay >= az) {
+			face = d.y > 0 ? 2 : 3; m = ay; u = d.x; w = d.z;
+		} else {
+			face = d.z > 0 ? 4 : 5; m = az; u = d.x; w = d.y;
+		}
+
+		// also rejects NaN
+		if (!(m > 0))
+			return -1;
+
+		final int i = Math.min(cuberesolution-1, (int)((u/m+1)*0.5*cuberesolution));
+		final int j = Math.min(cuberesolution-1, (int)((w/m+1)*0.5*cuberesolution));
+		return (face*cuberesolution + i)*cuberesolution + j;
+	}
+
+	/**
+	 * Get the support vertex stored in the cube map for direction d, or -1
+	 */
+	final int lookupVertex( Vector3 d ) {
+		final int cell = cell(d);
+		return cell < 0 ? -1 : supportcube[cell];
+	}
+
+	/**
+	 * Get the support face stored in the cube map for direction d, or -1
+	 */
+	final int lookupFace( Vector3 d ) {
+		final int cell = cell(d);
+		return cell < 0 ? -1 : featurecube[cell];
+	}
+
+	/**
+	 * Compute the support point of the given points for the direction through the centre of each cube map cell.
+	 * Cells are visited in order, and each climb starts from the result of the previous cell
+	 */
+	private static int[] cubeMap( int resolution, Vector3[] points, int[][] adjacency ) {
+		final int[] cube = new int[6*resolution*resolution];
+		final Vector3 d = new Vector3();
+		int index = 0;
+		for (int face=0; face<6; face++) {
+			final int axis = face/2;
+			final double sign = face%2 == 0 ? 1 : -1;
+			for (int i=0; i<resolution; i++) {
+				for (int j=0; j<resolution; j++) {
+					final double u = 2*(i+0.5)/resolution - 1;
+					final double w = 2*(j+0.5)/resolution - 1;
+					switch (axis) {
+					case 0: d.assign(sign, u, w); break;
+					case 1: d.assign(u, sign, w); break;
+					default: d.assign(u, w, sign);
+					}
+					index = climb(d, points, adjacency, index);
+					cube[(face*resolution + i)*resolution + j] = index;
+				}
+			}
+		}
+		return cube;
+	}
+
+	/**
+	 * Computes vertex adjacency lists, by running through all faces, which are given as lists of vertex indices.
+	 * Duplicate entries, arising from the same pair of vertices being present in two adjacent faces, are removed.
+	 */
+	private static int[][] adjacencyList( int[][] faceindices, int numberOfVertices ) {
+		// each occurrence of a vertex in a face gives at most two neighbours
+		final int[] counts = new int[numberOfVertices];
+		for (int[] face: faceindices)
+			for (int vertex: face)
+				counts[vertex] += 2;
+
+		final int[][] adjacent = new int[numberOfVertices][];
+		for (int i=0; i<numberOfVertices; i++)
+			adjacent[i] = new int[counts[i]];
+		Arrays.fill(counts, 0);
+
+		for (int[] face: faceindices) {
+			int prevvertex = face[face.length-1];
+			for (int vertex: face) {
+				// add both ways
+				counts[prevvertex] = addUnique(adjacent[prevvertex], counts[prevvertex], vertex);
+				counts[vertex] = addUnique(adjacent[vertex], counts[vertex], prevvertex);
+				prevvertex = vertex;
+			}
+		}
+
+		for (int i=0; i<numberOfVertices; i++)
+			adjacent[i] = Arrays.copyOf(adjacent[i], counts[i]);
+
+		return adjacent;
+	}
+
+	private static int addUnique( int[] list, int size, int value ) {
+		for (int i=0; i<size; i++)
+			if (list[i] == value)
+				return size;
+		list[size] = value;
+		return size+1;
+	}
+
+	/**
+	 * Get the number of vertices on the hull
+	 */
+	public int getNumberOfVertices() {
+		return vertices.length;
+	}
+
+	/**
+	 * Get the vertices of the hull in centre of mass coordinates. The vectors are shared, and must not be modified
+	 */
+	public Iterator<Vector3> getVertices() {
+		return Collections.unmodifiableList(Arrays.asList(vertices)).iterator();
+	}
+
+	/**
+	 * Get the faces of the hull in centre of mass coordinates. The vectors are shared, and must not be modified
+	 */
+	public Iterator<Vector3[]> getFaces() {
+		return faces.iterator();
+	}
+
+	/**
+	 * Get the number of faces on the hull
+	 */
+	public int getNumberOfFaces() {
+		return faceindices.length;
+	}
+
+	/**
+	 * Get the number of cells along each side of a cube face in the support cube map, zero if there is none
+	 */
+	public int getCubeMapResolution() {
+		return cuberesolution;
+	}
+
+	/**
+	 * Get the mass of the hull with unit density, which equals its volume
+	 */
+	public double getMass() {
+		return mass;
+	}
+
+	/**
+	 * Get the centre of mass of the input points. Hull vertices are given relative to this point
+	 */
+	public Vector3 getCentreOfMass() {
+		return new Vector3(centreofmass);
+	}
+
+	/**
+	 * Get the inertia tensor about the centre of mass, with unit density
+	 */
+	public InertiaMatrix getInertiaMatrix() {
+		return new InertiaMatrix(inertia);
+	}
+
+	/**
+	 * Get the number of bytes that write() puts into a buffer
+	 */
+	public int getByteSize() {
+		int size = 4*5 + 8*3*vertices.length + 8*3*dualvertices.length + 8*(1+3+9);
+		if (cuberesolution > 0)
+			size += 4*12*cuberesolution*cuberesolution;
+		for (int[] list: adjacent) size += 4*(1+list.length);
+		for (int[] list: faceindices) size += 4*(1+list.length);
+		for (int[] list: dualadjacent) size += 4*(1+list.length);
+		return size;
+	}
+
+	/**
+	 * Write the data at the current position of the buffer, and advance the position
+	 */
+	public void write( ByteBuffer buffer ) {
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+
+		buffer.putInt(vertices.length);
+		for (Vector3 v: vertices)
+			buffer.putDouble(v.x).putDouble(v.y).putDouble(v.z);
+		writeLists(buffer, adjacent);
+
+		buffer.putInt(faceindices.length);
+		writeLists(buffer, faceindices);
+		for (Vector3 v: dualvertices)
+			buffer.putDouble(v.x).putDouble(v.y).putDouble(v.z);
+		writeLists(buffer, dualadjacent);
+
+		buffer.putDouble(mass);
+		buffer.putDouble(centreofmass.x).putDouble(centreofmass.y).putDouble(centreofmass.z);
+		buffer.putDouble(inertia.a11).putDouble(inertia.a12).putDouble(inertia.a13);
+		buffer.putDouble(inertia.a21).putDouble(inertia.a22).putDouble(inertia.a23);
+		buffer.putDouble(inertia.a31).putDouble(inertia.a32).putDouble(inertia.a33);
+
+		buffer.putInt(cuberesolution);
+		if (cuberesolution > 0) {
+			for (int i: supportcube) buffer.putInt(i);
+			for (int i: featurecube) buffer.putInt(i);
+		}
+	}
+
+	/**
+	 * Read data written by write(), starting at the current position of the buffer, and advance the position
+	 * @throws IllegalArgumentException if the buffer does not contain hull data at its position
+	 */
+	public static ConvexHullData read( ByteBuffer buffer ) {
+		if (buffer.getInt() != MAGIC)
+			throw new IllegalArgumentException("ConvexHullData: buffer does not contain hull data");
+		final int version = buffer.getInt();
+		if (version < 1 || version > VERSION)
+			throw new IllegalArgumentException("ConvexHullData: unsupported version " + version);
+
+		final Vector3[] vertices = new Vector3[buffer.getInt()];
+		for (int i=0; i<vertices.length; i++)
+			vertices[i] = new Vector3(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+		final int[][] adjacent = readLists(buffer, vertices.length);
+
+		final int numberOfFaces = buffer.getInt();
+		final int[][] faceindices = readLists(buffer, numberOfFaces);
+		final Vector3[] dualvertices = new Vector3[numberOfFaces];
+		for (int i=0; i<numberOfFaces; i++)
+			dualvertices[i] = new Vector3(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+		final int[][] dualadjacent = readLists(buffer, numberOfFaces);
+
+		final double mass = buffer.getDouble();
+		final Vector3 centreofmass = new Vector3(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+		final InertiaMatrix inertia = new InertiaMatrix();
+		inertia.assign(
+				buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+				buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+				buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+
+		// version 1 has no cube map
+		int cuberesolution = 0;
+		int[] supportcube = null, featurecube = null;
+		if (version > 1)
+			cuberesolution = buffer.getInt();
+		if (cuberesolution > 0) {
+			supportcube = new int[6*cuberesolution*cuberesolution];
+			featurecube = new int[6*cuberesolution*cuberesolution];
+			for (int i=0; i<supportcube.length; i++) supportcube[i] = buffer.getInt();
+			for (int i=0; i<featurecube.length; i++) featurecube[i] = buffer.getInt();
+		}
+
+		return new ConvexHullData(vertices, adjacent, faceindices, dualvertices, dualadjacent, mass, inertia, centreofmass,
+				cuberesolution, supportcube, featurecube);
+	}
+
+	private static void writeLists( ByteBuffer buffer, int[][] lists ) {
+		for (int[] list: lists) {
+			buffer.putInt(list.length);
+			for (int i: list)
+				buffer.putInt(i);
+		}
+	}
+
+	private static int[][] readLists( ByteBuffer buffer, int n ) {
+		final int[][] lists = new int[n][];
+		for (int i=0; i<n; i++) {
+			lists[i] = new int[buffer.getInt()];
+			for (int j=0; j<lists[i].length; j++)
+				lists[i][j] = buffer.getInt();
+		}
+		return lists;
+	}
+
+	/**
+	 * Write a collection of hulls to a file, replacing its contents
+	 */
+	public static void save( File file, Collection<ConvexHullData> hulls ) throws IOException {
+		int size = 0;
+		for (ConvexHullData hull: hulls)
+			size += hull.getByteSize();
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (ConvexHullData hull: hulls)
+			hull.write(buffer);
+		buffer.flip();
+
+		final RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load all hulls in a file written by save(). The file is memory mapped, and the hulls are read directly
+	 * from the mapped buffer
+	 */
+	public static List<ConvexHullData> load( File file ) throws IOException {
+		final List<ConvexHullData> hulls = new ArrayList<ConvexHullData>();
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = in.getChannel();
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			while (buffer.hasRemaining())
+				hulls.add(read(buffer));
+		} finally {
+			in.close();
+		}
+		return hulls;
+	}
+}
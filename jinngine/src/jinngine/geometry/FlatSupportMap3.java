@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available 
+ * at http://www.gnu.org/copyleft/gpl.html. 
+ */
+package jinngine.geometry;
+
+import jinngine.math.Vector3;
+
+/**
+ * A support mapping that can write its support features into a caller owned array, rather than a list of new
+ * vectors. Contact generators use this variant when both geometries provide it, and fall back to 
+ * {@link SupportMap3#supportFeature(Vector3, java.util.List)} otherwise.
+ */
+public interface FlatSupportMap3 extends SupportMap3 {
+	/**
+	 * Write the feature that supports the direction d into the given array, as consecutive x, y and z values. 
+	 * The points are the same, and in the same order, as the ones given by supportFeature(Vector3, List)
+	 * @param feature array of at least 3*getMaxFeatureSize() values
+	 * @return the number of points written
+	 */
+	public int supportFeature( Vector3 direction, double[] feature );
+	
+	/**
+	 * Return the largest number of points that supportFeature can write
+	 */
+	public int getMaxFeatureSize();
+}
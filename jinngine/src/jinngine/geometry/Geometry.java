@@ -108,5 +108,42 @@ public interface Geometry extends BoundingBox {
 	 */
 	public void setAuxiliary(Object aux);
 	
+	/**
+	 * Get the collision category bits of this geometry. See {@link #setCollisionMask(int)}
+	 */
+	public int getCollisionCategory();
+	
+	/**
+	 * Set the collision category bits of this geometry. A geometry normally belongs to a single category, 
+	 * given by a single bit. The default category is 1.
+	 */
+	public void setCollisionCategory(int category);
+	
+	/**
+	 * Get the collision mask of this geometry. See {@link #setCollisionMask(int)}
+	 */
+	public int getCollisionMask();
+	
+	/**
+	 * Set the collision mask of this geometry. Two geometries a and b can only collide if the category of a 
+	 * has a bit in common with the mask of b, and vice versa. Pairs that cannot collide are discarded by the 
+	 * broad-phase collision detection, and never reported to its handlers. The default mask has all bits set. Changes 
+	 * only affect overlaps that begin after the change.
+	 */
+	public void setCollisionMask(int mask);
+	
+	/**
+	 * Return true if this geometry is a sensor. See {@link #setSensor(boolean)}
+	 */
+	public boolean isSensor();
+	
+	/**
+	 * Make this geometry a sensor. A sensor is tracked by the broad-phase collision detection like any other 
+	 * geometry, but never generates contacts. Overlaps with sensors can be monitored using a 
+	 * {@link jinngine.physics.SensorTrigger}. The geometry still contributes to the mass of its body. This setting
+	 * should be made before the geometry is added to a scene, otherwise use 
+	 * {@link jinngine.physics.Scene#setSensor(Geometry, boolean)}.
+	 */
+	public void setSensor(boolean sensor);
 }
 
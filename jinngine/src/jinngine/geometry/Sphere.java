@@ -29,6 +29,30 @@ public class Sphere implements SupportMap3, Geometry, Material {
 		this.auxiliary = auxiliary;
 	}
 
+	public int getCollisionCategory() {
+		return category;
+	}
+
+	public void setCollisionCategory(int category) {
+		this.category = category;
+	}
+
+	public int getCollisionMask() {
+		return mask;
+	}
+
+	public void setCollisionMask(int mask) {
+		this.mask = mask;
+	}
+
+	public boolean isSensor() {
+		return sensor;
+	}
+
+	public void setSensor(boolean sensor) {
+		this.sensor = sensor;
+	}
+
 	private Body body;
 	private double radius;
 	private final Vector3 displacement = new Vector3();
@@ -36,6 +60,9 @@ public class Sphere implements SupportMap3, Geometry, Material {
 	private final Matrix4 localtransform4 = new Matrix4();
 	private double envelope = 1;
 	private Object auxiliary;
+	private int category = 1;
+	private int mask = 0xffffffff;
+	private boolean sensor = false;
 	private double restitution = 0.7;
 	private double friction = 0.5;
 	private double mass;
@@ -63,6 +63,9 @@ public final class UniformCapsule implements Geometry, SupportMap3, Material {
 	 */
 	
 	private Object auxiliary;
+	private int category = 1;
+	private int mask = 0xffffffff;
+	private boolean sensor = false;
 	private Body body;
 	private double envelope = 0.125;
 	private final Matrix3 rotation = new Matrix3(Matrix3.identity());
@@ -73,6 +76,18 @@ public final class UniformCapsule implements Geometry, SupportMap3, Material {
 	@Override
 	public final void setAuxiliary(Object aux) {this.auxiliary = aux;}
 	@Override
+	public final int getCollisionCategory() {return this.category;}
+	@Override
+	public final void setCollisionCategory(int category) {this.category = category;}
+	@Override
+	public final int getCollisionMask() {return this.mask;}
+	@Override
+	public final void setCollisionMask(int mask) {this.mask = mask;}
+	@Override
+	public final boolean isSensor() {return this.sensor;}
+	@Override
+	public final void setSensor(boolean sensor) {this.sensor = sensor;}
+	@Override
 	public final Body getBody() {return body;}
 	@Override
 	public final void setBody(Body b) {this.body = b;}
@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.geometry.contact;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import jinngine.geometry.Box;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.UniformCapsule;
+import jinngine.math.Matrix3;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+
+/**
+ * Contact generator for capsule-box combinations. The capsule segment is transformed into the frame of the box,
+ * where the closest features are found directly. If the closest features lie on a face of the box, the segment
+ * is clipped against the sides of that face, and a contact point is generated at each end of the clipped segment.
+ * Otherwise the closest points of the segment and an edge or corner of the box give a single contact point.
+ */
+public final class CapsuleBoxContactGenerator implements ContactGenerator {
+	// data
+	private final UniformCapsule capsule;
+	private final Box box;
+	private final Geometry ga, gb;
+	private final boolean invertnormal;
+	private final List<ContactPoint> contacts = new ArrayList<ContactPoint>();
+	private final ContactPoint[] points = { new ContactPoint(), new ContactPoint() };
+	private final Matrix3 R = new Matrix3();
+	private final Matrix3 Rt = new Matrix3();
+	private final Vector3 c = new Vector3();
+	private final Vector3 h = new Vector3();
+	private final Vector3 p = new Vector3(), q = new Vector3();
+	private final Vector3 x = new Vector3(), y = new Vector3();
+	private final Vector3 e0 = new Vector3(), e1 = new Vector3();
+	private final Vector3 s = new Vector3(), t = new Vector3();
+
+	// settings
+	private static final double epsilon = 1e-7;
+	private static final double facetolerance = 1e-3;
+	private double envelope;
+	private double shell;
+	private double restitution;
+	private double friction;
+
+	public CapsuleBoxContactGenerator(UniformCapsule capsule, Box box) {
+		this(capsule, box, capsule, box, false);
+	}
+
+	/**
+	 * Alternative constructor for geometries in reversed order
+	 */
+	public CapsuleBoxContactGenerator(Box box, UniformCapsule capsule) {
+		this(capsule, box, box, capsule, true);
+	}
+
+	private CapsuleBoxContactGenerator(UniformCapsule capsule, Box box, Geometry ga, Geometry gb, boolean invertnormal) {
+		this.capsule = capsule;
+		this.box = box;
+		this.ga = ga;
+		this.gb = gb;
+		this.invertnormal = invertnormal;
+	}
+
+	@Override
+	public Iterator<ContactPoint> getContacts() {
+		return contacts.iterator();
+	}
+
+	@Override
+	public void run() {
+		// select the largest envelope for contact generation. Envelopes may change between runs
+		envelope = Math.max(capsule.getEnvelope(), box.getEnvelope());
+		shell = envelope*0.5;
+
+		//select the smallest restitution and friction coefficients
+		double ea = capsule.getRestitution();
+		double fa = capsule.getFrictionCoefficient();
+		double eb = box.getRestitution();
+		double fb = box.getFrictionCoefficient();
+		restitution = ea > eb ? eb : ea;
+		friction    = fa > fb ? fb : fa;
+
+		contacts.clear();
+
+		// capsule segment in world space
+		CapsuleContactGenerator.getSegment(capsule, Rt, x, p, q);
+
+		// transform of the box, world = R*local + c
+		final Body body = box.getBody();
+		box.getLocalTransform(R, c);
+		Matrix3.multiply(body.state.rotation, c, c);
+		Vector3.add(c, body.state.position);
+		Matrix3.multiply(body.state.rotation, R, R);
+		Rt.assign(R.transpose());
+		h.assign(box.getDimentions().multiply(0.5));
+
+		// capsule segment in box space
+		Matrix3.multiply(Rt, p.sub(c), p);
+		Matrix3.multiply(Rt, q.sub(c), q);
+		final Vector3 d = q.sub(p);
+
+		// penetration, find the part of the segment inside the box
+		if ( clip(d, -1, 0, 1) ) {
+			// the midpoint of the inside part is pushed out through the nearest face
+			x.assign(p.add(d.multiply((s.x+s.y)*0.5)));
+			int axis = 0;
+			for (int i=1; i<3; i++)
+				if ( h.get(i)-Math.abs(x.get(i)) < h.get(axis)-Math.abs(x.get(axis)))
+					axis = i;
+			face(d, axis, x.get(axis) < 0? -1 : 1, Double.NaN);
+			return;
+		}
+
+		// closest points on the segment and the box. The closest point of the box to the segment is
+		// either the closest point to an end point of the segment, or a point on an edge of the box
+		double best = Double.POSITIVE_INFINITY;
+		for (Vector3 end: new Vector3[] {p,q}) {
+			clamp(end, t);
+			final double dist = end.sub(t).squaredNorm();
+			if (dist < best) {
+				best = dist;
+				x.assign(end);
+				y.assign(t);
+			}
+		}
+		for (int k=0; k<3; k++) {
+			final int i = (k+1)%3, j = (k+2)%3;
+			for (int corner=0; corner<4; corner++) {
+				e0.set(i, (corner&1)==0? -h.get(i) : h.get(i));
+				e0.set(j, (corner&2)==0? -h.get(j) : h.get(j));
+				e0.set(k, -h.get(k));
+				e1.assign(e0);
+				e1.set(k, h.get(k));
+				final double dist = CapsuleContactGenerator.closestPoints(p, q, e0, e1, s, t);
+				if (dist < best) {
+					best = dist;
+					x.assign(s);
+					y.assign(t);
+				}
+			}
+		}
+
+		// the normal direction in box space
+		final Vector3 n = x.sub(y);
+		final double dist = n.norm();
+		if (dist - capsule.getRadius() >= envelope)
+			return;
+
+		// if the normal is along an axis, the segment faces a side of the box. The closest points are kept in 
+		// e0 and e1, and the unit normal in t
+		t.assign(n.multiply(1/dist));
+		e0.assign(x);
+		e1.assign(y);
+		for (int i=0; i<3; i++) {
+			if ( Math.abs(n.get(i)) > (1-facetolerance)*dist ) {
+				face(d, i, n.get(i) < 0? -1 : 1, dist-capsule.getRadius());
+				return;
+			}
+		}
+
+		// edge or corner contact
+		addContact(x, y, t, dist-capsule.getRadius());
+	}
+
+	/**
+	 * Generate contacts between the segment and the face of the box given by axis and sign. The segment
+	 * is clipped against the two other axes of the box, and a contact is made at each end of the clipped segment.
+	 * If the segment is separated from the box, the closest points are in e0 and e1, the unit normal in t, and 
+	 * closest is their distance. The clipped segment can lie farther from the box than the closest points, if 
+	 * these are on an edge next to the face, and the closest points are then used in place of the nearest end. 
+	 * @param closest distance of the closest points, or NaN if the segment penetrates the box
+	 */
+	private void face( Vector3 d, int axis, double sign, double closest ) {
+		final boolean separated = !Double.isNaN(closest);
+		final Vector3 n = new Vector3();
+		n.set(axis, sign);
+		if ( !clip(d, axis, 0, 1) ) {
+			// the segment passes beside the face
+			if (separated)
+				addContact(e0, e1, t, closest);
+			return;
+		}
+
+		double lo = s.x, hi = s.y;
+		if (separated) {
+			// distances of the clipped ends from the face
+			final double dlo = sign*(p.get(axis)+d.get(axis)*lo)-h.get(axis)-capsule.getRadius();
+			final double dhi = sign*(p.get(axis)+d.get(axis)*hi)-h.get(axis)-capsule.getRadius();
+			if (Math.min(dlo, dhi) > closest + epsilon) {
+				// keep the end farthest from the closest point on the segment
+				final double dd = d.squaredNorm();
+				final double u = dd > epsilon? e0.sub(p).dot(d)/dd : 0;
+				addContact(e0, e1, t, closest);
+				if (hi-lo <= epsilon)
+					return;
+				lo = hi = Math.abs(u-lo) > Math.abs(u-hi)? lo : hi;
+			}
+		}
+
+		for (double u: hi-lo > epsilon? new double[] {lo, hi} : new double[] {lo}) {
+			x.assign(p.add(d.multiply(u)));
+			y.assign(x);
+			y.set(axis, sign*h.get(axis));
+			addContact(x, y, n, sign*x.get(axis)-h.get(axis)-capsule.getRadius());
+		}
+	}
+
+	/**
+	 * Add a contact between the point x on the capsule segment and the point y on the box, both in box space,
+	 * if the distance is within the envelope
+	 * @param n unit normal in box space, pointing from the box towards the capsule
+	 */
+	private void addContact( Vector3 x, Vector3 y, Vector3 n, double distance ) {
+		if (distance >= envelope)
+			return;
+
+		final ContactPoint cp = points[contacts.size()];
+		cp.b1 = ga.getBody();
+		cp.b2 = gb.getBody();
+		Matrix3.multiply(R, n, cp.normal);
+		Matrix3.multiply(R, x.sub(n.multiply(capsule.getRadius())), cp.paw);
+		Vector3.add(cp.paw, c);
+		Matrix3.multiply(R, y, cp.pbw);
+		Vector3.add(cp.pbw, c);
+		cp.point.assign(cp.paw.add(cp.pbw).multiply(0.5));
+
+		//invert the normal and points if geometries came in reverse order
+		if (invertnormal) {
+			Vector3.multiply(cp.normal, -1);
+			final Vector3 tmp = new Vector3(cp.paw);
+			cp.paw.assign(cp.pbw);
+			cp.pbw.assign(tmp);
+		}
+
+		cp.distance = distance;
+		cp.depth = shell-distance;
+		cp.envelope = envelope;
+		cp.restitution = restitution;
+		cp.friction = friction;
+		contacts.add(cp);
+	}
+
+	/**
+	 * Clip the segment p + u*d, u in [lo,hi], against the slabs of the box along all axes except the
+	 * given one. The clipped interval is stored in s.x and s.y
+	 * @return true if the clipped interval is not empty
+	 */
+	private boolean clip( Vector3 d, int skip, double lo, double hi ) {
+		for (int i=0; i<3; i++) {
+			if (i==skip)
+				continue;
+			final double di = d.get(i), pi = p.get(i), extent = h.get(i);
+			if (Math.abs(di) < epsilon) {
+				// parallel to the slab
+				if (pi < -extent || pi > extent)
+					return false;
+			} else {
+				double u0 = (-extent-pi)/di, u1 = (extent-pi)/di;
+				if (u0 > u1) { final double tmp = u0; u0 = u1; u1 = tmp; }
+				lo = Math.max(lo, u0);
+				hi = Math.min(hi, u1);
+				if (lo > hi)
+					return false;
+			}
+		}
+		s.x = lo; s.y = hi;
+		return true;
+	}
+
+	// closest point r in the box to the point v
+	private void clamp( Vector3 v, Vector3 r ) {
+		for (int i=0; i<3; i++)
+			r.set(i, Math.max(-h.get(i), Math.min(h.get(i), v.get(i))));
+	}
+
+	@Override
+	public void remove() {/* nothing to clean up */}
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.geometry.contact;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import jinngine.geometry.UniformCapsule;
+import jinngine.math.Matrix3;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+
+/**
+ * Contact generator for pairs of capsules. The closest points of the two capsule segments are found in
+ * closed form, and the contact normal is the direction between them. When the segments are near parallel
+ * and overlap, two contact points are generated at the ends of the overlapping part, so that a capsule
+ * lying on another capsule does not roll about a single contact point.
+ */
+public final class CapsuleContactGenerator implements ContactGenerator {
+	// data
+	private final UniformCapsule ga, gb;
+	private final List<ContactPoint> contacts = new ArrayList<ContactPoint>();
+	private final ContactPoint[] points = { new ContactPoint(), new ContactPoint() };
+	private final Vector3 pa = new Vector3(), qa = new Vector3();
+	private final Vector3 pb = new Vector3(), qb = new Vector3();
+	private final Vector3 ca = new Vector3(), cb = new Vector3();
+	private final Matrix3 R = new Matrix3();
+	private final Vector3 b = new Vector3();
+
+	// settings
+	private static final double epsilon = 1e-7;
+	private static final double parallel = 1e-4;
+	private double envelope;
+	private double shell;
+	private double restitution;
+	private double friction;
+
+	public CapsuleContactGenerator(UniformCapsule ga, UniformCapsule gb) {
+		this.ga = ga;
+		this.gb = gb;
+	}
+
+	@Override
+	public Iterator<ContactPoint> getContacts() {
+		return contacts.iterator();
+	}
+
+	@Override
+	public void run() {
+		// select the largest envelope for contact generation. Envelopes may change between runs
+		envelope = Math.max(ga.getEnvelope(), gb.getEnvelope());
+		shell = envelope*0.5;
+
+		//select the smallest restitution and friction coefficients
+		double ea = ga.getRestitution();
+		double fa = ga.getFrictionCoefficient();
+		double eb = gb.getRestitution();
+		double fb = gb.getFrictionCoefficient();
+		restitution = ea > eb ? eb : ea;
+		friction    = fa > fb ? fb : fa;
+
+		contacts.clear();
+
+		// capsule segments in world space
+		getSegment(ga, R, b, pa, qa);
+		getSegment(gb, R, b, pb, qb);
+		final Vector3 da = qa.sub(pa);
+		final Vector3 db = qb.sub(pb);
+		final double a = da.squaredNorm();
+		final double e = db.squaredNorm();
+
+		// near parallel segments, the sine of the angle between them is small
+		if ( a > epsilon && e > epsilon && da.cross(db).squaredNorm() < parallel*a*e) {
+			// project segment b onto the line of segment a, and intersect with segment a
+			final double t0 = pb.sub(pa).dot(da)/a;
+			final double t1 = qb.sub(pa).dot(da)/a;
+			final double lo = Math.max(0, Math.min(t0, t1));
+			final double hi = Math.min(1, Math.max(t0, t1));
+
+			if ( hi-lo > epsilon ) {
+				// contact at each end of the overlap
+				closestOnSegment(pb, db, e, ca.assign(pa.add(da.multiply(lo))), cb);
+				addContact(ca, cb, da);
+				closestOnSegment(pb, db, e, ca.assign(pa.add(da.multiply(hi))), cb);
+				addContact(ca, cb, da);
+				return;
+			}
+		}
+
+		// single closest point pair
+		closestPoints(pa, qa, pb, qb, ca, cb);
+		addContact(ca, cb, da);
+	}
+
+	/**
+	 * Add a contact between the point a on the segment of capsule A and the point b on the
+	 * segment of capsule B, if the capsule surfaces are within the envelope
+	 */
+	private void addContact( Vector3 a, Vector3 b, Vector3 axis ) {
+		final Vector3 n = a.sub(b);
+		final double d = n.norm();
+		if ( d > epsilon ) {
+			Vector3.multiply(n, 1/d);
+		} else {
+			// the segments intersect, use a direction perpendicular to both
+			n.assign(axis.cross(qb.sub(pb)));
+			if ( n.squaredNorm() < epsilon )
+				n.assign(perpendicular(axis));
+
+			// point from capsule B towards capsule A
+			if ( n.dot(pa.add(qa).sub(pb.add(qb))) < 0 )
+				Vector3.multiply(n, -1);
+			n.assign(n.normalize());
+		}
+
+		final double distance = d - ga.getRadius() - gb.getRadius();
+		if ( distance < envelope ) {
+			final ContactPoint cp = points[contacts.size()];
+			cp.b1 = ga.getBody();
+			cp.b2 = gb.getBody();
+			cp.normal.assign(n);
+			cp.paw.assign(a.sub(n.multiply(ga.getRadius())));
+			cp.pbw.assign(b.add(n.multiply(gb.getRadius())));
+			cp.point.assign(cp.paw.add(cp.pbw).multiply(0.5));
+			cp.distance = distance;
+			cp.depth = shell-distance;
+			cp.envelope = envelope;
+			cp.restitution = restitution;
+			cp.friction = friction;
+			contacts.add(cp);
+		}
+	}
+
+	/**
+	 * Get the end points of the segment of a capsule in world space
+	 * @param R temporary matrix
+	 * @param b temporary vector
+	 */
+	static void getSegment( UniformCapsule capsule, Matrix3 R, Vector3 b, Vector3 p, Vector3 q ) {
+		final Body body = capsule.getBody();
+		capsule.getLocalTransform(R, b);
+
+		// centre of the capsule and half of the axis, the capsule axis is the local z axis
+		Matrix3.multiply(body.state.rotation, b, b);
+		Vector3.add(b, body.state.position);
+		Matrix3.multiply(body.state.rotation, R.column(2).multiply(0.5*capsule.getLength()), q);
+
+		p.assign(b.sub(q));
+		Vector3.add(q, b);
+	}
+
+	/**
+	 * Find the closest points of the segments [p1,q1] and [p2,q2]. Degenerate segments are handled.
+	 * @param c1 closest point on the first segment
+	 * @param c2 closest point on the second segment
+	 * @return squared distance between c1 and c2
+	 */
+	static double closestPoints( Vector3 p1, Vector3 q1, Vector3 p2, Vector3 q2, Vector3 c1, Vector3 c2 ) {
+		final Vector3 d1 = q1.sub(p1);
+		final Vector3 d2 = q2.sub(p2);
+		final Vector3 r = p1.sub(p2);
+		final double a = d1.squaredNorm();
+		final double e = d2.squaredNorm();
+		final double f = d2.dot(r);
+		double s, t;
+
+		if ( a <= epsilon && e <= epsilon ) {
+			// both segments are points
+			s = t = 0;
+		} else if ( a <= epsilon ) {
+			// first segment is a point
+			s = 0;
+			t = clamp(f/e);
+		} else {
+			final double c = d1.dot(r);
+			if ( e <= epsilon ) {
+				// second segment is a point
+				t = 0;
+				s = clamp(-c/a);
+			} else {
+				// the general case
+				final double bb = d1.dot(d2);
+				final double denom = a*e-bb*bb;
+
+				// for parallel segments pick any s
+				s = denom > epsilon*a*e ? clamp((bb*f-c*e)/denom) : 0;
+				t = (bb*s+f)/e;
+
+				// clamp t and recompute s
+				if ( t < 0 ) {
+					t = 0;
+					s = clamp(-c/a);
+				} else if ( t > 1) {
+					t = 1;
+					s = clamp((bb-c)/a);
+				}
+			}
+		}
+
+		c1.assign(p1.add(d1.multiply(s)));
+		c2.assign(p2.add(d2.multiply(t)));
+		return c1.sub(c2).squaredNorm();
+	}
+
+	// closest point c on the segment starting at p with direction d, to the point x
+	private static void closestOnSegment( Vector3 p, Vector3 d, double dd, Vector3 x, Vector3 c ) {
+		c.assign(p.add(d.multiply(clamp(x.sub(p).dot(d)/dd))));
+	}
+
+	// a unit vector perpendicular to v
+	private static Vector3 perpendicular( Vector3 v ) {
+		if ( v.squaredNorm() < epsilon )
+			return Vector3.j();
+		final Vector3 u = Math.abs(v.x) < Math.abs(v.y) ? Vector3.i() : Vector3.j();
+		return u.sub(v.multiply(u.dot(v)/v.squaredNorm())).normalize();
+	}
+
+	private static double clamp( double x ) {
+		return x < 0 ? 0 : (x > 1 ? 1 : x);
+	}
+
+	@Override
+	public void remove() {/* nothing to clean up */}
+}
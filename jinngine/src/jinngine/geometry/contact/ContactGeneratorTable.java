@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.geometry.contact;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jinngine.geometry.Geometry;
+
+/**
+ * Double dispatch of pairs of geometries to {@link ContactGeneratorClassifier} instances. Each geometry class is
+ * given an integer shape id, and a table indexed by pairs of shape ids holds the classifier to use for each
+ * ordered pair of geometry classes. Classifiers can be registered directly for a pair of classes. Pairs are 
+ * resolved once, by walking a list of classifiers, and the first classifier that accepts the pair is stored in the
+ * table. A registered classifier is used in place of the list, except for the first classifiers in the list that
+ * are given precedence, see setPrecedence(). This assumes that classifiers in the list decide by the classes of
+ * the geometries alone.
+ */
+public final class ContactGeneratorTable {
+
+	private final Map<Class<?>,Integer> ids = new HashMap<Class<?>,Integer>();
+	private final List<ContactGeneratorClassifier> classifiers;
+	private ContactGeneratorClassifier[][] registered = new ContactGeneratorClassifier[8][8];
+	private ContactGeneratorClassifier[][] resolved = new ContactGeneratorClassifier[8][8];
+	private int precedence = 0;
+	private int revision = 0;
+
+	/**
+	 * Create a new table
+	 * @param classifiers classifiers used for pairs of geometry classes without a registered classifier. The list
+	 * is not copied, and clearResolved() must be called if it is changed
+	 */
+	public ContactGeneratorTable( List<ContactGeneratorClassifier> classifiers ) {
+		this.classifiers = classifiers;
+	}
+
+	/**
+	 * Return the shape id of the given geometry class. Ids are assigned in the order classes are seen
+	 */
+	public int getShapeId( Class<?> c ) {
+		Integer id = ids.get(c);
+		if (id == null) {
+			id = ids.size();
+			ids.put(c, id);
+
+			// grow the tables
+			if (id >= registered.length) {
+				registered = grow(registered);
+				resolved = grow(resolved);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Register a classifier for the ordered pair of geometry classes (a,b). The classifier is called with
+	 * geometries in this order, and must not return null. To handle the pair (b,a) as well, register a
+	 * classifier for that order too.
+	 */
+	public void register( Class<? extends Geometry> a, Class<? extends Geometry> b, ContactGeneratorClassifier classifier ) {
+		final int i = getShapeId(a), j = getShapeId(b);
+		registered[i][j] = classifier;
+		resolved[i][j] = null;
+		revision++;
+	}
+
+	/**
+	 * Let the first n classifiers in the list take precedence over registered classifiers. This is used for 
+	 * classifiers added by the user, that must override the classifiers registered for built-in pairs. The
+	 * default is zero
+	 */
+	public void setPrecedence( int n ) {
+		precedence = n;
+		clearResolved();
+	}
+
+	/**
+	 * Forget the classifiers found in the classifier list. Must be called when the list changes
+	 */
+	public void clearResolved() {
+		for (ContactGeneratorClassifier[] row: resolved)
+			Arrays.fill(row, null);
+		revision++;
+	}
+
+	/**
+	 * Return a number that changes whenever the classifier chosen for a pair may change, that is, when a classifier
+	 * is registered, or the list or the precedence changes. Generators kept for reuse are only valid for the same 
+	 * revision
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Create a contact generator for the given pair of geometries
+	 * @return a new contact generator, or null if no classifier handles the pair
+	 */
+	public ContactGenerator getGenerator( Geometry a, Geometry b ) {
+		final int i = getShapeId(a.getClass()), j = getShapeId(b.getClass());
+
+		// previously found classifier
+		ContactGeneratorClassifier classifier = resolved[i][j];
+		if (classifier != null) {
+			ContactGenerator generator = classifier.getGenerator(a, b);
+			if (generator != null)
+				return generator;
+		}
+
+		// walk the classifiers with precedence
+		final int n = Math.min(precedence, classifiers.size());
+		for (int k=0; k<n; k++) {
+			ContactGenerator generator = resolve(classifiers.get(k), i, j, a, b);
+			if (generator != null)
+				return generator;
+		}
+
+		// registered classifier
+		classifier = registered[i][j];
+		if (classifier != null) {
+			resolved[i][j] = classifier;
+			return classifier.getGenerator(a, b);
+		}
+
+		// walk the rest of the list
+		for (int k=n; k<classifiers.size(); k++) {
+			ContactGenerator generator = resolve(classifiers.get(k), i, j, a, b);
+			if (generator != null)
+				return generator;
+		}
+
+		//not recognised
+		return null;
+	}
+
+	// ask a classifier from the list, and store it if it accepts the pair
+	private ContactGenerator resolve( ContactGeneratorClassifier classifier, int i, int j, Geometry a, Geometry b ) {
+		ContactGenerator generator = classifier.getGenerator(a, b);
+		if (generator != null)
+			resolved[i][j] = classifier;
+		return generator;
+	}
+
+	private static ContactGeneratorClassifier[][] grow( ContactGeneratorClassifier[][] table ) {
+		final int n = table.length*2;
+		ContactGeneratorClassifier[][] grown = new ContactGeneratorClassifier[n][n];
+		for (int i=0; i<table.length; i++)
+			System.arraycopy(table[i], 0, grown[i], 0, table.length);
+		return grown;
+	}
+}
@@ -13,8 +13,10 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import jinngine.collision.EPA;
 import jinngine.collision.GJK;
 import jinngine.collision.RayCast;
+import jinngine.geometry.FlatSupportMap3;
 import jinngine.geometry.Geometry;
 import jinngine.geometry.Material;
 import jinngine.geometry.UniformCapsule;
@@ -22,6 +24,7 @@ import jinngine.geometry.util.ORourke;
 import jinngine.geometry.SupportMap3;
 import jinngine.math.Matrix3;
 import jinngine.math.Vector3;
+import jinngine.physics.Body;
 import jinngine.util.GramSchmidt;
 
 public final class SupportMapContactGenerator implements ContactGenerator {
@@ -38,8 +41,8 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 
 	// settings
 	private final double epsilon = 1e-7;
-	private final double envelope;
-	private final double shell;
+	private double envelope;
+	private double shell;
 	private double restitution;
 	private double friction;
 	private final double spa;
@@ -48,6 +51,36 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 	// distance algorithms
 	private final GJK gjk = new GJK();
 	private final RayCast raycast = new RayCast();
+	private final Vector3 normal = new Vector3();
+
+	// EPA keeps no state between runs, and its buffers are large, so generators share one instance per thread
+	private static final ThreadLocal<EPA> epa = new ThreadLocal<EPA>() {
+		@Override
+		protected EPA initialValue() { return new EPA(); }
+	};
+
+	// relative motion cache. The transform of B relative to A when contacts were last computed, 
+	// and the contact points and normal in the frame of A
+	private boolean cached = false;
+	private final double translationtolerance = 1e-3;
+	private final double rotationtolerance = 1e-3;
+	private final Matrix3 cachedrotation = new Matrix3();
+	private final Vector3 cachedtranslation = new Vector3();
+	private final Matrix3 relativerotation = new Matrix3();
+	private final Vector3 relativetranslation = new Vector3();
+	private final Matrix3 rotationdifference = new Matrix3();
+	private final Vector3 translationdifference = new Vector3();
+	private final List<Vector3> localpoints = new ArrayList<Vector3>();
+	private final Vector3 localnormal = new Vector3();
+
+	// allocation free contact generation, used when both support maps write features into arrays
+	private final FlatSupportMap3 Fa, Fb;
+	private final double[] featureA, featureB;
+	private final double[] intersection, scratch;
+	private final List<ContactPoint> pool = new ArrayList<ContactPoint>();
+	private final Vector3 negated = new Vector3();
+	private final Vector3 midpoint = new Vector3();
+	private final Vector3 t1 = new Vector3(), t2 = new Vector3(), t3 = new Vector3();
 
 	public SupportMapContactGenerator(SupportMap3 sa, Geometry ga, SupportMap3 sb, Geometry gb) {
 		this.Sa = sa;
@@ -59,13 +92,19 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 		this.spa =  Sa.sphereSweepRadius();
 		this.spb =  Sb.sphereSweepRadius();
 		
-		// select the largest envelope for contact generation
-		if  ( gb.getEnvelope() > ga.getEnvelope() ) {
-			envelope = gb.getEnvelope();
-			shell = envelope*0.5;
+		// feature and clipping buffers
+		if (sa instanceof FlatSupportMap3 && sb instanceof FlatSupportMap3) {
+			Fa = (FlatSupportMap3)sa;
+			Fb = (FlatSupportMap3)sb;
+			final int n = Fa.getMaxFeatureSize();
+			final int m = Fb.getMaxFeatureSize();
+			featureA = new double[3*n];
+			featureB = new double[3*m];
+			intersection = new double[6*(n+m)];
+			scratch = new double[3*(n+m)];
 		} else {
-			envelope = ga.getEnvelope();
-			shell = envelope*0.5;			
+			Fa = Fb = null;
+			featureA = featureB = intersection = scratch = null;
 		}
 	}
 	
@@ -76,6 +115,15 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 
 	@Override
 	public void run() {		
+		// select the largest envelope for contact generation. Envelopes may change between runs, 
+		// and cached contacts were computed with the old envelope
+		final double largest = Math.max(ga.getEnvelope(), gb.getEnvelope());
+		if (largest != envelope) {
+			envelope = largest;
+			shell = envelope*0.5;
+			cached = false;
+		}
+
 		//select the smallest restitution and friction coefficients 
 		if ( ga instanceof Material && gb instanceof Material) {
 			double ea = ((Material)ga).getRestitution();
@@ -97,6 +145,56 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 			friction = 0.5;
 		}
 		
+		final Body ba = ga.getBody();
+		final Body bb = gb.getBody();
+		
+		// transform of B relative to A
+		relativerotation.assign(ba.state.rotation).assignTranspose();
+		Matrix3.multiply(relativerotation, bb.state.rotation, relativerotation);
+		relativetranslation.assign(bb.state.position);
+		Vector3.sub(relativetranslation, ba.state.position);
+		Matrix3.transposeVectorAndMultiply(relativetranslation, ba.state.rotation, relativetranslation);
+		
+		// if A and B have hardly moved relative to each other since the contacts were computed, the 
+		// contacts are unchanged in the frame of A, and we only need to move them along with A
+		translationdifference.assign(relativetranslation);
+		Vector3.sub(translationdifference, cachedtranslation);
+		if (cached && translationdifference.norm() < translationtolerance 
+				&& Matrix3.subtract(relativerotation, cachedrotation, rotationdifference).fnorm() < rotationtolerance) {
+			for (int i=0; i<contacts.size(); i++) {
+				final ContactPoint cp = contacts.get(i);
+				Matrix3.multiply(ba.state.rotation, localpoints.get(i), cp.point);
+				Vector3.add(cp.point, ba.state.position);
+				Matrix3.multiply(ba.state.rotation, localnormal, cp.normal);
+				cp.restitution = restitution;
+				cp.friction = friction;
+			}
+			return;
+		}
+		
+		// compute contacts from scratch
+		compute();
+		
+		// keep the relative transform, and the contacts in the frame of A
+		cached = true;
+		cachedrotation.assign(relativerotation);
+		cachedtranslation.assign(relativetranslation);
+		for (int i=0; i<contacts.size(); i++) {
+			if (i == localpoints.size())
+				localpoints.add(new Vector3());
+			final Vector3 p = localpoints.get(i);
+			p.assign(contacts.get(i).point);
+			Vector3.sub(p, ba.state.position);
+			Matrix3.transposeVectorAndMultiply(p, ba.state.rotation, p);
+		}
+		if (contacts.size() > 0)
+			Matrix3.transposeVectorAndMultiply(contacts.get(0).normal, ba.state.rotation, localnormal);
+	}
+	
+	/**
+	 * Compute contact points using GJK, and EPA or ray casting in case of intersection
+	 */
+	private void compute() {
 		// first we run GJK (the same as setting t=0)
 		// we must know is the distance is less than the envelope 
 		// plus sphere sweep radius for both geometries
@@ -104,6 +202,13 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 		
 		// if objects are intersecting
 		if (gjk.getState().intersection) {
+			// expand the GJK simplex to find the penetration depth and direction directly
+			if (epa.get().run(Sa, Sb, gjk.getState(), pa, pb, normal, epsilon) < Double.POSITIVE_INFINITY) {
+				generate(pa, pb, normal);
+				return;
+			}
+			
+			// if EPA could not start from the simplex (touching or flat shapes),
 			// we perform a ray-cast, that is equivalent to
 			// finding the growth distance between Sa and Sb. 
 			// by that we obtain a contact normal at the 
@@ -150,6 +255,11 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 	}
 
 	private final void generate(final Vector3 a, final Vector3 b, final Vector3 v ) {
+		if (Fa != null) {
+			generateFlat(a, b, v);
+			return;
+		}
+		
 		contacts.clear(); faceA.clear(); faceB.clear();
 		Sa.supportFeature(v.negate(), faceA);
 		Sb.supportFeature(v, faceB);
@@ -220,6 +330,84 @@ public final class SupportMapContactGenerator implements ContactGenerator {
 //			System.out.println("contacts="+contacts.size() +"("+faceA.size()+","+faceB.size()+")");
 	}
 	
+	/**
+	 * Same as generate(), using feature arrays and the allocation free ORourke variant. Contact points are 
+	 * taken from a pool owned by this generator
+	 */
+	private final void generateFlat(final Vector3 a, final Vector3 b, final Vector3 v ) {
+		contacts.clear();
+		negated.assign(-v.x, -v.y, -v.z);
+		final int n = Fa.supportFeature(negated, featureA);
+		final int m = Fb.supportFeature(v, featureB);
+		
+		// account for sphere sweeping
+		final double k = spb-spa;
+		midpoint.assign((a.x+b.x+v.x*k)*0.5, (a.y+b.y+v.y*k)*0.5, (a.z+b.z+v.z*k)*0.5);
+		
+		// contact space basis, with the normal direction in the z-component
+		t1.assign(v);
+		Vector3.multiply(t1, 1/t1.norm());
+		t2.assign(1-t1.x*t1.x, -t1.y*t1.x, -t1.z*t1.x);
+		if (t2.norm() < 1e-10)
+			t2.assign(-t1.x*t1.z, -t1.y*t1.z, 1-t1.z*t1.z);
+		Vector3.multiply(t2, 1/t2.norm());
+		Vector3.crossProduct(t1, t2, t3);
+		
+		// reverse the points in face A, so they will be in counter-clock-wise order
+		// when relating to the normal direction
+		for (int i=0, j=n-1; i<j; i++, j--) {
+			for (int c=0; c<3; c++) {
+				final double tmp = featureA[3*i+c];
+				featureA[3*i+c] = featureA[3*j+c];
+				featureA[3*j+c] = tmp;
+			}
+		}
+		
+		// transform all points into contact space
+		toContactSpace(featureA, n);
+		toContactSpace(featureB, m);
+		
+		// run 2d intersection
+		final int points = ORourke.run(featureA, n, featureB, m, intersection, scratch);
+		
+		for (int i=0; i<points; i++) {
+			final double px = intersection[6*i], py = intersection[6*i+1], pz = intersection[6*i+2];
+			final double qz = intersection[6*i+5];
+			
+			// distance along the z axis in contact space
+			final double distance = (pz-qz)-spb-spa;  // take into account sphere sweeping
+			
+			// if contact is within the envelope size
+			if (distance < envelope) {
+				if (contacts.size() == pool.size())
+					pool.add(new ContactPoint());
+				final ContactPoint cp = pool.get(contacts.size());
+				cp.b1 = ga.getBody();
+				cp.b2 = gb.getBody();
+				cp.normal.assign(t1);
+				cp.point.assign(
+						midpoint.x + t2.x*px + t3.x*py,
+						midpoint.y + t2.y*px + t3.y*py,
+						midpoint.z + t2.z*px + t3.z*py);
+				cp.distance = distance;
+				cp.depth = shell-distance;
+				cp.envelope = envelope;
+				cp.restitution = restitution;
+				cp.friction = friction;
+				contacts.add(cp);
+			}
+		}
+	}
+	
+	private final void toContactSpace( final double[] feature, final int n ) {
+		for (int i=0; i<3*n; i+=3) {
+			final double x = feature[i]-midpoint.x, y = feature[i+1]-midpoint.y, z = feature[i+2]-midpoint.z;
+			feature[i]   = t2.x*x + t2.y*y + t2.z*z;
+			feature[i+1] = t3.x*x + t3.y*y + t3.z*z;
+			feature[i+2] = t1.x*x + t1.y*y + t1.z*z;
+		}
+	}
+	
 	@Override
 	public void remove() {/* nothing to clean up */}
 }
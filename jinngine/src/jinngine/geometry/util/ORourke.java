@@ -764,4 +764,312 @@ public class ORourke {
 		return true;
 	}
 
+	/**
+	 * Allocation free XY-plane intersection of two convex polygons. The polygons are given as consecutive x, y and z 
+	 * values, in counter clock-wise order. For each point in the intersection, the point on poly1 followed by the point
+	 * on poly2 is written into result, in counter clock-wise order. As in the other variants, the xy coordinates of the 
+	 * two points are the same, while the z values lie in the planes of poly1 and poly2 respectively. 
+	 * <p>
+	 * The intersection of two polygons is found by clipping poly1 against each edge of poly2, which needs no working
+	 * storage other than the given scratch array. Points, segments and polygons can be mixed as with the other variants.
+	 * @param poly1 polygon of n points
+	 * @param poly2 polygon of m points
+	 * @param result array of at least 6(n+m) values, receiving the intersection
+	 * @param scratch array of at least 3(n+m) values, used as working storage
+	 * @return the number of points in the intersection
+	 */
+	public static int run( final double[] poly1, final int n, final double[] poly2, final int m, final double[] result, final double[] scratch ) {
+		// if any one polygon is empty, so is intersection
+		if (n == 0 || m == 0)
+			return 0;
+		
+		// point-point case
+		if (n == 1 && m == 1) {
+			if (xydistance(poly1, 0, poly2, 0) < epsilon) {
+				write(result, 0, false, poly1[0], poly1[1], poly1[2], poly2[0], poly2[1], poly2[2]);
+				return 1;
+			}
+			return 0;
+		}
+		
+		// cases with a point or a segment
+		if (n == 1 && m == 2) return pointSegment(poly1, poly2, result, false);
+		if (n == 2 && m == 1) return pointSegment(poly2, poly1, result, true);
+		if (n == 1) return pointPolygon(poly1, poly2, m, result, false);
+		if (m == 1) return pointPolygon(poly2, poly1, n, result, true);
+		if (n == 2 && m == 2) return segmentSegment(poly1, poly2, result);
+		if (n == 2) return segmentPolygon(poly1, poly2, m, result, false);
+		if (m == 2) return segmentPolygon(poly2, poly1, n, result, true);
+		
+		// polygon-polygon
+		return polygonPolygon(poly1, n, poly2, m, result, scratch);
+	}
+	
+	/**
+	 * Write the point a on poly1 and the point b on poly2, as intersection number i. If swapped is true, a is on 
+	 * poly2 and b is on poly1
+	 */
+	private static void write( final double[] result, final int i, final boolean swapped, 
+			final double ax, final double ay, final double az, final double bx, final double by, final double bz ) {
+		final int k = 6*i;
+		if (swapped) {
+			result[k+0] = bx; result[k+1] = by; result[k+2] = bz;
+			result[k+3] = ax; result[k+4] = ay; result[k+5] = az;
+		} else {
+			result[k+0] = ax; result[k+1] = ay; result[k+2] = az;
+			result[k+3] = bx; result[k+4] = by; result[k+5] = bz;
+		}
+	}
+	
+	private static double xydistance( final double[] a, final int i, final double[] b, final int j ) {
+		final double dx = a[i]-b[j], dy = a[i+1]-b[j+1];
+		return Math.sqrt(dx*dx+dy*dy);
+	}
+	
+	/**
+	 * Return the z value at (x,y) in the plane of the polygon with at least 3 points
+	 */
+	private static double planeZ( final double[] poly, final double x, final double y ) {
+		// counter clock-wise normal from the first three points
+		final double ux = poly[6]-poly[0], uy = poly[7]-poly[1], uz = poly[8]-poly[2];
+		final double vx = poly[0]-poly[3], vy = poly[1]-poly[4], vz = poly[2]-poly[5];
+		final double nx = uy*vz-uz*vy, ny = uz*vx-ux*vz, nz = ux*vy-uy*vx;
+		return poly[2] + ((poly[0]-x)*nx + (poly[1]-y)*ny)/nz;
+	}
+	
+	/**
+	 * Intersect the point x with the segment s
+	 */
+	private static int pointSegment( final double[] x, final double[] s, final double[] result, final boolean swapped ) {
+		// closest point on the segment in the xy plane, l(t) = s1 + (s2-s1)t
+		final double dx = s[3]-s[0], dy = s[4]-s[1], dz = s[5]-s[2];
+		final double t = ((x[0]-s[0])*dx + (x[1]-s[1])*dy) / (dx*dx+dy*dy);
+		if (t >= -epsilon && t <= 1+epsilon) {
+			final double lx = s[0]+dx*t, ly = s[1]+dy*t, lz = s[2]+dz*t;
+			final double ex = lx-x[0], ey = ly-x[1];
+			if (Math.sqrt(ex*ex+ey*ey) < epsilon) {
+				write(result, 0, swapped, x[0], x[1], x[2], lx, ly, lz);
+				return 1;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Intersect the point x with a polygon of count points
+	 */
+	private static int pointPolygon( final double[] x, final double[] poly, final int count, final double[] result, final boolean swapped ) {
+		int prev = 3*(count-1);
+		for (int i=0; i<count; i++) {
+			final int k = 3*i;
+			// x must be in the positive half-plane of each edge
+			if ((poly[k]-poly[prev])*(x[1]-poly[prev+1]) - (poly[k+1]-poly[prev+1])*(x[0]-poly[prev]) < 0)
+				return 0;
+			prev = k;
+		}
+		write(result, 0, swapped, x[0], x[1], x[2], x[0], x[1], planeZ(poly, x[0], x[1]));
+		return 1;
+	}
+	
+	/**
+	 * Intersect two segments, in the same way as the line-line case of the list based variant
+	 */
+	private static int segmentSegment( final double[] line1, final double[] line2, final double[] result ) {
+		final double p1x = line1[0], p1y = line1[1], p1z = line1[2];
+		final double p2x = line1[3], p2y = line1[4], p2z = line1[5];
+		double p3x = line2[0], p3y = line2[1], p3z = line2[2];
+		double p4x = line2[3], p4y = line2[4], p4z = line2[5];
+		
+		// the two lines are
+		// l1(t) = p1 + (p2-p1)t
+		// l2(s) = p3 + (p4-p3)s
+		final double p2p1x = p2x-p1x, p2p1y = p2y-p1y, p2p1z = p2z-p1z;
+		final double p4p3Tp2p1 = (p4x-p3x)*p2p1x + (p4y-p3y)*p2p1y;
+		
+		// if lines are orthogonal, use the unique intersection test
+		if (Math.abs(p4p3Tp2p1) < epsilon) {
+			final double qdx = p3x-p4x, qdy = p3y-p4y;
+			final double bx = p3x-p1x, by = p3y-p1y;
+			final double det = p2p1x*qdy-p2p1y*qdx;
+			if (Math.abs(det) < epsilon)
+				return 0;
+			final double a = (qdy*bx - qdx*by)/det;
+			final double b = (-p2p1y*bx + p2p1x*by)/det;
+			if (a>=-epsilon && a<=1+epsilon && b>=-epsilon && b<=1+epsilon) {
+				write(result, 0, false, p1x+p2p1x*a, p1y+p2p1y*a, p1z+p2p1z*a, 
+						p3x+(p4x-p3x)*b, p3y+(p4y-p3y)*b, p3z+(p4z-p3z)*b);
+				return 1;
+			}
+			return 0;
+		} 
+		// we require (p4-p3)T(p2-p1) > 0. if not, swap p3 and p4
+		else if (p4p3Tp2p1 < 0) {
+			double tmp;
+			tmp = p3x; p3x = p4x; p4x = tmp;
+			tmp = p3y; p3y = p4y; p4y = tmp;
+			tmp = p3z; p3z = p4z; p4z = tmp;
+		}
+		
+		final double e = 0.1;
+		final double p4p3x = p4x-p3x, p4p3y = p4y-p3y, p4p3z = p4z-p3z;
+		final double p3p1x = p3x-p1x, p3p1y = p3y-p1y;
+		// d is the normalised tangent of l2
+		final double p4p3n = Math.sqrt(p4p3x*p4p3x + p4p3y*p4p3y);
+		final double dx = -p4p3y/p4p3n, dy = p4p3x/p4p3n;
+		
+		// if lines are not parallel, we can compute two points on l1 where
+		// its distance to l2 is equal to e
+		final double z = p2p1x*dx + p2p1y*dy;
+		double tlow, thigh;
+		if (Math.abs(z) > epsilon) {
+			tlow = (-e + p3p1x*dx + p3p1y*dy)/z;
+			thigh = (e + p3p1x*dx + p3p1y*dy)/z;
+			if (thigh < tlow) {
+				final double t = tlow;
+				tlow = thigh;
+				thigh = t;
+			}
+		} else {
+			tlow = Double.NEGATIVE_INFINITY;
+			thigh = Double.POSITIVE_INFINITY;
+		}
+		
+		// transform t <-> s
+		final double k1 = (p4p3x*(p1x-p3x) + p4p3y*(p1y-p3y))/(p4p3n*p4p3n);
+		final double k2 = (p4p3x*p2p1x + p4p3y*p2p1y)/(p4p3n*p4p3n);
+		
+		// all candidate points end-points
+		final double slow = k1+k2*tlow;
+		final double st0 = k1;
+		final double s0 = 0;
+		final double shigh = k1+k2*thigh;
+		final double st1 = k1+k2;
+		final double s1 = 1;
+		
+		// highest possible plow and smallest possible phigh
+		final double plow = slow>st0? (slow>s0? slow:s0) : (st0>s0? st0:s0);
+		final double phigh = shigh<st1? (shigh<s1? shigh:s1) : (st1<s1? st1:s1);
+		
+		// generate intersections
+		if (Math.abs(plow-phigh) < epsilon || plow < phigh) {
+			final double t = (plow-k1)/k2;
+			write(result, 0, false, p1x+p2p1x*t, p1y+p2p1y*t, p1z+p2p1z*t,
+					p3x+p4p3x*plow, p3y+p4p3y*plow, p3z+p4p3z*plow);
+			if (Math.abs(plow-phigh) < epsilon)
+				return 1;
+			final double u = (phigh-k1)/k2;
+			write(result, 1, false, p1x+p2p1x*u, p1y+p2p1y*u, p1z+p2p1z*u,
+					p3x+p4p3x*phigh, p3y+p4p3y*phigh, p3z+p4p3z*phigh);
+			return 2;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Clip the segment s against each edge of a polygon of count points
+	 */
+	private static int segmentPolygon( final double[] s, final double[] poly, final int count, final double[] result, final boolean swapped ) {
+		double t0 = 0, t1 = 1;
+		int prev = 3*(count-1);
+		for (int i=0; i<count; i++) {
+			final int k = 3*i;
+			final double ex = poly[k]-poly[prev], ey = poly[k+1]-poly[prev+1];
+			final double length = Math.sqrt(ex*ex+ey*ey);
+			if (length > epsilon) {
+				// signed distances of the end-points to the edge, positive inside
+				final double d0 = (ex*(s[1]-poly[prev+1]) - ey*(s[0]-poly[prev]))/length;
+				final double d1 = (ex*(s[4]-poly[prev+1]) - ey*(s[3]-poly[prev]))/length;
+				if (d0 < -epsilon && d1 < -epsilon)
+					return 0;
+				if (d0 < -epsilon)
+					t0 = Math.max(t0, d0/(d0-d1));
+				else if (d1 < -epsilon)
+					t1 = Math.min(t1, d0/(d0-d1));
+			}
+			prev = k;
+		}
+		
+		if (t0 > t1)
+			return 0;
+		
+		final double dx = s[3]-s[0], dy = s[4]-s[1], dz = s[5]-s[2];
+		final double ax = s[0]+dx*t0, ay = s[1]+dy*t0;
+		write(result, 0, swapped, ax, ay, s[2]+dz*t0, ax, ay, planeZ(poly, ax, ay));
+		if ((t1-t0)*Math.sqrt(dx*dx+dy*dy) < epsilon)
+			return 1;
+		final double bx = s[0]+dx*t1, by = s[1]+dy*t1;
+		write(result, 1, swapped, bx, by, s[2]+dz*t1, bx, by, planeZ(poly, bx, by));
+		return 2;
+	}
+	
+	/**
+	 * Clip poly1 against each edge of poly2 (Sutherland-Hodgman), alternating between the result and scratch arrays
+	 */
+	private static int polygonPolygon( final double[] poly1, final int n, final double[] poly2, final int m, final double[] result, final double[] scratch ) {
+		double[] in = result, out = scratch;
+		System.arraycopy(poly1, 0, in, 0, 3*n);
+		int count = n;
+		
+		int prevq = 3*(m-1);
+		for (int j=0; j<m && count>0; j++) {
+			final int q = 3*j;
+			final double qsx = poly2[prevq], qsy = poly2[prevq+1];
+			final double ex = poly2[q]-qsx, ey = poly2[q+1]-qsy;
+			final double length = Math.sqrt(ex*ex+ey*ey);
+			prevq = q;
+			if (length < epsilon)
+				continue;
+			
+			int k = 0;
+			int a = 3*(count-1);
+			double da = (ex*(in[a+1]-qsy) - ey*(in[a]-qsx))/length;
+			for (int i=0; i<count; i++) {
+				final int b = 3*i;
+				final double db = (ex*(in[b+1]-qsy) - ey*(in[b]-qsx))/length;
+				
+				// edge a-b crosses the clipping line
+				if ((da < -epsilon) != (db < -epsilon)) {
+					final double t = Math.max(0, Math.min(1, da/(da-db)));
+					k = append(out, k, in[a]+(in[b]-in[a])*t, in[a+1]+(in[b+1]-in[a+1])*t, in[a+2]+(in[b+2]-in[a+2])*t);
+				}
+				
+				// keep b if inside
+				if (db >= -epsilon)
+					k = append(out, k, in[b], in[b+1], in[b+2]);
+				
+				a = b;
+				da = db;
+			}
+			
+			// closing point equal to the first
+			if (k > 1 && Math.abs(out[3*k-3]-out[0]) < epsilon && Math.abs(out[3*k-2]-out[1]) < epsilon)
+				k--;
+			
+			final double[] tmp = in; in = out; out = tmp;
+			count = k;
+		}
+		
+		if (in != result)
+			System.arraycopy(in, 0, result, 0, 3*count);
+		
+		// expand to pairs of points, going backwards so the points are not overwritten, and 
+		// compute the z values on poly2
+		for (int i=count-1; i>=0; i--) {
+			final double x = result[3*i], y = result[3*i+1], z = result[3*i+2];
+			write(result, i, false, x, y, z, x, y, planeZ(poly2, x, y));
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Append a point, unless it equals the previous point
+	 */
+	private static int append( final double[] poly, final int k, final double x, final double y, final double z ) {
+		if (k > 0 && Math.abs(poly[3*k-3]-x) < epsilon && Math.abs(poly[3*k-2]-y) < epsilon)
+			return k;
+		poly[3*k] = x; poly[3*k+1] = y; poly[3*k+2] = z;
+		return k+1;
+	}
+
 }
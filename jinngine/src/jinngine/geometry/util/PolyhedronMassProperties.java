@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.geometry.util;
+
+import jinngine.math.InertiaMatrix;
+import jinngine.math.Matrix3;
+import jinngine.math.Vector3;
+
+/**
+ * Exact mass properties of a closed polyhedron with unit density. By the divergence theorem, the volume integrals
+ * of the polyhedron can be written as integrals over its faces. Each face is split into a fan of triangles, and
+ * every triangle forms a tetrahedron with a reference point inside the polyhedron, whose volume, first and second
+ * moments are known in closed form. The signed contributions of all tetrahedra sum to the integrals over the
+ * polyhedron. This gives the same results as {@link MassProperties} in the limit of infinite subdivision, at the
+ * cost of a single pass over the faces.
+ */
+public class PolyhedronMassProperties {
+	private final double totalmass;
+	private final Vector3 centreofmass = new Vector3();
+	private final InertiaMatrix inertia = new InertiaMatrix();
+
+	/**
+	 * Compute the mass properties of the polyhedron given by vertices and faces
+	 * @param vertices vertices of the polyhedron
+	 * @param faces faces of the polyhedron, as arrays of vertex indices in counter clock-wise order seen from
+	 * outside the polyhedron
+	 */
+	public PolyhedronMassProperties( Vector3[] vertices, int[][] faces ) {
+		if (vertices.length == 0)
+			throw new IllegalArgumentException("PolyhedronMassProperties: no vertices");
+
+		// use the mean of the vertices as reference point, this reduces cancellation
+		final Vector3 reference = new Vector3();
+		for (Vector3 v: vertices)
+			Vector3.add(reference, v);
+		Vector3.multiply(reference, 1.0/vertices.length);
+
+		// accumulated volume, first moment and second moments (covariance) relative to the reference point
+		double volume = 0;
+		double mx = 0, my = 0, mz = 0;
+		double cxx = 0, cyy = 0, czz = 0, cxy = 0, cxz = 0, cyz = 0;
+
+		for (int[] face: faces) {
+			final Vector3 p0 = vertices[face[0]];
+			final double ax = p0.x-reference.x, ay = p0.y-reference.y, az = p0.z-reference.z;
+
+			// fan of triangles (0,i,i+1)
+			for (int i=1; i<face.length-1; i++) {
+				final Vector3 p1 = vertices[face[i]];
+				final Vector3 p2 = vertices[face[i+1]];
+				final double bx = p1.x-reference.x, by = p1.y-reference.y, bz = p1.z-reference.z;
+				final double cx = p2.x-reference.x, cy = p2.y-reference.y, cz = p2.z-reference.z;
+
+				// six times the signed volume of the tetrahedron (reference,a,b,c)
+				final double det = ax*(by*cz-bz*cy) - ay*(bx*cz-bz*cx) + az*(bx*cy-by*cx);
+				volume += det/6;
+
+				// the centre of the tetrahedron is (a+b+c)/4 relative to the reference point
+				final double sx = ax+bx+cx, sy = ay+by+cy, sz = az+bz+cz;
+				mx += det/24*sx; my += det/24*sy; mz += det/24*sz;
+
+				// covariance of the tetrahedron, det/120 (aa' + bb' + cc' + ss')
+				final double k = det/120;
+				cxx += k*(ax*ax + bx*bx + cx*cx + sx*sx);
+				cyy += k*(ay*ay + by*by + cy*cy + sy*sy);
+				czz += k*(az*az + bz*bz + cz*cz + sz*sz);
+				cxy += k*(ax*ay + bx*by + cx*cy + sx*sy);
+				cxz += k*(ax*az + bx*bz + cx*cz + sx*sz);
+				cyz += k*(ay*az + by*bz + cy*cz + sy*sz);
+			}
+		}
+
+		// faces in clock-wise order give a negative volume
+		if (volume < 0) {
+			volume = -volume;
+			mx = -mx; my = -my; mz = -mz;
+			cxx = -cxx; cyy = -cyy; czz = -czz; cxy = -cxy; cxz = -cxz; cyz = -cyz;
+		}
+
+		if (volume == 0)
+			throw new IllegalArgumentException("PolyhedronMassProperties: polyhedron has no volume");
+
+		totalmass = volume;
+
+		// centre of mass relative to the reference point
+		final double gx = mx/volume, gy = my/volume, gz = mz/volume;
+		centreofmass.assign(reference.x+gx, reference.y+gy, reference.z+gz);
+
+		// covariance about the centre of mass
+		cxx -= volume*gx*gx; cyy -= volume*gy*gy; czz -= volume*gz*gz;
+		cxy -= volume*gx*gy; cxz -= volume*gx*gz; cyz -= volume*gy*gz;
+
+		// the inertia tensor is trace(C) I - C
+		inertia.assign(
+				cyy+czz, -cxy,    -cxz,
+				-cxy,    cxx+czz, -cyz,
+				-cxz,    -cyz,    cxx+cyy);
+	}
+
+	/**
+	 * Get the calculated centre of mass position in body space
+	 * @return
+	 */
+	public Vector3 getCentreOfMass() {
+		return new Vector3(centreofmass);
+	}
+
+	/**
+	 * Get the calculated total mass, which equals the volume of the polyhedron
+	 * @return
+	 */
+	public double getMass() {
+		return totalmass;
+	}
+
+	/**
+	 * Get the calculated inertia tensor about the centre of mass. This tensor will be scaled in the total mass of the object.
+	 * @return
+	 */
+	public Matrix3 getInertiaMatrix() {
+		return new Matrix3(inertia);
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jinngine.geometry.Geometry;
+import jinngine.math.Vector3;
+
+/**
+ * Casts large batches of rays against the geometries of a scene, using a pool of worker threads. Rays are given
+ * as packed arrays, such that ray i starts at (origins[3i], origins[3i+1], origins[3i+2]) and has direction
+ * (directions[3i], directions[3i+1], directions[3i+2]). Results are written into packed output arrays in the same
+ * layout. The batch is divided into chunks of rays, which the workers claim one at a time. Each worker owns a
+ * {@link SceneQuery}, and thereby its own RayCast and GJK instances, so no allocation of query objects happens
+ * per ray.
+ * <p>
+ * As for SceneQuery, rays are culled using the broad-phase of the scene, and the scene must not be ticked or
+ * modified while a batch is being cast. A BatchRayCast instance must only be used by one thread at a time.
+ */
+public final class BatchRayCast {
+
+	// a worker thread's query context
+	private final class Worker implements Callable<Integer> {
+		final SceneQuery query = new SceneQuery(scene);
+		final SceneQuery.Hit hit = new SceneQuery.Hit();
+		final Vector3 point = new Vector3();
+		final Vector3 direction = new Vector3();
+
+		@Override
+		public Integer call() {
+			int hits = 0;
+			while (true) {
+				// claim the next chunk of rays
+				final int first = next.getAndAdd(chunksize);
+				if (first >= n)
+					break;
+				final int last = Math.min(first+chunksize, n);
+
+				for (int i=first; i<last; i++) {
+					final int j = 3*i;
+					point.assign(origins[j], origins[j+1], origins[j+2]);
+					direction.assign(directions[j], directions[j+1], directions[j+2]);
+					final double length = lengths != null? lengths[i] : Double.POSITIVE_INFINITY;
+
+					if (query.raycast(point, direction, length, filter, hit)) {
+						distances[i] = hit.parameter;
+						normals[j] = hit.normal.x; normals[j+1] = hit.normal.y; normals[j+2] = hit.normal.z;
+						geometries[i] = hit.geometry;
+						hits++;
+					} else {
+						distances[i] = Double.POSITIVE_INFINITY;
+						normals[j] = normals[j+1] = normals[j+2] = 0;
+						geometries[i] = null;
+					}
+				}
+			}
+			return hits;
+		}
+	}
+
+	private final Scene scene;
+	private final ExecutorService executor;
+	private final boolean ownsexecutor;
+	private final Worker[] workers;
+	private final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+	private final AtomicInteger next = new AtomicInteger();
+	private int chunksize = 64;
+
+	// the batch currently being cast
+	private int n;
+	private double[] origins, directions, lengths;
+	private SceneQuery.Filter filter;
+	private double[] distances, normals;
+	private Geometry[] geometries;
+
+	/**
+	 * Create a batch ray caster for the given scene, using a new ForkJoinPool with one worker per
+	 * available processor
+	 */
+	public BatchRayCast( Scene scene ) {
+		this(scene, new ForkJoinPool(), Runtime.getRuntime().availableProcessors(), true);
+	}
+
+	/**
+	 * Create a batch ray caster for the given scene, that uses the given executor. The executor is
+	 * not shut down by this object.
+	 * @param threads the number of workers to submit to the executor for each batch
+	 */
+	public BatchRayCast( Scene scene, ExecutorService executor, int threads ) {
+		this(scene, executor, threads, false);
+	}
+
+	private BatchRayCast( Scene scene, ExecutorService executor, int threads, boolean ownsexecutor ) {
+		if (executor == null)
+			throw new IllegalArgumentException("BatchRayCast: executor is null");
+		if (threads < 1)
+			throw new IllegalArgumentException("BatchRayCast: number of threads must be at least one");
+
+		this.scene = scene;
+		this.executor = executor;
+		this.ownsexecutor = ownsexecutor;
+		this.workers = new Worker[threads];
+		for (int i=0; i<threads; i++)
+			workers[i] = new Worker();
+	}
+
+	/**
+	 * Set the number of rays that a worker claims at a time. Smaller chunks balance uneven work better,
+	 * larger chunks give less contention. The default is 64.
+	 */
+	public void setChunkSize( int chunksize ) {
+		if (chunksize < 1)
+			throw new IllegalArgumentException("BatchRayCast: chunk size must be at least one");
+		this.chunksize = chunksize;
+	}
+
+	/**
+	 * Set the ray envelope used by all workers, see {@link SceneQuery#setRayEnvelope(double)}
+	 */
+	public void setRayEnvelope( double envelope ) {
+		for (Worker worker: workers)
+			worker.query.setRayEnvelope(envelope);
+	}
+
+	/**
+	 * Find the closest geometry hit by each ray in a batch. For a ray that hits nothing, the distance
+	 * is positive infinity, the normal is zero and the geometry is null.
+	 * @param n number of rays
+	 * @param origins packed ray origins, 3n values
+	 * @param directions packed ray directions, 3n values. Directions need not be normalised
+	 * @param lengths maximum ray parameter for each ray, n values. If null, rays are infinite
+	 * @param filter optional filter, can be null. The filter is called concurrently by the workers
+	 * @param distances receives the ray parameter t of each hit, n values
+	 * @param normals receives the packed unit surface normal at each hit, 3n values
+	 * @param geometries receives the geometry hit by each ray, n values
+	 * @return the number of rays that hit a geometry
+	 */
+	public int cast( int n, double[] origins, double[] directions, double[] lengths, SceneQuery.Filter filter,
+			double[] distances, double[] normals, Geometry[] geometries ) {
+		if (origins.length < 3*n || directions.length < 3*n || normals.length < 3*n
+				|| distances.length < n || geometries.length < n || (lengths != null && lengths.length < n))
+			throw new IllegalArgumentException("BatchRayCast: arrays are too small for " + n + " rays");
+
+		this.n = n;
+		this.origins = origins;
+		this.directions = directions;
+		this.lengths = lengths;
+		this.filter = filter;
+		this.distances = distances;
+		this.normals = normals;
+		this.geometries = geometries;
+		next.set(0);
+
+		// small batches are not worth handing to the pool
+		int hits = 0;
+		Throwable failure = null;
+		if (n <= chunksize || workers.length == 1) {
+			hits = workers[0].call();
+		} else {
+			futures.clear();
+			final int used = Math.min(workers.length, (n+chunksize-1)/chunksize);
+			for (int i=0; i<used; i++)
+				futures.add(executor.submit(workers[i]));
+
+			// wait for all workers
+			boolean interrupted = false;
+			for (Future<Integer> future: futures) {
+				while (true) {
+					try {
+						hits += future.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						if (failure == null)
+							failure = e.getCause();
+						break;
+					}
+				}
+			}
+			futures.clear();
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		// release references to the caller's arrays
+		this.origins = this.directions = this.lengths = this.distances = this.normals = null;
+		this.geometries = null;
+		this.filter = null;
+
+		if (failure != null)
+			throw new IllegalStateException("BatchRayCast: worker failed during ray cast", failure);
+
+		return hits;
+	}
+
+	/**
+	 * Shut down the worker pool, if it was created by this object
+	 */
+	public void shutdown() {
+		if (ownsexecutor)
+			executor.shutdown();
+	}
+}
@@ -40,6 +40,13 @@ public final class Body {
 	public final Vector3               auxDeltaOmega = new Vector3();
 	public final Vector3               auxDeltav2 = new Vector3();
 	public final Vector3               auxDeltaOmega2 = new Vector3();
+	
+	// zero pseudo velocities, see advancePositions()
+	private static final Vector3       zero = new Vector3();
+
+	// number of time-steps the body is advanced by in the current time-step. This is zero when the body is 
+	// waiting for its group to be stepped, see DefaultScene.setStepDivisor()
+	public int                         steps = 1;
 
 	// physical state of body
 	public final State state = new State();
@@ -49,6 +56,12 @@ public final class Body {
 	
 	// fixed setting
 	private boolean fixed = false;
+	
+	// kinematic setting
+	private boolean kinematic = false;
+	
+	// continuous collision detection setting
+	private boolean continuous = false;
 			
 	/**
 	 * Create a now body with no geometry
@@ -204,13 +217,50 @@ public final class Body {
 		return geometries.iterator();
 	}
 	
+	/**
+	 * Return true if this body has infinite mass, that is, if it is fixed or kinematic
+	 */
 	public final boolean isFixed() {
-		return fixed;
+		return fixed || kinematic;
 	}
 
 	public void setFixed( boolean value){
 		fixed = value;
 	}
+	
+	/**
+	 * Return true if this body is kinematic, see {@link #setKinematic(boolean)}
+	 */
+	public final boolean isKinematic() {
+		return kinematic;
+	}
+	
+	/**
+	 * Make this body kinematic. A kinematic body has infinite mass like a fixed body, but is moved by its 
+	 * velocity in each time-step, and is never deactivated. Bodies touching a moving kinematic body are kept 
+	 * active. Kinematic bodies are intended for animated objects like platforms and doors, whose velocities are
+	 * set by the user. To change this setting for a body in a scene, use {@link Scene#setKinematic(Body, boolean)}
+	 */
+	public void setKinematic( boolean value ) {
+		kinematic = value;
+	}
+
+	/**
+	 * Enable or disable continuous collision detection for this body. When enabled, the body is prevented 
+	 * from passing through other geometries during a time-step, even if it moves further than its own size. 
+	 * This is intended for a small number of fast moving bodies, such as projectiles. See
+	 * {@link ContinuousCollisionDetection}
+	 */
+	public final void setContinuousCollisionDetection( boolean value ) {
+		continuous = value;
+	}
+	
+	/**
+	 * Return true if continuous collision detection is enabled for this body
+	 */
+	public final boolean isContinuousCollisionDetection() {
+		return continuous;
+	}
 
 	/**
 	 * Set the linear velocity of this body
@@ -418,11 +468,19 @@ public final class Body {
 	 * @param dt
 	 */
 	public final void advancePositions( double dt) {
-        // explicit euler step on position
-		Vector3.add(state.position, state.velocity.multiply(dt)  );
+		advancePositions(dt, zero, zero);
+	}
+	
+	/**
+	 * Integrate forward on position using an explicit Euler step of dt, with the given pseudo velocities added 
+	 * to the velocities of the body. The velocities of the body are not changed
+	 */
+	public final void advancePositions( double dt, Vector3 pseudovelocity, Vector3 pseudoomega ) {
+		// explicit euler step on position
+		Vector3.add(state.position, state.velocity.add(pseudovelocity).multiply(dt)  );
 
 		// explicit euler step on orientation
-		state.orientationderivative.assign(0.0f, state.omega.multiply(0.5f));
+		state.orientationderivative.assign(0.0f, state.omega.add(pseudoomega).multiply(0.5f));
 		Quaternion.sMultiply( state.orientationderivative, state.orientation );
 		Quaternion.add( state.orientation, (state.orientationderivative.multiply(dt) ));
 
@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.collision.CollisionFilter;
+import jinngine.collision.RayCast;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.SupportMap3;
+import jinngine.math.Vector3;
+import jinngine.util.Heap;
+
+/**
+ * Continuous collision detection for fast moving bodies, using conservative advancement. For each body with
+ * continuous collision detection enabled, that moves far compared to its own size in a time-step, the time
+ * of impact with nearby geometries is computed by casting the body geometry along the relative linear motion,
+ * using {@link RayCast}. Each impact within the time-step becomes an event, and events are processed in the
+ * order of time, using a {@link Heap}. When an event is processed, the body is only advanced up to the time
+ * of impact, where it is left touching the other geometry. Its velocity is kept, so the contact generated in the
+ * following time-step resolves the impact. If the other body is also awaiting an impact, it is stopped at
+ * the same time, and its own, later, event is dropped.
+ * <p>
+ * Only linear motion is taken into account when computing the time of impact. Rotation during the time-step
+ * is integrated as usual, which is adequate for the small and fast bodies this is intended for.
+ */
+public final class ContinuousCollisionDetection {
+
+	// an impact of a body during the time-step
+	private static final class Event {
+		Body body;
+		Body other;
+		double time;
+	}
+
+	private final BroadphaseCollisionDetection broadphase;
+	private final RayCast raycast = new RayCast();
+	private final Heap<Event> events = new Heap<Event>(new Comparator<Event>() {
+		@Override
+		public int compare(Event a, Event b) {
+			return a.time < b.time? -1 : (a.time > b.time? 1 : 0);
+		}
+	});
+
+	// bodies waiting for their impact event, and the reusable event objects
+	private final Map<Body,Event> pending = new IdentityHashMap<Body,Event>();
+	private final List<Event> eventpool = new ArrayList<Event>();
+	private int eventsused = 0;
+
+	// buffers
+	private final List<Geometry> candidates = new ArrayList<Geometry>();
+	private final Vector3 origin = new Vector3();
+	private final Vector3 relative = new Vector3();
+	private final Vector3 min = new Vector3();
+	private final Vector3 max = new Vector3();
+	private final Vector3 pb = new Vector3();
+	private final Vector3 pc = new Vector3();
+
+	private double threshold = 0.5;
+	private double envelope = 0.01;
+	private double epsilon = 1e-7;
+
+	/**
+	 * Create continuous collision detection using the given broad-phase to find nearby geometries
+	 */
+	public ContinuousCollisionDetection( BroadphaseCollisionDetection broadphase ) {
+		this.broadphase = broadphase;
+	}
+
+	/**
+	 * Set the motion threshold. A body is only tested, if it moves more than this fraction of the smallest
+	 * extent of its bounding boxes in one time-step. The default is 0.5.
+	 */
+	public void setMotionThreshold( double threshold ) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Set the distance at which a body is stopped before touching another geometry. The default is 0.01.
+	 */
+	public void setEnvelope( double envelope ) {
+		this.envelope = envelope;
+	}
+
+	/**
+	 * Find the impacts of the given bodies during the coming time-step. Must be called after velocities
+	 * have been updated, but before any positions are advanced. Bodies with an impact are pending, see
+	 * isPending(), and must not be advanced by the caller. Bodies are advanced by dt times their number of
+	 * steps, see {@link Body#steps}.
+	 */
+	public void detect( List<Body> bodies, double dt ) {
+		events.clear();
+		pending.clear();
+		eventsused = 0;
+
+		for (Body body: bodies) {
+			if (!body.isContinuousCollisionDetection() || body.isFixed() || body.deactivated || body.steps == 0)
+				continue;
+
+			// only bother if the body moves far compared to its size
+			final Vector3 velocity = body.state.velocity;
+			final double bodydt = dt*body.steps;
+			final double distance = velocity.norm()*bodydt;
+			if (distance <= threshold*smallestExtent(body))
+				continue;
+
+			final Event event = impact(body, bodydt);
+			if (event != null) {
+				pending.put(body, event);
+				events.insert(event);
+			}
+		}
+	}
+
+	/**
+	 * Return true if the body has an impact during the time-step, and should not be advanced by the caller
+	 */
+	public boolean isPending( Body body ) {
+		return !pending.isEmpty() && pending.containsKey(body);
+	}
+
+	/**
+	 * Advance pending bodies to their times of impact, in the order of time
+	 */
+	public void resolve() {
+		while (events.size() > 0) {
+			final Event event = events.pop();
+
+			// the body may have been stopped by an earlier impact
+			if (pending.get(event.body) != event)
+				continue;
+
+			pending.remove(event.body);
+			event.body.advancePositions(event.time);
+
+			// stop the other body as well, if it is still awaiting its own impact
+			if (event.other != null && pending.containsKey(event.other)) {
+				pending.remove(event.other);
+				event.other.advancePositions(event.time);
+			}
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Find the earliest impact of body during the time-step
+	 * @return an event, or null if the body does not hit anything
+	 */
+	private Event impact( Body body, double dt ) {
+		Event earliest = null;
+		final Vector3 velocity = body.state.velocity;
+
+		Iterator<Geometry> geometries = body.getGeometries();
+		while (geometries.hasNext()) {
+			final Geometry g = geometries.next();
+			if (!(g instanceof SupportMap3) || g.isSensor())
+				continue;
+
+			// bounding box swept along the motion of the geometry
+			final Vector3 gmin = g.getMinBounds(), gmax = g.getMaxBounds();
+			for (int i=0; i<3; i++) {
+				final double d = velocity.get(i)*dt;
+				min.set(i, gmin.get(i) + Math.min(d,0));
+				max.set(i, gmax.get(i) + Math.max(d,0));
+			}
+
+			candidates.clear();
+			broadphase.query(min, max, candidates);
+
+			for (Geometry target: candidates) {
+				final Body other = target.getBody();
+				if (other == body || !(target instanceof SupportMap3) || target.isSensor())
+					continue;
+
+				// geometries that may not collide are passed through, as in the broad-phase
+				if (!CollisionFilter.accept(g, target, broadphase.getPairFilter()))
+					continue;
+
+				// cast g along the motion relative to the other body. The ray parameter is then the time
+				// of impact, since the direction of the ray is a velocity
+				relative.assign(velocity);
+				if (other != null && (!other.isFixed() || other.isKinematic()))
+					relative.assign(relative.sub(other.state.velocity));
+				origin.assignZero();
+				final double time = raycast.run((SupportMap3)target, (SupportMap3)g, origin, relative, pb, pc, 0, envelope, epsilon, true);
+
+				// geometries that already touch are handled by ordinary contacts
+				if (time > 0 && time < dt && (earliest == null || time < earliest.time)) {
+					if (earliest == null)
+						earliest = nextEvent();
+					earliest.body = body;
+					earliest.other = (other == null || other.isFixed())? null : other;
+					earliest.time = time;
+				}
+			}
+		}
+
+		candidates.clear();
+		return earliest;
+	}
+
+	/**
+	 * Return the smallest side length of the bounding boxes of the body's geometries
+	 */
+	private static double smallestExtent( Body body ) {
+		double smallest = Double.POSITIVE_INFINITY;
+		Iterator<Geometry> geometries = body.getGeometries();
+		while (geometries.hasNext()) {
+			final Geometry g = geometries.next();
+			final Vector3 extent = g.getMaxBounds().sub(g.getMinBounds());
+			smallest = Math.min(smallest, Math.min(extent.x, Math.min(extent.y, extent.z)));
+		}
+		return smallest;
+	}
+
+	private Event nextEvent() {
+		if (eventsused == eventpool.size())
+			eventpool.add(new Event());
+		return eventpool.get(eventsused++);
+	}
+}
@@ -8,15 +8,19 @@
  */
 package jinngine.physics;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import jinngine.physics.constraint.*;
 import jinngine.physics.constraint.contact.ContactConstraintManager;
+import jinngine.physics.constraint.contact.ContactEventBuffer;
 import jinngine.physics.constraint.contact.DefaultContactConstraintManager;
+import jinngine.physics.constraint.contact.FrictionalContactConstraint;
 import jinngine.physics.solver.*;
 import jinngine.physics.solver.Solver.NCPConstraint;
 import jinngine.collision.*;
 import jinngine.geometry.*;
 import jinngine.physics.force.*;
+import jinngine.math.Vector3;
 import jinngine.util.*;
 
 /**
@@ -29,12 +33,41 @@ public final class DefaultScene implements Scene {
 	// bodies in model
 	public final List<Body> bodies = new ArrayList<Body>();
 	
+	// position of each body in the body list, for constant time removal
+	private final Map<Body,Integer> bodyindex = new HashMap<Body,Integer>();
+	
 	// constraints, joints and forces
 	public final List<NCPConstraint> ncpconstraints = new ArrayList<NCPConstraint>();
 	private final List<Body> ncpbodies = new ArrayList<Body>();
 	private final List<Force> forces = new ArrayList<Force>(); 
 	private final List<Constraint> liveconstraints = new ArrayList<Constraint>();
 	
+	/**
+	 * Callback for choosing the rate at which interacting groups of bodies are stepped, see setStepDivisor()
+	 */
+	public interface StepDivisor {
+		/**
+		 * Return the step divisor for a group of interacting bodies. A group with divisor n is stepped
+		 * in every n'th time-step, using n times the time-step size. Groups that are far from any observer,
+		 * or otherwise of low priority, can be given larger divisors. 
+		 * @param bodies the bodies in the group. Fixed and kinematic bodies are not included
+		 * @return a divisor of at least 1
+		 */
+		public int getDivisor( Iterator<Body> bodies );
+	}
+	
+	// multi-rate stepping
+	private StepDivisor stepdivisor = null;
+	private int stepphase = 0;
+	
+	// bodies connected to moving kinematic bodies, or still moved out of penetration, which must not be 
+	// deactivated in this time-step
+	private final Set<Body> pushed = new HashSet<Body>();
+	
+	// buffers used when the fixed or kinematic setting of a body changes
+	private final List<Pair<Geometry>> reclassifiedoverlaps = new ArrayList<Pair<Geometry>>();
+	private final List<Constraint> reclassifiedjoints = new ArrayList<Constraint>();
+	
 	// triggers
 	public final List<Trigger> triggers = new LinkedList<Trigger>();
 	
@@ -50,6 +83,12 @@ public final class DefaultScene implements Scene {
 	// inner class for storing data in components in constraint graph
 	public final class ConstraintGroup {
 		public boolean deactivated = false;
+		
+		// multi-rate stepping. The component is stepped when it has waited the given number of
+		// time-steps, using a time-step size that covers the time-steps elapsed since the last step
+		public int divisor = 1;
+		public int wait = 1;
+		public int elapsed = 0;
 		@Override
 		public String toString() {
 			return deactivated?"deactivated":"active";
@@ -113,7 +152,10 @@ public final class DefaultScene implements Scene {
 	private final BroadphaseCollisionDetection broadphase;
 	
 	// contact constraints
-	private final ContactConstraintManager contactmanager;
+	private final DefaultContactConstraintManager contactmanager;
+	
+	// time of impact handling for fast bodies
+	private final ContinuousCollisionDetection ccd;
 
 	// ncp solver
 	private final Solver solver;
@@ -121,12 +163,32 @@ public final class DefaultScene implements Scene {
 	// PGS iteration for live constraints
 	private final Solver pgs = new ProjectedGaussSeidel(1);
 	
+	// speculative contacts, with the own envelopes of the geometries widened in the current time-step
+	private boolean speculative = false;
+	private final Map<Geometry,Double> widened = new IdentityHashMap<Geometry,Double>();
+	
+	// split impulses, with a separate solver for the position constraints
+	private boolean splitimpulse = false;
+	private final List<NCPConstraint> positionconstraints = new ArrayList<NCPConstraint>();
+	private final Set<Body> corrected = new HashSet<Body>();
+	private final Solver positionsolver = new ProjectedGaussSeidel(20);
+	
 	// deactivation policy
 	private final DeactivationPolicy policy;
 	
 	// time-step size
 	private double timestep = 0.08; 
 
+	// scene mutations queued from arbitrary threads, applied at the beginning of tick()
+	private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+	
+	// transform frames published for concurrent readers. At least three frames are used, such that 
+	// a new frame can be written while a reader holds on to the previous frame
+	private boolean publishframes = false;
+	private final List<TransformFrame> frames = new ArrayList<TransformFrame>();
+	private volatile TransformFrame latestframe = null;
+	private long tickcount = 0;
+
 	/** 
 	 * Create a new fixed time-stepping simulator 
 	 * @param broadphase Broadphase collision detection method
@@ -141,6 +203,7 @@ public final class DefaultScene implements Scene {
 		
 		// start the new contact constraint manager
 		this.contactmanager = new DefaultContactConstraintManager( broadphase, constraintGraph);
+		this.ccd = new ContinuousCollisionDetection(broadphase);
 	}
 	
 	/**
@@ -160,6 +223,7 @@ public final class DefaultScene implements Scene {
 		
 		// start the new contact constraint manager
 		this.contactmanager = new DefaultContactConstraintManager( broadphase, constraintGraph);
+		this.ccd = new ContinuousCollisionDetection(broadphase);
 	}
 
 
@@ -171,15 +235,37 @@ public final class DefaultScene implements Scene {
 		// but in short, ContactConstraintManager will insert ContactConstraints into the constraintGraph, and update 
 		// these constraints. See ContactConstraintManager for more details on this.
 		
+		// apply mutations queued since the last time-step
+		applyQueuedCommands();
+		
+		// let moving bodies find their speculative contacts
+		if (speculative)
+			widenEnvelopes();
+		
 		// run the broad-phase collision detection (this automatically updates the contactGraph,
 		// through the BroadfaseCollisionDetection.Handler type)
 		broadphase.run();
 				
-		// clear acting forces and delta velocities
+		// clear acting forces and delta velocities. Bodies still being moved out of penetration are kept active 
+		pushed.clear();
+		pushed.addAll(corrected);
 		for (Body bi:bodies) {
-			bi.externaldeltavelocity.assignZero();
-			bi.externaldeltaomega.assignZero();
+			// bodies of components that waited in the last time-step keep accumulating forces, until their
+			// component is stepped 
+			if (bi.steps > 0) {
+				bi.externaldeltavelocity.assignZero();
+				bi.externaldeltaomega.assignZero();
+			}
+			bi.steps = 1;
 
+			// bodies connected to a moving kinematic body are kept active
+			if (bi.isKinematic() && (bi.state.velocity.squaredNorm() > 0 || bi.state.omega.squaredNorm() > 0)) {
+				Iterator<Constraint> edges = constraintGraph.getConnectedEdges(bi);
+				while (edges.hasNext()) {
+					Pair<Body> pair = edges.next().getBodies();
+					pushed.add(pair.getFirst() == bi? pair.getSecond() : pair.getFirst());
+				}
+			}
 		}
 
 		// apply all forces	to external delta velocities
@@ -209,6 +295,7 @@ public final class DefaultScene implements Scene {
 		// create a special iterator to be used with constraints. Each constraint will
 		// insert its ncp-constraints into this list
 		ncpconstraints.clear();
+		positionconstraints.clear();
 		ListIterator<NCPConstraint> constraintIterator = ncpconstraints.listIterator();
 		
 		// iterate through groups/components in the constraint graph
@@ -220,13 +307,24 @@ public final class DefaultScene implements Scene {
 			// get the component 
 			ConstraintGroup g = components.next();
 			
+			// components with a step divisor wait for their turn
+			if (stepdivisor != null && ++g.elapsed < g.wait) {
+				Iterator<Body> bodyiter = constraintGraph.getNodesInComponent(g);
+				while (bodyiter.hasNext()) {
+					bodyiter.next().steps = 0;
+				}
+				continue;
+			}
+			final int steps = stepdivisor != null? g.elapsed : 1;
+			
 			// if the component is marked as active
 			if ( !g.deactivated) {
 				// check if the whole component can be deactivated
 				Iterator<Body> bodyiter =constraintGraph.getNodesInComponent(g);
 				boolean activefound = false;
 				while (bodyiter.hasNext()) {
-					if ( !policy.shouldBeDeactivated(bodyiter.next()) ) {
+					Body body = bodyiter.next();
+					if ( !policy.shouldBeDeactivated(body) || pushed.contains(body) ) {
 						activefound = true;
 						break;
 					}
@@ -238,11 +336,16 @@ public final class DefaultScene implements Scene {
 					ConstraintGroup data = g;
 					data.deactivated = false;
 					
+					// the component covers more than one time-step
+					if (steps > 1) 
+						setSteps(g, steps);
+					
 					// apply all constraints in interaction component
 					Iterator<Constraint> constraints = constraintGraph.getEdgesInComponent(g);
 					while (constraints.hasNext()) {
 						Constraint c = constraints.next();
-						c.applyConstraints(constraintIterator, timestep);
+						c.applyConstraints(constraintIterator, timestep*steps);
+						addPositionConstraints(c);
 					} // while
 				} // if active found
 				else {
@@ -263,7 +366,8 @@ public final class DefaultScene implements Scene {
 				Iterator<Body> bodyiter =constraintGraph.getNodesInComponent(g);
 				boolean activefound = false;
 				while (bodyiter.hasNext()) {
-					if ( policy.shouldBeActivated(bodyiter.next()) ) {
+					Body body = bodyiter.next();
+					if ( policy.shouldBeActivated(body) || pushed.contains(body) ) {
 						activefound = true;
 						break;
 					}
@@ -280,22 +384,43 @@ public final class DefaultScene implements Scene {
 						policy.activate(bodyiter.next());
 					}
 
+					// the component covers more than one time-step
+					if (steps > 1) 
+						setSteps(g, steps);
 					
 					// apply all constraints in interaction component
 					Iterator<Constraint> constraints = constraintGraph.getEdgesInComponent(g);
 					while (constraints.hasNext()) {
 						Constraint c = constraints.next();
-						c.applyConstraints(constraintIterator, timestep);
+						c.applyConstraints(constraintIterator, timestep*steps);
+						addPositionConstraints(c);
 					} // while					
 				} // if activatable body found
 				
 			}
+			
+			// choose the rate for the next step of this component
+			if (stepdivisor != null) {
+				final int divisor = Math.max(1, stepdivisor.getDivisor(constraintGraph.getNodesInComponent(g)));
+				g.elapsed = 0;
+				if (divisor != g.divisor) {
+					// spread the first step of components that change rate over the coming time-steps, 
+					// to level the load
+					g.divisor = divisor;
+					g.wait = 1 + (stepphase++ % divisor);
+				} else {
+					g.wait = divisor;
+				}
+			}
 		} //while components
 		
 		// handle free bodies, not in any components
 		Iterator<Body> freebodies = constraintGraph.getFreeNodes();
 		while (freebodies.hasNext()) {
 			Body body = freebodies.next();
+			// kinematic bodies are never deactivated
+			if (body.isKinematic()) 
+				continue;
 			if (body.deactivated) {
 				if (policy.shouldBeActivated(body)) {
 					policy.activate(body);
@@ -322,14 +447,17 @@ public final class DefaultScene implements Scene {
 		// components in the constraint graph
 		solver.solve( ncpconstraints, bodies, 1e-5 );
 		
+		// report contacts, now that the contact impulses are known
+		contactmanager.updateContactEvents();
+		
 		// update triggers
 		for (Trigger trigger: triggers) {
 			trigger.update(this);
 		}
 		
-		// go through bodies to advance velocities and positions
+		// go through bodies to advance velocities
 		for (Body body: bodies) {
-			if ( !body.deactivated ) {
+			if ( !body.deactivated && body.steps > 0 ) {
 				if ( !body.isFixed() ) {
 					if (body.deltavelocity.isNaN() || body.deltaomega.isNaN() ) 
 						throw new IllegalStateException("DefaultScene: delta velocities containes NaN");
@@ -341,13 +469,333 @@ public final class DefaultScene implements Scene {
 					body.state.omega.assign( body.state.omega.add( body.deltaomega).add(body.externaldeltaomega));
 
 				}
-
-				// integrate forward on positions
-				body.advancePositions(timestep);
 			}
 		}
+		
+		// compute pseudo velocities for penetration correction
+		if (splitimpulse) {
+			solvePositionConstraints();
+		}
+		
+		// find impacts of fast bodies with continuous collision detection enabled. These
+		// bodies are advanced only up to their time of impact, by ccd.resolve() 
+		ccd.detect(bodies, timestep);
+		
+		// integrate forward on positions
+		for (Body body: bodies) {
+			if ( !body.deactivated && body.steps > 0 && !ccd.isPending(body)) {
+				if (splitimpulse) {
+					body.advancePositions(timestep*body.steps, body.auxDeltav, body.auxDeltaOmega);
+				} else {
+					body.advancePositions(timestep*body.steps);
+				}
+			}
+		}
+		ccd.resolve();
+		restoreEnvelopes();
+		
+		tickcount++;
+		
+		// make the new state available to other threads
+		if (publishframes) {
+			publishTransformFrame();
+		}
 	} //time-step
 
+	/**
+	 * Widen the envelope of each geometry of a moving body by twice the distance the body travels in the 
+	 * time-step. Contact generators use the largest envelope of a pair, so this covers the relative motion 
+	 * of two bodies, and contacts are generated within the distance they may close in the time-step 
+	 */
+	private void widenEnvelopes() {
+		for (Body body: bodies) {
+			if ((body.isFixed() && !body.isKinematic()) || body.deactivated)
+				continue;
+			final double motion = 2*body.state.velocity.norm()*timestep;
+			if (motion <= 0)
+				continue;
+			Iterator<Geometry> i = body.getGeometries();
+			while (i.hasNext()) {
+				final Geometry g = i.next();
+				widened.put(g, g.getEnvelope());
+				g.setEnvelope(g.getEnvelope()+motion);
+			}
+		}
+	}
+
+	/**
+	 * Give the geometries widened in this time-step their own envelopes back
+	 */
+	private void restoreEnvelopes() {
+		for (Map.Entry<Geometry,Double> e: widened.entrySet())
+			e.getKey().setEnvelope(e.getValue());
+		widened.clear();
+	}
+
+	/**
+	 * Collect the position constraints of a contact constraint, when split impulses are enabled
+	 */
+	private void addPositionConstraints( Constraint c ) {
+		if (splitimpulse && c instanceof FrictionalContactConstraint) {
+			Iterator<NCPConstraint> i = ((FrictionalContactConstraint)c).getPositionNcpConstraints();
+			while (i.hasNext()) {
+				positionconstraints.add(i.next());
+			}
+		}
+	}
+	
+	/**
+	 * Solve the position constraints for pseudo velocities, and leave these in the auxiliary delta velocities 
+	 * of the bodies. The delta velocities of the velocity solve are kept, as they are used by the deactivation 
+	 * policy, and the external delta velocities of stepped bodies are cleared, as these are already applied to 
+	 * the velocities. Bodies that are moved significantly are kept active in the next time-step
+	 */
+	private void solvePositionConstraints() {
+		for (Body body: bodies) {
+			body.auxDeltav2.assign(body.deltavelocity);
+			body.auxDeltaOmega2.assign(body.deltaomega);
+			body.deltavelocity.assignZero();
+			body.deltaomega.assignZero();
+			if (body.steps > 0) {
+				body.externaldeltavelocity.assignZero();
+				body.externaldeltaomega.assignZero();
+			}
+		}
+		
+		positionsolver.solve(positionconstraints, bodies, 1e-7);
+		
+		corrected.clear();
+		for (Body body: bodies) {
+			body.auxDeltav.assign(body.deltavelocity);
+			body.auxDeltaOmega.assign(body.deltaomega);
+			body.deltavelocity.assign(body.auxDeltav2);
+			body.deltaomega.assign(body.auxDeltaOmega2);
+			
+			// keep bodies with significant pseudo velocities from being deactivated
+			if (body.auxDeltav.squaredNorm() + body.auxDeltaOmega.squaredNorm() > 1e-3)
+				corrected.add(body);
+		}
+	}
+	
+	/**
+	 * Write the current body states into a frame that is not held by any reader, and make it the latest frame
+	 */
+	private void publishTransformFrame() {
+		TransformFrame frame = null;
+		for (TransformFrame f: frames) {
+			if (f != latestframe && f.claim()) {
+				frame = f;
+				break;
+			}
+		}
+		
+		// all frames held by readers, make a new one 
+		if (frame == null) {
+			frame = new TransformFrame();
+			frame.claim();
+			frames.add(frame);
+		}
+		
+		frame.assign(bodies, tickcount);
+		frame.publish();
+		latestframe = frame;
+	}
+	
+	/**
+	 * Set the number of time-steps covered by the bodies in a component, that is stepped with a time-step
+	 * size of the given number of time-steps. The external delta velocities of the bodies are already 
+	 * accumulated over these time-steps
+	 */
+	private void setSteps( ConstraintGroup g, int steps ) {
+		Iterator<Body> bodyiter = constraintGraph.getNodesInComponent(g);
+		while (bodyiter.hasNext()) {
+			bodyiter.next().steps = steps;
+		}
+	}
+	
+	/**
+	 * Set a callback that chooses the rate at which each group of interacting bodies is stepped. A group 
+	 * with step divisor n is stepped in every n'th time-step, with n times the time-step size, so that low 
+	 * priority groups cost a fraction of the time. Groups with the same divisor are stepped in different 
+	 * time-steps, to spread out the load. The callback is called each time a group is stepped. Bodies that 
+	 * do not interact with other bodies, as well as fixed and kinematic bodies, are always stepped in 
+	 * every time-step. Stepping groups at a lower rate is less accurate, and stacks with large divisors may
+	 * be less stable. Setting the callback to null steps all groups in every time-step, which is the default. 
+	 */
+	public void setStepDivisor( StepDivisor stepdivisor ) {
+		this.stepdivisor = stepdivisor;
+		
+		// start over
+		Iterator<ConstraintGroup> components = constraintGraph.getComponents();
+		while (components.hasNext()) {
+			ConstraintGroup g = components.next();
+			g.divisor = 1;
+			g.wait = 1;
+			g.elapsed = 0;
+		}
+	}
+	
+	/**
+	 * Enable or disable contact events. When enabled, the contacts that began, persisted, or ended during
+	 * the latest time-step are available from getContactEvents()
+	 */
+	public void setContactEventsEnabled( boolean enabled ) {
+		contactmanager.setContactEventsEnabled(enabled);
+	}
+	
+	/**
+	 * Enable or disable speculative contacts. Contacts between features that are apart then only keep 
+	 * the bodies from closing the gap within the next time-step, so fast bodies stop at the surface 
+	 * instead of being pushed back by clamped correction velocities. During each time-step, the envelopes 
+	 * of moving bodies are widened by the distance they travel, so contacts are generated before the bodies 
+	 * meet. Bodies rest touching, so the envelopes need not be raised, see 
+	 * {@link FrictionalContactConstraint#setSpeculative(boolean)}
+	 */
+	public void setSpeculativeContactsEnabled( boolean enabled ) {
+		this.speculative = enabled;
+		contactmanager.setSpeculativeContactsEnabled(enabled);
+	}
+	
+	/**
+	 * Enable or disable split impulses. Penetrating contacts are then corrected by a separate solve for pseudo 
+	 * velocities, which move the bodies apart in the current time-step without changing their velocities. 
+	 * Stacks of bodies settle faster this way, as penetration correction no longer adds energy to them, 
+	 * see {@link FrictionalContactConstraint#setSplitImpulse(boolean)}
+	 */
+	public void setSplitImpulseEnabled( boolean enabled ) {
+		this.splitimpulse = enabled;
+		corrected.clear();
+		contactmanager.setSplitImpulseEnabled(enabled);
+	}
+	
+	/**
+	 * Return the contact events of the latest time-step. The buffer is reused in each time-step, and should
+	 * be drained by the user between calls to tick()
+	 */
+	public ContactEventBuffer getContactEvents() {
+		return contactmanager.getContactEvents();
+	}
+	
+	/**
+	 * Get the continuous collision detection used for bodies that have it enabled, see 
+	 * {@link Body#setContinuousCollisionDetection(boolean)}
+	 */
+	public ContinuousCollisionDetection getContinuousCollisionDetection() {
+		return ccd;
+	}
+	
+	/**
+	 * Enable or disable publishing of transform frames at the end of each time-step. When enabled, 
+	 * the positions, orientations and velocities of all bodies are copied into a {@link TransformFrame} 
+	 * at the end of tick(). Frames are triple buffered, so publishing does not allocate new frames, 
+	 * unless readers hold on to frames for more than a time-step. Publishing is disabled by default.
+	 */
+	public void setTransformFramePublishing( boolean enabled ) {
+		this.publishframes = enabled;
+		
+		if (enabled) {
+			while (frames.size() < 3) {
+				frames.add(new TransformFrame());
+			}
+			
+			// make a frame available right away
+			publishTransformFrame();
+		}
+	}
+	
+	/**
+	 * Get the latest complete transform frame. This method can be called from any thread, also 
+	 * while the scene is being ticked. The returned frame does not change until it is released 
+	 * using {@link TransformFrame#release()}, which must be done by the caller when done reading.
+	 * @return the latest frame, or null if frame publishing has never been enabled
+	 */
+	public TransformFrame acquireTransformFrame() {
+		while (true) {
+			TransformFrame frame = latestframe;
+			if (frame == null)
+				return null;
+			if (frame.acquire())
+				return frame;
+		}
+	}
+
+
+	/**
+	 * Apply all queued commands in the order they were queued. Commands queued while 
+	 * this method runs are applied as well.
+	 */
+	private void applyQueuedCommands() {
+		Runnable command;
+		while ((command = commands.poll()) != null) {
+			command.run();
+		}
+	}
+
+	/**
+	 * Queue an arbitrary mutation of this scene. Unlike the methods of Scene, this method can be 
+	 * called from any thread at any time, also while the scene is being ticked. Queued commands are 
+	 * executed by the thread calling tick(), at the beginning of the next time-step, in the order they 
+	 * were queued. The command is free to call any method on this scene. 
+	 */
+	public void queueCommand( Runnable command ) {
+		if (command == null)
+			throw new IllegalArgumentException("DefaultScene: attempt to queue null command");
+		commands.add(command);
+	}
+
+	/**
+	 * Queue the addition of a body. See {@link #queueCommand(Runnable)}
+	 */
+	public void queueAddBody( final Body body ) {
+		queueCommand(new Runnable() {
+			public void run() { addBody(body); }
+		});
+	}
+
+	/**
+	 * Queue the removal of a body. See {@link #queueCommand(Runnable)}
+	 */
+	public void queueRemoveBody( final Body body ) {
+		queueCommand(new Runnable() {
+			public void run() { removeBody(body); }
+		});
+	}
+
+	/**
+	 * Queue the addition of a constraint. See {@link #queueCommand(Runnable)}
+	 */
+	public void queueAddConstraint( final Constraint constraint ) {
+		queueCommand(new Runnable() {
+			public void run() { addConstraint(constraint); }
+		});
+	}
+
+	/**
+	 * Queue the removal of a constraint. See {@link #queueCommand(Runnable)}
+	 */
+	public void queueRemoveConstraint( final Constraint constraint ) {
+		queueCommand(new Runnable() {
+			public void run() { removeConstraint(constraint); }
+		});
+	}
+
+	/**
+	 * Queue the addition of a force. See {@link #queueCommand(Runnable)}
+	 */
+	public void queueAddForce( final Force force ) {
+		queueCommand(new Runnable() {
+			public void run() { addForce(force); }
+		});
+	}
+
+	/**
+	 * Queue the removal of a force. See {@link #queueCommand(Runnable)}
+	 */
+	public void queueRemoveForce( final Force force ) {
+		queueCommand(new Runnable() {
+			public void run() { removeForce(force); }
+		});
+	}
 
 	@Override
 	public void addForce( Force f ) {
@@ -361,8 +809,7 @@ public final class DefaultScene implements Scene {
 
 	@Override
 	public void addBody( Body c) {
-		bodies.add(c);
-		c.updateTransformations();
+		insertBody(c);
 		
 		// install geometries into the broad-phase collision detection
 		Iterator<Geometry> i = c.getGeometries();
@@ -372,6 +819,31 @@ public final class DefaultScene implements Scene {
 		}
 	}
 	
+	@Override
+	public void addBodies( Collection<Body> bodies ) {
+		// add bodies and collect all geometries
+		List<Geometry> geometries = new ArrayList<Geometry>();
+		for (Body c: bodies) {
+			insertBody(c);
+			Iterator<Geometry> i = c.getGeometries();
+			while (i.hasNext()) {
+				geometries.add(i.next());
+			}
+		}
+
+		// let the broad-phase insert all geometries in one go
+		broadphase.addAll(geometries);
+	}
+	
+	private void insertBody( Body c ) {
+		if (bodyindex.containsKey(c))
+			throw new IllegalArgumentException("DefaultScene: body is already in scene");
+		
+		bodyindex.put(c, bodies.size());
+		bodies.add(c);
+		c.updateTransformations();
+	}
+	
 	@Override
 	public void addConstraint(Constraint joint) {
 		constraintGraph.addEdge(joint.getBodies(), joint);
@@ -406,15 +878,56 @@ public final class DefaultScene implements Scene {
 	
 	@Override
 	public final void removeBody(Body body) {
+		if (!bodyindex.containsKey(body))
+			return;
+		
 		//remove associated geometries from collision detection
 		Iterator<Geometry> i = body.getGeometries();
 		while( i.hasNext()) {
 			broadphase.remove(i.next());			
 		}
 		
-		//finally remove from body list
-		bodies.remove(body);
+		//forget the contact generators of its geometries
+		contactmanager.removeBodies(Collections.singleton(body));
 		
+		//finally remove from body list
+		deleteBody(body);
+	}
+
+	@Override
+	public void removeBodies( Collection<Body> bodies ) {
+		// collect geometries of the bodies in this scene
+		Set<Body> removed = new LinkedHashSet<Body>(bodies);
+		List<Geometry> geometries = new ArrayList<Geometry>();
+		for (Body body: removed) {
+			if (bodyindex.containsKey(body)) {
+				Iterator<Geometry> i = body.getGeometries();
+				while (i.hasNext()) {
+					geometries.add(i.next());
+				}
+			}
+		}
+
+		// remove all geometries from collision detection in one go
+		broadphase.removeAll(geometries);
+		contactmanager.removeBodies(removed);
+
+		for (Body body: removed) {
+			if (bodyindex.containsKey(body))
+				deleteBody(body);
+		}
+	}
+	
+	/**
+	 * Remove a body from the body list, by moving the last body into its place
+	 */
+	private void deleteBody( Body body ) {
+		int index = bodyindex.remove(body);
+		Body last = bodies.remove(bodies.size()-1);
+		if (last != body) {
+			bodies.set(index, last);
+			bodyindex.put(last, index);
+		}
 	}
 
 	@Override
@@ -429,29 +942,88 @@ public final class DefaultScene implements Scene {
 
 	@Override
 	public void fixBody(Body b, boolean fixed) {
-		// this may seem a bit drastic, but it is necessary. If one
-		// just changes the fixed setting directly on bodies during animation,
-		// really bad thing will happen, because the contact graph will become
-		// corrupted and will eventually crash jinngine
-		
 		//check if the body is in the animation
-		if (!bodies.contains(b))
+		if (!bodyindex.containsKey(b))
 			return;
 		
 		// check if body is already the at the correct 
 		// fixed setting, in which case do nothing
-		if (b.isFixed() == fixed) 
+		if (b.isFixed() == fixed && !b.isKinematic()) 
 			return;
 		
-		// remove the body from simulation 
-		removeBody(b);
-
-		//change the fixed setting
+		detachConstraints(b);
 		b.setFixed(fixed);
-
-		// reinsert body
-		addBody(b);
+		attachConstraints(b);
+	}
+	
+	@Override
+	public void setKinematic(Body b, boolean kinematic) {
+		if (!bodyindex.containsKey(b) || b.isKinematic() == kinematic) {
+			b.setKinematic(kinematic);
+			return;
+		}
+		
+		detachConstraints(b);
+		b.setKinematic(kinematic);
+		attachConstraints(b);
+	}
+	
+	@Override
+	public void setSensor(Geometry g, boolean sensor) {
+		final Body b = g.getBody();
+		if (b == null || !bodyindex.containsKey(b) || g.isSensor() == sensor) {
+			g.setSensor(sensor);
+			return;
+		}
 		
+		detachConstraints(b);
+		g.setSensor(sensor);
+		attachConstraints(b);
+	}
+	
+	/**
+	 * Take the contact constraints and joints of a body out of the constraint graph, before changing its fixed,
+	 * kinematic or sensor setting. If one just changes these settings directly on bodies during animation, really bad 
+	 * things will happen, because the constraint graph uses them to find delimiting nodes, and will become
+	 * corrupted. The body stays in the broad-phase collision detection. See attachConstraints()
+	 */
+	private void detachConstraints(Body b) {
+		// contact constraints
+		reclassifiedoverlaps.clear();
+		contactmanager.releaseContacts(b, reclassifiedoverlaps);
+		
+		// remaining edges are joints
+		reclassifiedjoints.clear();
+		Iterator<Constraint> edges = constraintGraph.getConnectedEdges(b);
+		while (edges.hasNext()) {
+			reclassifiedjoints.add(edges.next());
+		}
+		for (Constraint joint: reclassifiedjoints) {
+			constraintGraph.removeEdge(joint.getBodies());
+		}
+	}
+	
+	/**
+	 * Put back the constraints removed by detachConstraints(), after the settings of the body have changed
+	 */
+	private void attachConstraints(Body b) {
+		policy.activate(b);
+		
+		for (Constraint joint: reclassifiedjoints) {
+			constraintGraph.addEdge(joint.getBodies(), joint);
+		}
+		contactmanager.restoreContacts(reclassifiedoverlaps);
+
+		// new components are created as active, so wake up the bodies in them
+		Iterator<Constraint> edges = constraintGraph.getConnectedEdges(b);
+		while (edges.hasNext()) {
+			Pair<Body> pair = edges.next().getBodies();
+			policy.activate(pair.getFirst());
+			policy.activate(pair.getSecond());
+		}
+
+		reclassifiedoverlaps.clear();
+		reclassifiedjoints.clear();
 	}
 	
 	@Override
@@ -0,0 +1,505 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.collision.SAP2;
+import jinngine.geometry.Geometry;
+import jinngine.math.Vector3;
+import jinngine.physics.force.Force;
+import jinngine.physics.solver.NonsmoothNonlinearConjugateGradient;
+
+/**
+ * A scene that is divided into a grid of regions in the xz-plane. Each region is a {@link DefaultScene} with its
+ * own broad-phase collision detection, constraint graph and solver, and the regions are ticked in parallel by
+ * a pool of worker threads. Bodies are owned by the region that contains their position, and move to another
+ * region when they cross a region boundary.
+ * <p>
+ * Bodies that are close to a neighbouring region are represented in that region by a ghost body, created by
+ * a user supplied {@link GhostFactory}. Ghosts have the mass of their bodies, and follow their positions and 
+ * velocities. A contact between bodies in two regions is solved in one of the regions only, the one with the 
+ * lowest index, between the body owned by that region and the ghost of the other body. After each time-step, 
+ * the velocity change of each ghost is added to its body, so the contact impulse acts on both bodies and momentum 
+ * is conserved. The ghost of a body is also kept in the lower region as long as the body is near the ghost of a 
+ * body from that region, so a body that only reaches into another region is still solved against.
+ * <p>
+ * The impulses of boundary contacts reach the other body one time-step late, and the two sides of a boundary are
+ * solved separately, so stacks across boundaries are less stable than stacks within a region. Joints must connect
+ * bodies in the same region, and should be added to the scene of that region. Fixed level geometry that spans
+ * several regions should be added directly to the scenes of these regions, see getRegion(). Ghosts never collide
+ * with such geometry, as each body collides with the copy in its own region. The broad-phase of
+ * each region has a pair filter installed by this class, which must not be replaced.
+ */
+public final class PartitionedScene {
+
+	/**
+	 * Creates ghosts, that represent bodies in neighbouring regions
+	 */
+	public interface GhostFactory {
+		/**
+		 * Create a new body with the same geometry and mass as the given body. Geometries cannot be shared between
+		 * bodies, so the ghost must have its own geometry instances.
+		 * @return a new body, or null if the body should not interact with bodies in other regions
+		 */
+		public Body createGhost( Body body );
+	}
+
+	// a region of space with its own scene
+	private final class Region implements Callable<Object> {
+		final int column, row, index;
+		final double minx, minz, maxx, maxz;
+		final Map<Body,Body> ghosts = new HashMap<Body,Body>();
+		final Map<Body,Body> originals = new HashMap<Body,Body>();
+		// ghosts of deactivated bodies
+		final Set<Body> resting = new HashSet<Body>();
+		int bodies = 0;
+
+		// ghosts are deactivated and activated together with their bodies
+		final DeactivationPolicy policy = new DefaultDeactivationPolicy() {
+			@Override
+			public boolean shouldBeDeactivated(Body b) {
+				return originals.containsKey(b)? resting.contains(b) : super.shouldBeDeactivated(b);
+			}
+			@Override
+			public boolean shouldBeActivated(Body b) {
+				return originals.containsKey(b)? !resting.contains(b) : super.shouldBeActivated(b);
+			}
+		};
+
+		final DefaultScene scene = new DefaultScene(new SAP2(), new NonsmoothNonlinearConjugateGradient(45), policy);
+
+		Region( int column, int row ) {
+			this.column = column;
+			this.row = row;
+			index = row*columns+column;
+			minx = origin.x + column*size;
+			minz = origin.z + row*size;
+			maxx = minx + size;
+			maxz = minz + size;
+
+			// a body owned by this region and the ghost of a body from another region only collide if this region 
+			// has the lower index. Ghosts never collide with each other, nor with level geometry added directly to
+			// the scene, because the body already collides with its own copy of that geometry in its region
+			scene.getBroadphase().setPairFilter(new BroadphaseCollisionDetection.PairFilter() {
+				public boolean accept(Geometry a, Geometry b) {
+					final Body first = originals.get(a.getBody()), second = originals.get(b.getBody());
+					if (first == null && second == null)
+						return true;
+					if (first != null && second != null)
+						return false;
+					final Body other = first != null? b.getBody() : a.getBody();
+					if (owners.get(other) != Region.this)
+						return false;
+					final Region owner = owners.get(first != null? first : second);
+					return owner != null && index < owner.index;
+				}
+			});
+		}
+
+		@Override
+		public Object call() {
+			scene.tick();
+			return null;
+		}
+	}
+
+	private final Vector3 origin;
+	private final double size;
+	private final int columns, rows;
+	private final double margin;
+	private final GhostFactory ghostfactory;
+	private final ExecutorService executor;
+	private final boolean ownsexecutor;
+	private final Region[] regions;
+
+	// bodies and their owning regions, and the forces acting on each body
+	private final Map<Body,Region> owners = new HashMap<Body,Region>();
+	private final Map<Body,List<Force>> forces = new HashMap<Body,List<Force>>();
+	private final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+	// buffers
+	private final Vector3 min = new Vector3();
+	private final Vector3 max = new Vector3();
+	private final Vector3 querymin = new Vector3();
+	private final Vector3 querymax = new Vector3();
+	private final List<Geometry> found = new ArrayList<Geometry>();
+
+	/**
+	 * Create a partitioned scene that is ticked using a new ForkJoinPool
+	 * @param origin minimum corner of the grid of regions. Only the x and z coordinates are used
+	 * @param size side length of the square regions
+	 * @param columns number of regions along the x axis
+	 * @param rows number of regions along the z axis
+	 * @param margin a body gets a ghost in a neighbouring region, when its bounding box is closer than this
+	 * distance to the region. The margin should cover the distance travelled by bodies in a time-step
+	 * @param ghostfactory creates ghosts for bodies near region boundaries
+	 */
+	public PartitionedScene( Vector3 origin, double size, int columns, int rows, double margin, GhostFactory ghostfactory ) {
+		this(origin, size, columns, rows, margin, ghostfactory, new ForkJoinPool(), true);
+	}
+
+	/**
+	 * Create a partitioned scene that is ticked using the given executor. The executor is not shut down
+	 * by this object. See {@link #PartitionedScene(Vector3, double, int, int, double, GhostFactory)}
+	 */
+	public PartitionedScene( Vector3 origin, double size, int columns, int rows, double margin, GhostFactory ghostfactory,
+			ExecutorService executor ) {
+		this(origin, size, columns, rows, margin, ghostfactory, executor, false);
+	}
+
+	private PartitionedScene( Vector3 origin, double size, int columns, int rows, double margin, GhostFactory ghostfactory,
+			ExecutorService executor, boolean ownsexecutor ) {
+		if (columns < 1 || rows < 1)
+			throw new IllegalArgumentException("PartitionedScene: there must be at least one region");
+		if (size <= 0 || margin < 0)
+			throw new IllegalArgumentException("PartitionedScene: invalid region size or margin");
+		if (executor == null)
+			throw new IllegalArgumentException("PartitionedScene: executor is null");
+
+		this.origin = new Vector3(origin);
+		this.size = size;
+		this.columns = columns;
+		this.rows = rows;
+		this.margin = margin;
+		this.ghostfactory = ghostfactory;
+		this.executor = executor;
+		this.ownsexecutor = ownsexecutor;
+
+		regions = new Region[columns*rows];
+		for (int j=0; j<rows; j++)
+			for (int i=0; i<columns; i++)
+				regions[j*columns+i] = new Region(i,j);
+	}
+
+	/**
+	 * Get the scene of the region in the given column and row
+	 */
+	public DefaultScene getRegion( int column, int row ) {
+		return regions[row*columns+column].scene;
+	}
+
+	/**
+	 * Get the scene of the region that currently owns the given body, or null if the body is not in this scene
+	 */
+	public DefaultScene getRegion( Body body ) {
+		Region region = owners.get(body);
+		return region != null? region.scene : null;
+	}
+
+	/**
+	 * Set the time-step size of all regions
+	 */
+	public void setTimestep( double dt ) {
+		for (Region region: regions)
+			region.scene.setTimestep(dt);
+	}
+
+	/**
+	 * Add a body to the region that contains its position. Bodies outside the grid belong to the nearest region
+	 */
+	public void addBody( Body body ) {
+		if (owners.containsKey(body))
+			throw new IllegalArgumentException("PartitionedScene: body is already in scene");
+
+		Region region = regionOf(body.state.position);
+		owners.put(body, region);
+		region.scene.addBody(body);
+		region.bodies++;
+		updateGhosts(body, region);
+	}
+
+	/**
+	 * Remove a body, its ghosts, and the forces acting on it
+	 */
+	public void removeBody( Body body ) {
+		Region region = owners.remove(body);
+		if (region == null)
+			return;
+
+		List<Force> bodyforces = forces.remove(body);
+		if (bodyforces != null)
+			for (Force f: bodyforces)
+				region.scene.removeForce(f);
+
+		region.scene.removeBody(body);
+		region.bodies--;
+		removeGhosts(body, region);
+	}
+
+	/**
+	 * Add a force acting on the given body. The force follows the body between regions
+	 */
+	public void addForce( Body body, Force f ) {
+		Region region = owners.get(body);
+		if (region == null)
+			throw new IllegalArgumentException("PartitionedScene: body is not in scene");
+
+		List<Force> bodyforces = forces.get(body);
+		if (bodyforces == null) {
+			bodyforces = new ArrayList<Force>();
+			forces.put(body, bodyforces);
+		}
+		bodyforces.add(f);
+		region.scene.addForce(f);
+	}
+
+	/**
+	 * Remove a force previously added using addForce()
+	 */
+	public void removeForce( Body body, Force f ) {
+		List<Force> bodyforces = forces.get(body);
+		if (bodyforces != null && bodyforces.remove(f))
+			owners.get(body).scene.removeForce(f);
+	}
+
+	/**
+	 * Tick all regions in parallel, and then move bodies between regions and update ghosts
+	 */
+	public void tick() {
+		// step the regions that contain bodies
+		futures.clear();
+		for (Region region: regions)
+			if (region.bodies > 0)
+				futures.add(executor.submit(region));
+
+		// wait for all regions
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (Future<Object> future: futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = e.getCause();
+					break;
+				}
+			}
+		}
+		futures.clear();
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (failure != null)
+			throw new IllegalStateException("PartitionedScene: region failed during time-step", failure);
+
+		// the velocity changes of ghosts are the impulses of boundary contacts, which also act on their bodies
+		for (Region region: regions) {
+			for (Map.Entry<Body,Body> entry: region.ghosts.entrySet()) {
+				final Body body = entry.getKey(), ghost = entry.getValue();
+				if (ghost.deactivated || body.isFixed() || body.isKinematic())
+					continue;
+				if (ghost.deltavelocity.squaredNorm() + ghost.deltaomega.squaredNorm() == 0)
+					continue;
+
+				Vector3.add(body.state.velocity, ghost.deltavelocity);
+				Vector3.add(body.state.omega, ghost.deltaomega);
+				if (body.deactivated)
+					owners.get(body).policy.forceActivate(body);
+			}
+		}
+
+		// exchange bodies across region boundaries
+		for (Map.Entry<Body,Region> entry: owners.entrySet()) {
+			final Body body = entry.getKey();
+			final Region current = entry.getValue();
+			final Region region = regionOf(body.state.position);
+
+			if (region != current) {
+				migrate(body, current, region);
+				entry.setValue(region);
+			}
+
+			updateGhosts(body, region);
+		}
+	}
+
+	/**
+	 * Shut down the worker pool, if it was created by this object
+	 */
+	public void shutdown() {
+		if (ownsexecutor)
+			executor.shutdown();
+	}
+
+	/**
+	 * Move a body and its forces into a new region
+	 */
+	private void migrate( Body body, Region from, Region to ) {
+		List<Force> bodyforces = forces.get(body);
+
+		from.scene.removeBody(body);
+		from.bodies--;
+		if (bodyforces != null)
+			for (Force f: bodyforces)
+				from.scene.removeForce(f);
+
+		// the body takes the place of its ghost. The other ghosts are created again by updateGhosts(), 
+		// because the region that solves the boundary contacts of the body may have changed
+		removeGhosts(body, from);
+
+		to.scene.addBody(body);
+		to.bodies++;
+		if (bodyforces != null)
+			for (Force f: bodyforces)
+				to.scene.addForce(f);
+	}
+
+	/**
+	 * Create, update, or remove the ghosts of a body in the regions neighbouring its owner
+	 */
+	private void updateGhosts( Body body, Region owner ) {
+		if (ghostfactory == null)
+			return;
+
+		bounds(body);
+		for (int j=Math.max(owner.row-1,0); j<=Math.min(owner.row+1,rows-1); j++) {
+			for (int i=Math.max(owner.column-1,0); i<=Math.min(owner.column+1,columns-1); i++) {
+				final Region region = regions[j*columns+i];
+				if (region == owner)
+					continue;
+
+				// is the body near this region, or near a ghost of a body that is solved against in this region
+				final boolean near = min.x-margin < region.maxx && max.x+margin > region.minx
+				                  && min.z-margin < region.maxz && max.z+margin > region.minz
+				                  || region.index < owner.index && nearGhost(owner, region);
+
+				Body ghost = region.ghosts.get(body);
+				if (near) {
+					if (ghost == null) {
+						ghost = ghostfactory.createGhost(body);
+						if (ghost == null)
+							continue;
+						if (body.isKinematic()) {
+							ghost.setKinematic(true);
+						} else if (body.isFixed()) {
+							ghost.setFixed(true);
+						} else if (Math.abs(ghost.getMass()-body.getMass()) > 1e-9*body.getMass()) {
+							throw new IllegalStateException("PartitionedScene: ghost does not have the mass of its body");
+						}
+						follow(ghost, body, region);
+						region.ghosts.put(body, ghost);
+						region.originals.put(ghost, body);
+						region.scene.addBody(ghost);
+						region.bodies++;
+					} else {
+						follow(ghost, body, region);
+					}
+				} else if (ghost != null) {
+					removeGhost(body, region);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Is the body, whose bounds are in min and max, near a ghost in its owner region of a body from the given region
+	 */
+	private boolean nearGhost( Region owner, Region region ) {
+		if (owner.originals.isEmpty())
+			return false;
+
+		querymin.assign(min.x-margin, min.y-margin, min.z-margin);
+		querymax.assign(max.x+margin, max.y+margin, max.z+margin);
+		found.clear();
+		owner.scene.getBroadphase().query(querymin, querymax, found);
+		for (int i=0; i<found.size(); i++) {
+			final Body original = owner.originals.get(found.get(i).getBody());
+			if (original != null && owners.get(original) == region) {
+				found.clear();
+				return true;
+			}
+		}
+		found.clear();
+		return false;
+	}
+
+	/**
+	 * Remove the ghosts of a body from the regions neighbouring the given region
+	 */
+	private void removeGhosts( Body body, Region region ) {
+		for (int j=Math.max(region.row-1,0); j<=Math.min(region.row+1,rows-1); j++)
+			for (int i=Math.max(region.column-1,0); i<=Math.min(region.column+1,columns-1); i++)
+				removeGhost(body, regions[j*columns+i]);
+	}
+
+	private void removeGhost( Body body, Region region ) {
+		if (region.ghosts.isEmpty())
+			return;
+
+		Body ghost = region.ghosts.remove(body);
+		if (ghost != null) {
+			region.originals.remove(ghost);
+			region.resting.remove(ghost);
+			region.scene.removeBody(ghost);
+			region.bodies--;
+		}
+	}
+
+	/**
+	 * Copy the state of a body to its ghost in the given region
+	 */
+	private static void follow( Body ghost, Body body, Region region ) {
+		ghost.state.position.assign(body.state.position);
+		ghost.state.orientation.assign(body.state.orientation);
+		ghost.state.velocity.assign(body.state.velocity);
+		ghost.state.omega.assign(body.state.omega);
+		ghost.updateTransformations();
+
+		if (body.deactivated)
+			region.resting.add(ghost);
+		else
+			region.resting.remove(ghost);
+	}
+
+	/**
+	 * Compute the bounding box of the geometries of a body into min and max
+	 */
+	private void bounds( Body body ) {
+		min.assign(body.state.position);
+		max.assign(body.state.position);
+		Iterator<Geometry> geometries = body.getGeometries();
+		while (geometries.hasNext()) {
+			Geometry g = geometries.next();
+			Vector3 gmin = g.getMinBounds(), gmax = g.getMaxBounds();
+			for (int i=0; i<3; i++) {
+				min.set(i, Math.min(min.get(i), gmin.get(i)));
+				max.set(i, Math.max(max.get(i), gmax.get(i)));
+			}
+		}
+	}
+
+	private Region regionOf( Vector3 position ) {
+		return regions[row(position.z)*columns+column(position.x)];
+	}
+
+	private int column( double x ) {
+		return Math.max(0, Math.min(columns-1, (int)Math.floor((x-origin.x)/size)));
+	}
+
+	private int row( double z ) {
+		return Math.max(0, Math.min(rows-1, (int)Math.floor((z-origin.z)/size)));
+	}
+}
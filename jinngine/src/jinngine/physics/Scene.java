@@ -8,9 +8,11 @@
  */
 package jinngine.physics;
 
+import java.util.Collection;
 import java.util.Iterator;
 
 import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.geometry.Geometry;
 import jinngine.physics.Body;
 import jinngine.physics.constraint.Constraint;
 import jinngine.physics.constraint.contact.ContactConstraintManager;
@@ -47,6 +49,13 @@ public interface Scene {
 	 */
 	public void addBody( Body b );
 	
+	/**
+	 * Add a number of bodies to the scene at once. This is much faster than adding bodies one by 
+	 * one, when loading large scenes
+	 * @param bodies
+	 */
+	public void addBodies( Collection<Body> bodies );
+	
 	/**
 	 * Add a force to the scene
 	 * @param f
@@ -65,6 +74,12 @@ public interface Scene {
 	 */
 	public void removeBody( Body b );
 	
+	/**
+	 * Remove a number of bodies from the scene at once
+	 * @param bodies
+	 */
+	public void removeBodies( Collection<Body> bodies );
+	
 	/** 
 	 * Remove a force from the scene
 	 * @param f
@@ -98,6 +113,17 @@ public interface Scene {
 	 */
 	public void fixBody( Body b, boolean fixed );
 	
+	/**
+	 * Make a body kinematic or dynamic during animation, see {@link Body#setKinematic(boolean)}. 
+	 */
+	public void setKinematic( Body b, boolean kinematic );
+	
+	/**
+	 * Make a geometry a sensor or a normal geometry during animation, see {@link Geometry#setSensor(boolean)}. 
+	 * Contact constraints of the geometry are removed or created accordingly. 
+	 */
+	public void setSensor( Geometry g, boolean sensor );
+	
 	/**
 	 * Add a live constraint. A live constraint is a {@link Constraint} that is controlled by the user
 	 * or some other control mechanism, partly or completely independent of the velocities and forces in the 
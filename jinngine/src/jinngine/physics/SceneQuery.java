@@ -0,0 +1,454 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.collision.GJK;
+import jinngine.collision.RayCast;
+import jinngine.collision.SAP2;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.SupportMap3;
+import jinngine.math.Vector3;
+
+/**
+ * Spatial queries on the geometries of a scene. Candidate geometries are found using the broad-phase
+ * collision detection of the scene, see {@link jinngine.collision.BroadphaseCollisionDetection#query(Vector3, Vector3, List)},
+ * after which exact tests are performed on the candidates. Because the broad-phase may answer queries using
+ * the bounding boxes from the last time-step, queries are meant to be done between calls to Scene.tick().
+ * <p>
+ * Results are written into buffers supplied by the caller, which are reused from query to query. A SceneQuery
+ * instance keeps internal buffers, and must only be used by one thread at a time. Several threads may
+ * query the same scene concurrently, each using its own SceneQuery instance, as long as the scene is not
+ * being ticked or modified meanwhile.
+ */
+public final class SceneQuery {
+
+	/**
+	 * Filter for excluding geometries from query results
+	 */
+	public interface Filter {
+		/**
+		 * @return true if the geometry g should be considered by the query
+		 */
+		public boolean accept(Geometry g);
+	}
+
+	/**
+	 * A ray hit
+	 */
+	public static final class Hit {
+		/** The geometry hit by the ray */
+		public Geometry geometry;
+		/** Ray parameter t at the hit, such that the hit point is point + t direction */
+		public double parameter;
+		/** Hit point on the geometry */
+		public final Vector3 point = new Vector3();
+		/** Unit surface normal of the geometry at the hit point, pointing towards the ray origin */
+		public final Vector3 normal = new Vector3();
+	}
+
+	/**
+	 * A growable buffer of ray hits. Hit instances are reused when the buffer is cleared, so
+	 * a buffer of sufficient size does not allocate anything.
+	 */
+	public static final class HitBuffer {
+		private Hit[] hits;
+		private int size = 0;
+
+		public HitBuffer() {
+			this(16);
+		}
+
+		public HitBuffer( int capacity ) {
+			hits = new Hit[Math.max(capacity,1)];
+			for (int i=0; i<hits.length; i++)
+				hits[i] = new Hit();
+		}
+
+		/** Number of hits in the buffer */
+		public int size() { return size; }
+
+		/** Get the i'th hit */
+		public Hit get( int i ) {
+			if (i<0 || i>=size)
+				throw new IndexOutOfBoundsException("HitBuffer: index " + i + " out of range");
+			return hits[i];
+		}
+
+		/** Remove all hits */
+		public void clear() { size = 0; }
+
+		// obtain a new hit at the end of the buffer
+		private Hit next() {
+			if (size == hits.length) {
+				Hit[] larger = new Hit[hits.length*2];
+				System.arraycopy(hits, 0, larger, 0, hits.length);
+				for (int i=hits.length; i<larger.length; i++)
+					larger[i] = new Hit();
+				hits = larger;
+			}
+			return hits[size++];
+		}
+
+		// sort hits by ray parameter
+		private void sort() {
+			for (int j=1; j<size; j++) {
+				final Hit key = hits[j];
+				int i = j-1;
+				while (i>=0 && hits[i].parameter > key.parameter) {
+					hits[i+1] = hits[i];
+					i--;
+				}
+				hits[i+1] = key;
+			}
+		}
+	}
+
+	private final Scene scene;
+	private final RayCast raycast = new RayCast();
+	private final GJK gjk = new GJK();
+	private double envelope = 0.01;
+	private double epsilon = 1e-7;
+
+	// query buffers
+	private final List<Geometry> candidates = new ArrayList<Geometry>();
+	private double[] entries = new double[16];
+	private final Vector3 min = new Vector3();
+	private final Vector3 max = new Vector3();
+	private final Vector3 pa = new Vector3();
+	private final Vector3 pb = new Vector3();
+	private final Vector3 centre = new Vector3();
+	private final Vector3 shapemin = new Vector3();
+	private final Vector3 shapemax = new Vector3();
+	private final Vector3 axis = new Vector3();
+	private final Vector3 boxmin = new Vector3();
+	private final Vector3 boxmax = new Vector3();
+	private final Vector3 support = new Vector3();
+
+	// support mapping of the centre point of sphere queries
+	private final SupportMap3 centrepoint = new SupportMap3() {
+		@Override
+		public Vector3 supportPoint(Vector3 direction) { return support.assign(centre); }
+		@Override
+		public void supportFeature(Vector3 direction, List<Vector3> face) { face.add(new Vector3(centre)); }
+		@Override
+		public double sphereSweepRadius() { return 0; }
+	};
+
+	/**
+	 * Create a query object for the given scene
+	 */
+	public SceneQuery( Scene scene ) {
+		this.scene = scene;
+	}
+
+	/**
+	 * Set the envelope used in ray casts. A ray is considered to hit a geometry, if it passes within
+	 * this distance of the geometry. A larger envelope gives faster, but less accurate, ray casts.
+	 */
+	public void setRayEnvelope( double envelope ) {
+		this.envelope = envelope;
+	}
+
+	/**
+	 * Find all geometries whose bounding boxes overlap the given axis aligned box
+	 * @param min minimum bounds of the box
+	 * @param max maximum bounds of the box
+	 * @param filter optional filter, can be null
+	 * @param result the overlapping geometries are added to this list
+	 * @return the number of geometries added to result
+	 */
+	public int overlapBox( Vector3 min, Vector3 max, Filter filter, List<Geometry> result ) {
+		candidates.clear();
+		scene.getBroadphase().query(min, max, candidates);
+
+		int count = 0;
+		for (Geometry g: candidates) {
+			if (filter == null || filter.accept(g)) {
+				result.add(g);
+				count++;
+			}
+		}
+		candidates.clear();
+		return count;
+	}
+
+	/**
+	 * Find all geometries that intersect the given sphere. Geometries that are not support mappings
+	 * are tested using their bounding boxes only.
+	 * @param centre centre of the sphere
+	 * @param radius radius of the sphere
+	 * @param filter optional filter, can be null
+	 * @param result the intersecting geometries are added to this list
+	 * @return the number of geometries added to result
+	 */
+	public int overlapSphere( Vector3 centre, double radius, Filter filter, List<Geometry> result ) {
+		min.assign(centre.x-radius, centre.y-radius, centre.z-radius);
+		max.assign(centre.x+radius, centre.y+radius, centre.z+radius);
+		this.centre.assign(centre);
+
+		candidates.clear();
+		scene.getBroadphase().query(min, max, candidates);
+
+		int count = 0;
+		for (Geometry g: candidates) {
+			if (filter != null && !filter.accept(g))
+				continue;
+
+			if (g instanceof SupportMap3) {
+				// distance between the centre and the geometry
+				final SupportMap3 Sb = (SupportMap3)g;
+				final double reach = radius + Sb.sphereSweepRadius();
+				gjk.run(centrepoint, Sb, pa, pb, reach, epsilon, 31);
+				if (!gjk.getState().intersection && pa.sub(pb).norm() > reach)
+					continue;
+			}
+
+			result.add(g);
+			count++;
+		}
+		candidates.clear();
+		return count;
+	}
+
+	/**
+	 * Find the closest geometry hit by the given ray
+	 * @param point starting point of the ray
+	 * @param direction direction of the ray
+	 * @param length maximum ray parameter, can be positive infinity
+	 * @param filter optional filter, can be null
+	 * @param hit receives the closest hit, if any
+	 * @return true if a geometry was hit
+	 */
+	public boolean raycast( Vector3 point, Vector3 direction, double length, Filter filter, Hit hit ) {
+		shapemin.assignZero();
+		shapemax.assignZero();
+		return castClosest(null, point, direction, length, filter, hit);
+	}
+
+	/**
+	 * Sweep a convex shape along a ray, and find the first geometry it hits. This is a ray cast where the ray has
+	 * the volume of the given shape. The resulting hit parameter is the time of impact, such that the shape touches
+	 * the geometry when it is translated by parameter times direction. The normal is the contact normal at the time of
+	 * impact, pointing from the geometry towards the shape.
+	 * @param shape support mapping of the swept shape, given relative to the start point. For instance, a sphere
+	 * swept shape centred at the start point has the origin as its centre
+	 * @param start starting point of the sweep
+	 * @param direction direction of the sweep
+	 * @param length maximum ray parameter, can be positive infinity
+	 * @param filter optional filter, can be null. Use it to exclude the geometries of the moving object itself
+	 * @param hit receives the first hit, if any
+	 * @return true if a geometry was hit
+	 */
+	public boolean shapeCast( SupportMap3 shape, Vector3 start, Vector3 direction, double length, Filter filter, Hit hit ) {
+		// bounds of the shape relative to the start point
+		for (int i=0; i<3; i++) {
+			axis.assignZero();
+			axis.set(i, 1);
+			shapemax.set(i, shape.supportPoint(axis).get(i) + shape.sphereSweepRadius());
+			axis.set(i, -1);
+			shapemin.set(i, shape.supportPoint(axis).get(i) - shape.sphereSweepRadius());
+		}
+		return castClosest(shape, start, direction, length, filter, hit);
+	}
+
+	/**
+	 * Find the closest hit of a ray, optionally with the shape Sc added to it
+	 */
+	private boolean castClosest( SupportMap3 Sc, Vector3 point, Vector3 direction, double length, Filter filter, Hit hit ) {
+		final int n = findRayCandidates(point, direction, length, filter);
+
+		// visit candidates in the order the ray enters their bounding boxes
+		sortCandidates(n);
+
+		double best = length;
+		hit.geometry = null;
+		for (int i=0; i<n; i++) {
+			// no closer hit possible
+			if (entries[i] > best)
+				break;
+
+			final Geometry g = candidates.get(i);
+			final double t = cast(g, Sc, point, direction);
+			if (t <= best) {
+				best = t;
+				record(hit, g, t, direction);
+			}
+		}
+		candidates.clear();
+		return hit.geometry != null;
+	}
+
+	/**
+	 * Find all geometries hit by the given ray. Hits are sorted by increasing ray parameter.
+	 * @param point starting point of the ray
+	 * @param direction direction of the ray
+	 * @param length maximum ray parameter, can be positive infinity
+	 * @param filter optional filter, can be null
+	 * @param hits buffer that receives the hits. The buffer is not cleared by this method
+	 * @return the number of hits added to the buffer
+	 */
+	public int raycastAll( Vector3 point, Vector3 direction, double length, Filter filter, HitBuffer hits ) {
+		shapemin.assignZero();
+		shapemax.assignZero();
+		final int n = findRayCandidates(point, direction, length, filter);
+
+		int count = 0;
+		for (int i=0; i<n; i++) {
+			final Geometry g = candidates.get(i);
+			final double t = cast(g, null, point, direction);
+			if (t <= length) {
+				record(hits.next(), g, t, direction);
+				count++;
+			}
+		}
+
+		hits.sort();
+		candidates.clear();
+		return count;
+	}
+
+	/**
+	 * Cast the ray, optionally with the shape Sc added, against a single geometry
+	 * @return the ray parameter of the hit, or positive infinity
+	 */
+	private double cast( Geometry g, SupportMap3 Sc, Vector3 point, Vector3 direction ) {
+		if (!(g instanceof SupportMap3))
+			return Double.POSITIVE_INFINITY;
+
+		// queries are independent, the result must not depend on the rays cast before
+		raycast.reset();
+		return raycast.run((SupportMap3)g, Sc, point, direction, pb, pa, 0, envelope, epsilon, true);
+	}
+
+	/**
+	 * Store the result of the latest cast in the given hit
+	 */
+	private void record( Hit hit, Geometry g, double t, Vector3 direction ) {
+		hit.geometry = g;
+		hit.parameter = t;
+		hit.point.assign(pb);
+
+		// the normal is the direction from the closest point on the geometry towards the ray
+		hit.normal.assign(pa);
+		Vector3.sub(hit.normal, pb);
+		double norm = hit.normal.norm();
+		if (norm < epsilon) {
+			// ray end-point is right on the surface, use the ray direction instead
+			hit.normal.assign(direction);
+			Vector3.multiply(hit.normal, -1);
+			norm = hit.normal.norm();
+		}
+		Vector3.multiply(hit.normal, 1/norm);
+	}
+
+	/**
+	 * Fill the candidate list with geometries whose bounding boxes are hit by the ray, and compute the
+	 * ray parameter at which each box is entered. The ray is given the volume of the box [shapemin,shapemax],
+	 * which is zero for plain rays.
+	 * @return number of candidates
+	 */
+	private int findRayCandidates( Vector3 point, Vector3 direction, double length, Filter filter ) {
+		// bounding box of the ray segment
+		for (int i=0; i<3; i++) {
+			final double p = point.get(i), d = direction.get(i);
+			final double a, b;
+			if (d == 0) {
+				a = b = p;
+			} else if (Double.isInfinite(length)) {
+				a = d > 0? p : Double.NEGATIVE_INFINITY;
+				b = d > 0? Double.POSITIVE_INFINITY : p;
+			} else {
+				a = Math.min(p, p+d*length);
+				b = Math.max(p, p+d*length);
+			}
+			min.set(i, a + shapemin.get(i));
+			max.set(i, b + shapemax.get(i));
+		}
+
+		final BroadphaseCollisionDetection broadphase = scene.getBroadphase();
+		candidates.clear();
+		broadphase.query(min, max, candidates);
+
+		// filter candidates and do slab tests against their boxes
+		int n = 0;
+		for (int i=0; i<candidates.size(); i++) {
+			final Geometry g = candidates.get(i);
+			if (filter != null && !filter.accept(g))
+				continue;
+
+			// slab test against the box grown by the shape bounds. Prefer the box cached by the broad-phase, 
+			// which is the box the query was done against
+			if (!(broadphase instanceof SAP2 && ((SAP2)broadphase).getBounds(g, boxmin, boxmax))) {
+				boxmin.assign(g.getMinBounds());
+				boxmax.assign(g.getMaxBounds());
+			}
+			Vector3.sub(boxmin, shapemax);
+			Vector3.sub(boxmax, shapemin);
+			final double entry = slab(boxmin, boxmax, point, direction, length);
+			if (entry > length)
+				continue;
+
+			if (n == entries.length) {
+				double[] larger = new double[entries.length*2];
+				System.arraycopy(entries, 0, larger, 0, entries.length);
+				entries = larger;
+			}
+			entries[n] = entry;
+			candidates.set(n, g);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Sort the first n candidates by their entry parameters
+	 */
+	private void sortCandidates( int n ) {
+		for (int j=1; j<n; j++) {
+			final double key = entries[j];
+			final Geometry keygeometry = candidates.get(j);
+			int i = j-1;
+			while (i>=0 && entries[i] > key) {
+				entries[i+1] = entries[i];
+				candidates.set(i+1, candidates.get(i));
+				i--;
+			}
+			entries[i+1] = key;
+			candidates.set(i+1, keygeometry);
+		}
+	}
+
+	/**
+	 * Ray versus axis aligned box slab test
+	 * @return the ray parameter at which the ray enters the box, or positive infinity if the box is missed
+	 */
+	private static double slab( Vector3 bmin, Vector3 bmax, Vector3 point, Vector3 direction, double length ) {
+		double enter = 0, exit = length;
+		for (int i=0; i<3; i++) {
+			final double p = point.get(i), d = direction.get(i);
+			final double lo = bmin.get(i), hi = bmax.get(i);
+			if (d == 0) {
+				if (p < lo || p > hi)
+					return Double.POSITIVE_INFINITY;
+			} else {
+				double t1 = (lo-p)/d, t2 = (hi-p)/d;
+				if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+				enter = Math.max(enter, t1);
+				exit = Math.min(exit, t2);
+				if (enter > exit)
+					return Double.POSITIVE_INFINITY;
+			}
+		}
+		return enter;
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Steps many independent scenes on a shared pool of worker threads. Each scene has its own tick rate,
+ * and is ticked as many times as its rate dictates, whenever the scheduler is advanced in time. Every
+ * scene that is due is submitted to the pool as a separate task, most expensive scene first, which lets
+ * the pool balance unevenly sized scenes over the available cores. By default, a ForkJoinPool is used,
+ * whose idle workers steal queued scenes from busy workers.
+ * <p>
+ * A deadline is missed when the due ticks of a scene are not completed within one tick period of the
+ * scene, counted from the moment the scene was submitted. Step times and missed deadlines are recorded
+ * per scene, see {@link Statistics}.
+ * <p>
+ * Scenes are only ticked from within advance(). Scenes must not be ticked or modified by other threads
+ * while advance() runs, except through thread-safe methods such as {@link DefaultScene#queueCommand(Runnable)}.
+ * The scheduler itself is not thread safe, and should be driven by a single thread.
+ */
+public final class SceneScheduler {
+
+	/**
+	 * Step time statistics for a scene. Values are updated by the worker threads, and are
+	 * consistent when read by the thread calling advance(), after advance() has returned.
+	 */
+	public static final class Statistics {
+		private long ticks = 0;
+		private long totalnanos = 0;
+		private long lastnanos = 0;
+		private long maxnanos = 0;
+		private long misseddeadlines = 0;
+		private long skippedticks = 0;
+
+		/** Total number of ticks performed */
+		public long getTicks() { return ticks; }
+		/** Time spent in the latest tick, in seconds */
+		public double getLastStepTime() { return lastnanos*1e-9; }
+		/** Longest time spent in a single tick, in seconds */
+		public double getMaximumStepTime() { return maxnanos*1e-9; }
+		/** Mean time spent in a tick, in seconds */
+		public double getMeanStepTime() { return ticks>0? (totalnanos*1e-9)/ticks : 0; }
+		/** Number of times the scene did not complete its due ticks within a tick period */
+		public long getMissedDeadlines() { return misseddeadlines; }
+		/** Number of ticks dropped, because the scene fell too far behind */
+		public long getSkippedTicks() { return skippedticks; }
+
+		/** Reset all counters */
+		public void reset() {
+			ticks = totalnanos = lastnanos = maxnanos = misseddeadlines = skippedticks = 0;
+		}
+	}
+
+	// a scheduled scene
+	private final class Entry implements Callable<Object> {
+		final Scene scene;
+		final Statistics statistics = new Statistics();
+		double period;
+		double accumulated = 0;
+		int due = 0;
+		long submitted = 0;
+
+		Entry(Scene scene, double period) {
+			this.scene = scene;
+			this.period = period;
+		}
+
+		@Override
+		public Object call() {
+			for (int i=0; i<due; i++) {
+				long start = System.nanoTime();
+				scene.tick();
+				long time = System.nanoTime() - start;
+
+				statistics.ticks++;
+				statistics.totalnanos += time;
+				statistics.lastnanos = time;
+				statistics.maxnanos = Math.max(statistics.maxnanos, time);
+			}
+
+			if ((System.nanoTime() - submitted)*1e-9 > period)
+				statistics.misseddeadlines++;
+
+			return null;
+		}
+	}
+
+	private final ExecutorService executor;
+	private final boolean ownsexecutor;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final Map<Scene,Entry> lookup = new IdentityHashMap<Scene,Entry>();
+	private final List<Entry> dueentries = new ArrayList<Entry>();
+	private final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+	private int maximumticks = 5;
+
+	// run the most expensive scenes first
+	private final Comparator<Entry> costliestfirst = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			double ca = a.statistics.lastnanos*(double)a.due;
+			double cb = b.statistics.lastnanos*(double)b.due;
+			return ca > cb? -1 : (ca < cb? 1 : 0);
+		}
+	};
+
+	/**
+	 * Create a scheduler using a new ForkJoinPool with one worker per available processor
+	 */
+	public SceneScheduler() {
+		this.executor = new ForkJoinPool();
+		this.ownsexecutor = true;
+	}
+
+	/**
+	 * Create a scheduler that uses the given executor. The executor is not shut down by this scheduler.
+	 */
+	public SceneScheduler( ExecutorService executor ) {
+		if (executor == null)
+			throw new IllegalArgumentException("SceneScheduler: executor is null");
+		this.executor = executor;
+		this.ownsexecutor = false;
+	}
+
+	/**
+	 * Add a scene, ticked at the rate given by its time-step size. A scene with a time-step of 0.01
+	 * is ticked 100 times for each second the scheduler is advanced.
+	 */
+	public void addScene( Scene scene ) {
+		addScene(scene, 1.0/scene.getTimestep());
+	}
+
+	/**
+	 * Add a scene, ticked at the given rate
+	 * @param scene the scene
+	 * @param rate number of ticks per second
+	 */
+	public void addScene( Scene scene, double rate ) {
+		if (lookup.containsKey(scene))
+			throw new IllegalArgumentException("SceneScheduler: scene is already scheduled");
+		if (!(rate > 0))
+			throw new IllegalArgumentException("SceneScheduler: tick rate must be positive");
+
+		Entry entry = new Entry(scene, 1.0/rate);
+		entries.add(entry);
+		lookup.put(scene, entry);
+	}
+
+	/**
+	 * Remove a scene from this scheduler
+	 */
+	public void removeScene( Scene scene ) {
+		Entry entry = lookup.remove(scene);
+		if (entry != null)
+			entries.remove(entry);
+	}
+
+	/**
+	 * Change the tick rate of a scheduled scene
+	 * @param rate number of ticks per second
+	 */
+	public void setTickRate( Scene scene, double rate ) {
+		if (!(rate > 0))
+			throw new IllegalArgumentException("SceneScheduler: tick rate must be positive");
+		getEntry(scene).period = 1.0/rate;
+	}
+
+	/**
+	 * Get the step time statistics of a scheduled scene
+	 */
+	public Statistics getStatistics( Scene scene ) {
+		return getEntry(scene).statistics;
+	}
+
+	/**
+	 * Set the maximum number of ticks a scene can perform during a single call to advance(). Scenes
+	 * that fall further behind drop the remaining ticks, rather than trying to catch up.
+	 */
+	public void setMaximumTicksPerAdvance( int n ) {
+		if (n < 1)
+			throw new IllegalArgumentException("SceneScheduler: maximum ticks must be at least one");
+		this.maximumticks = n;
+	}
+
+	/**
+	 * Advance all scenes by the given amount of time. Each scene is ticked the number of times its rate
+	 * dictates, and this method returns when all ticks have been performed. If a scene throws an
+	 * exception, the remaining scenes are still completed, after which an IllegalStateException
+	 * is thrown, having the first exception as its cause.
+	 * @param elapsed time in seconds
+	 */
+	public void advance( double elapsed ) {
+		// find scenes that are due
+		dueentries.clear();
+		for (Entry entry: entries) {
+			entry.accumulated += elapsed;
+			int due = (int)Math.floor(entry.accumulated/entry.period);
+			entry.accumulated -= due*entry.period;
+
+			if (due > maximumticks) {
+				entry.statistics.skippedticks += due - maximumticks;
+				due = maximumticks;
+			}
+
+			entry.due = due;
+			if (due > 0)
+				dueentries.add(entry);
+		}
+
+		// submit the most expensive scenes first, so cheap scenes fill in the gaps at the end
+		Collections.sort(dueentries, costliestfirst);
+		futures.clear();
+		for (Entry entry: dueentries) {
+			entry.submitted = System.nanoTime();
+			futures.add(executor.submit(entry));
+		}
+
+		// wait for all scenes
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (Future<Object> future: futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = e.getCause();
+					break;
+				}
+			}
+		}
+
+		futures.clear();
+		dueentries.clear();
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (failure != null)
+			throw new IllegalStateException("SceneScheduler: scene failed during tick", failure);
+	}
+
+	/**
+	 * Shut down the worker pool, if it was created by this scheduler
+	 */
+	public void shutdown() {
+		if (ownsexecutor)
+			executor.shutdown();
+	}
+
+	private Entry getEntry( Scene scene ) {
+		Entry entry = lookup.get(scene);
+		if (entry == null)
+			throw new IllegalArgumentException("SceneScheduler: scene is not scheduled");
+		return entry;
+	}
+}
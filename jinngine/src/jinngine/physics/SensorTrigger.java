@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.collision.GJK;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.SupportMap3;
+import jinngine.math.Vector3;
+import jinngine.util.Pair;
+
+/**
+ * Reports geometries entering and leaving sensor geometries, see {@link Geometry#setSensor(boolean)}. A single
+ * SensorTrigger monitors all sensors in a scene. Overlaps are taken directly from the broad-phase collision detection,
+ * so sensors never create contact constraints, never join the constraint graph, and never activate bodies.
+ * <p>
+ * Without confirmation, a geometry is inside a sensor when their bounding boxes overlap. With confirmation,
+ * bounding box overlaps are only candidates, and GJK is used in each time-step to determine whether candidates
+ * actually intersect. Confirmation only applies to support mapped geometries.
+ * <p>
+ * Events are delivered from update(), after the constraints of the time-step have been solved. Overlaps between
+ * two sensors, and between geometries of the same body, are ignored.
+ */
+public class SensorTrigger implements Trigger {
+
+	// interface for callback from this trigger type
+	public interface Callback {
+		/**
+		 * The geometry other has entered the sensor
+		 */
+		public void enter( Geometry sensor, Geometry other );
+
+		/**
+		 * The geometry other has left the sensor
+		 */
+		public void exit( Geometry sensor, Geometry other );
+	}
+
+	// a sensor and a geometry with overlapping bounding boxes
+	private static final class Candidate {
+		final Geometry sensor;
+		final Geometry other;
+		boolean inside = false;
+		boolean removed = false;
+		GJK gjk = null;
+		Candidate( Geometry sensor, Geometry other ) {
+			this.sensor = sensor;
+			this.other = other;
+		}
+	}
+
+	private final Callback callback;
+	private final boolean confirm;
+	private final double epsilon = 1e-7;
+
+	// candidates by broad-phase pair, new candidates since the last update, and candidates that were
+	// inside when their bounding boxes separated
+	private final Map<Pair<Geometry>,Candidate> candidates = new LinkedHashMap<Pair<Geometry>,Candidate>();
+	private final List<Candidate> fresh = new ArrayList<Candidate>();
+	private final List<Candidate> leaving = new ArrayList<Candidate>();
+
+	// handler installed in the broad-phase
+	private final BroadphaseCollisionDetection.Handler handler = new BroadphaseCollisionDetection.Handler() {
+		@Override
+		public void overlap(Pair<Geometry> pair) {
+			final Geometry a = pair.getFirst(), b = pair.getSecond();
+			if (a.isSensor() == b.isSensor() || a.getBody() == b.getBody())
+				return;
+
+			Candidate candidate = a.isSensor()? new Candidate(a,b) : new Candidate(b,a);
+			candidates.put(pair, candidate);
+			fresh.add(candidate);
+		}
+		@Override
+		public void separation(Pair<Geometry> pair) {
+			Candidate candidate = candidates.remove(pair);
+			if (candidate != null) {
+				candidate.removed = true;
+				if (candidate.inside)
+					leaving.add(candidate);
+			}
+		}
+	};
+
+	private BroadphaseCollisionDetection broadphase;
+	private final Vector3 pa = new Vector3();
+	private final Vector3 pb = new Vector3();
+
+	/**
+	 * Create a sensor trigger
+	 * @param callback receives enter and exit events
+	 * @param confirm if true, use GJK to confirm that bounding box overlaps are actual intersections
+	 */
+	public SensorTrigger( Callback callback, boolean confirm ) {
+		this.callback = callback;
+		this.confirm = confirm;
+	}
+
+	@Override
+	public void setup(Scene scene) {
+		broadphase = scene.getBroadphase();
+
+		// existing overlaps
+		for (Pair<Geometry> pair: broadphase.getOverlappingPairs())
+			handler.overlap(pair);
+
+		broadphase.addHandler(handler);
+	}
+
+	@Override
+	public void update(Scene scene) {
+		// geometries that left
+		for (Candidate candidate: leaving)
+			callback.exit(candidate.sensor, candidate.other);
+		leaving.clear();
+
+		if (confirm) {
+			// test every candidate
+			for (Candidate candidate: candidates.values()) {
+				final boolean inside = intersects(candidate);
+				if (inside != candidate.inside) {
+					candidate.inside = inside;
+					if (inside)
+						callback.enter(candidate.sensor, candidate.other);
+					else
+						callback.exit(candidate.sensor, candidate.other);
+				}
+			}
+		} else {
+			// bounding box overlap is enough
+			for (Candidate candidate: fresh) {
+				// candidates that appeared and vanished again are not reported
+				if (!candidate.inside && !candidate.removed) {
+					candidate.inside = true;
+					callback.enter(candidate.sensor, candidate.other);
+				}
+			}
+		}
+		fresh.clear();
+	}
+
+	@Override
+	public void cleanup(Scene scene) {
+		broadphase.removeHandler(handler);
+		candidates.clear();
+		fresh.clear();
+		leaving.clear();
+	}
+
+	/**
+	 * Return an iterator over the geometries currently inside the given sensor
+	 */
+	public Iterator<Geometry> getGeometriesInside( Geometry sensor ) {
+		List<Geometry> inside = new ArrayList<Geometry>();
+		for (Candidate candidate: candidates.values())
+			if (candidate.sensor == sensor && candidate.inside)
+				inside.add(candidate.other);
+		return inside.iterator();
+	}
+
+	private boolean intersects( Candidate candidate ) {
+		if (!(candidate.sensor instanceof SupportMap3 && candidate.other instanceof SupportMap3))
+			return true;
+
+		if (candidate.gjk == null)
+			candidate.gjk = new GJK();
+
+		final SupportMap3 Sa = (SupportMap3)candidate.sensor, Sb = (SupportMap3)candidate.other;
+		final double radius = Sa.sphereSweepRadius() + Sb.sphereSweepRadius();
+		candidate.gjk.run(Sa, Sb, pa, pb, radius, epsilon, 31);
+		return candidate.gjk.getState().intersection || pa.sub(pb).norm() <= radius;
+	}
+}
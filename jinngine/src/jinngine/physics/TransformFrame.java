@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jinngine.math.Matrix4;
+import jinngine.math.Quaternion;
+import jinngine.math.Vector3;
+
+/**
+ * A complete copy of the positions, orientations and velocities of all bodies in a scene, taken at the
+ * end of a time-step. Frames are published by {@link DefaultScene} and can be read from any thread without
+ * locking. A frame is obtained using {@link DefaultScene#acquireTransformFrame()}, and must be handed back
+ * using release() when the reader is done with it. While acquired, the contents of a frame will never
+ * change. Frames are recycled by the scene, so a frame must not be used after it has been released.
+ */
+public final class TransformFrame {
+	// number of readers holding this frame, or -1 while the frame is being written
+	private final AtomicInteger readers = new AtomicInteger(0);
+
+	// time-step number of this frame
+	private long tick = 0;
+
+	// number of bodies and body data, stored as consecutive values
+	private int size = 0;
+	private Body[] bodies = new Body[0];
+	private double[] positions = new double[0];
+	private double[] orientations = new double[0];
+	private double[] velocities = new double[0];
+	private double[] omegas = new double[0];
+
+	TransformFrame() {}
+
+	/**
+	 * Try to claim this frame for writing. Succeeds only if no readers hold the frame
+	 */
+	final boolean claim() {
+		return readers.compareAndSet(0, -1);
+	}
+
+	/**
+	 * Copy the current state of the given bodies into this frame. The frame must be claimed.
+	 */
+	final void assign( List<Body> list, long tick ) {
+		final int n = list.size();
+		if (bodies.length < n) {
+			// grow with some extra space
+			final int capacity = n + n/2 + 1;
+			bodies = new Body[capacity];
+			positions = new double[capacity*3];
+			orientations = new double[capacity*4];
+			velocities = new double[capacity*3];
+			omegas = new double[capacity*3];
+		}
+
+		for (int i=0; i<n; i++) {
+			final Body b = list.get(i);
+			final State s = b.state;
+			bodies[i] = b;
+			positions[i*3+0] = s.position.x; positions[i*3+1] = s.position.y; positions[i*3+2] = s.position.z;
+			orientations[i*4+0] = s.orientation.s;
+			orientations[i*4+1] = s.orientation.v.x; orientations[i*4+2] = s.orientation.v.y; orientations[i*4+3] = s.orientation.v.z;
+			velocities[i*3+0] = s.velocity.x; velocities[i*3+1] = s.velocity.y; velocities[i*3+2] = s.velocity.z;
+			omegas[i*3+0] = s.omega.x; omegas[i*3+1] = s.omega.y; omegas[i*3+2] = s.omega.z;
+		}
+
+		// do not keep removed bodies alive
+		for (int i=n; i<size; i++)
+			bodies[i] = null;
+
+		this.size = n;
+		this.tick = tick;
+	}
+
+	/**
+	 * Make the frame available to readers. The frame must be claimed.
+	 */
+	final void publish() {
+		readers.set(0);
+	}
+
+	/**
+	 * Try to register a reader. Fails if the frame is being written
+	 */
+	final boolean acquire() {
+		while (true) {
+			final int n = readers.get();
+			if (n < 0)
+				return false;
+			if (readers.compareAndSet(n, n+1))
+				return true;
+		}
+	}
+
+	/**
+	 * Hand this frame back to the scene. The frame must not be accessed after this call.
+	 */
+	public final void release() {
+		if (readers.decrementAndGet() < 0)
+			throw new IllegalStateException("TransformFrame: frame released more times than acquired");
+	}
+
+	/**
+	 * Get the number of the time-step at the end of which this frame was taken
+	 */
+	public final long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Get the number of bodies in this frame. Bodies are in the same order as in the scene
+	 */
+	public final int getNumberOfBodies() {
+		return size;
+	}
+
+	/**
+	 * Get the i'th body in this frame
+	 */
+	public final Body getBody( int i ) {
+		check(i);
+		return bodies[i];
+	}
+
+	/**
+	 * Get the position of the i'th body
+	 * @return the result vector
+	 */
+	public final Vector3 getPosition( int i, Vector3 result ) {
+		check(i);
+		return result.assign(positions[i*3+0], positions[i*3+1], positions[i*3+2]);
+	}
+
+	/**
+	 * Get the orientation of the i'th body
+	 * @return the result quaternion
+	 */
+	public final Quaternion getOrientation( int i, Quaternion result ) {
+		check(i);
+		result.s = orientations[i*4+0];
+		result.v.assign(orientations[i*4+1], orientations[i*4+2], orientations[i*4+3]);
+		return result;
+	}
+
+	/**
+	 * Get the linear velocity of the i'th body
+	 * @return the result vector
+	 */
+	public final Vector3 getVelocity( int i, Vector3 result ) {
+		check(i);
+		return result.assign(velocities[i*3+0], velocities[i*3+1], velocities[i*3+2]);
+	}
+
+	/**
+	 * Get the angular velocity of the i'th body
+	 * @return the result vector
+	 */
+	public final Vector3 getAngularVelocity( int i, Vector3 result ) {
+		check(i);
+		return result.assign(omegas[i*3+0], omegas[i*3+1], omegas[i*3+2]);
+	}
+
+	/**
+	 * Get the 4 by 4 rigid transform of the i'th body, see {@link Body#getTransform()}
+	 * @return the result matrix
+	 */
+	public final Matrix4 getTransform( int i, Matrix4 M ) {
+		check(i);
+		final double s = orientations[i*4+0];
+		final double x = orientations[i*4+1], y = orientations[i*4+2], z = orientations[i*4+3];
+		M.a11 = 1-2*(y*y+z*z); M.a12 = 2*x*y-2*s*z;     M.a13 = 2*s*y+2*x*z;     M.a14 = positions[i*3+0];
+		M.a21 = 2*x*y+2*s*z;   M.a22 = 1-2*(x*x+z*z);   M.a23 = -2*s*x+2*y*z;    M.a24 = positions[i*3+1];
+		M.a31 = -2*s*y+2*x*z;  M.a32 = 2*s*x+2*y*z;     M.a33 = 1-2*(x*x+y*y);   M.a34 = positions[i*3+2];
+		M.a41 = 0;             M.a42 = 0;               M.a43 = 0;               M.a44 = 1;
+		return M;
+	}
+
+	private final void check( int i ) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("TransformFrame: body index " + i + " out of range");
+	}
+}
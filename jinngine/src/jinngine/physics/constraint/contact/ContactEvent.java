@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available 
+ * at http://www.gnu.org/copyleft/gpl.html. 
+ */
+package jinngine.physics.constraint.contact;
+
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+
+/**
+ * A change or continuation of contact between two bodies during a time-step. Contact events are 
+ * reused from time-step to time-step, see {@link ContactEventBuffer}, and must not be retained by the user.
+ */
+public final class ContactEvent {
+	/** The bodies started touching in this time-step */
+	public static final int BEGIN = 0;
+	/** The bodies were touching in the last time-step, and still are */
+	public static final int PERSIST = 1;
+	/** The bodies stopped touching in this time-step */
+	public static final int END = 2;
+	
+	/** Type of event, one of BEGIN, PERSIST, or END */
+	public int type;
+	
+	/** The bodies in contact, in the order of the contact constraint */
+	public Body body1, body2;
+	
+	/** The contact constraint between the bodies */
+	public ContactConstraint constraint;
+	
+	/** Total normal impulse applied by the contact in this time-step. Zero for END events */
+	public double impulse;
+	
+	/** Contact point in world space, weighted by the normal impulse of each contact point. Zero for END events */
+	public final Vector3 point = new Vector3();
+	
+	/** Unit contact normal in world space, pointing from body2 towards body1. Zero for END events */
+	public final Vector3 normal = new Vector3();
+	
+	@Override
+	public String toString() {
+		return (type==BEGIN?"begin":(type==PERSIST?"persist":"end")) + " " + body1 + " " + body2 + " impulse=" + impulse;
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available 
+ * at http://www.gnu.org/copyleft/gpl.html. 
+ */
+package jinngine.physics.constraint.contact;
+
+/**
+ * A growable buffer of contact events. Event instances are reused when the buffer is cleared, so
+ * once the buffer has grown to a sufficient size, filling it does not allocate anything.
+ */
+public final class ContactEventBuffer {
+	private ContactEvent[] events = new ContactEvent[64];
+	private int size = 0;
+	
+	public ContactEventBuffer() {
+		for (int i=0; i<events.length; i++)
+			events[i] = new ContactEvent();
+	}
+
+	/** Number of events in the buffer */
+	public int size() { return size; }
+
+	/** Get the i'th event */
+	public ContactEvent get( int i ) {
+		if (i<0 || i>=size)
+			throw new IndexOutOfBoundsException("ContactEventBuffer: index " + i + " out of range");
+		return events[i];
+	}
+
+	/** Remove all events */
+	public void clear() { size = 0; }
+
+	/** Obtain a new event at the end of the buffer */
+	ContactEvent next() {
+		if (size == events.length) {
+			ContactEvent[] larger = new ContactEvent[events.length*2];
+			System.arraycopy(events, 0, larger, 0, events.length);
+			for (int i=events.length; i<larger.length; i++)
+				larger[i] = new ContactEvent();
+			events = larger;
+		}
+		return events[size++];
+	}
+}
@@ -9,23 +9,34 @@
 package jinngine.physics.constraint.contact;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import jinngine.physics.*;
 import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.geometry.Box;
 import jinngine.geometry.Geometry;
 import jinngine.geometry.SupportMap3;
+import jinngine.geometry.UniformCapsule;
+import jinngine.geometry.contact.CapsuleBoxContactGenerator;
+import jinngine.geometry.contact.CapsuleContactGenerator;
 import jinngine.geometry.contact.ContactGenerator;
 import jinngine.geometry.contact.ContactGeneratorClassifier;
+import jinngine.geometry.contact.ContactGeneratorTable;
 import jinngine.geometry.contact.SphereContactGenerator;
 import jinngine.geometry.contact.SupportMapContactGenerator;
 import jinngine.geometry.contact.SupportMapSphereContactGenerator;
+import jinngine.math.Vector3;
 import jinngine.physics.constraint.Constraint;
 import jinngine.physics.constraint.contact.ContactConstraint;
 import jinngine.physics.constraint.contact.ContactConstraintCreator;
 import jinngine.physics.constraint.contact.FrictionalContactConstraint;
+import jinngine.physics.solver.Solver.NCPConstraint;
 import jinngine.util.ComponentGraph;
 import jinngine.util.Pair;
 
@@ -41,8 +52,41 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 	// the broad phase collision handler installed by this contact constraint manager
 	private final BroadphaseCollisionDetection.Handler handler;
 	
-	// list of geometry classifiers
+	// list of geometry classifiers, and the table that dispatches pairs of geometry classes to them
 	private final List<ContactGeneratorClassifier> geometryClassifiers = new ArrayList<ContactGeneratorClassifier>();
+	private final ContactGeneratorTable generatorTable = new ContactGeneratorTable(geometryClassifiers);
+	// number of classifiers added by the user, at the front of the list
+	private int userclassifiers = 0;
+	
+	// generators of recently separated geometry pairs, kept for reuse if the pairs overlap again. The
+	// least recently separated generators are discarded when the cache is full. Generators may fix the
+	// envelopes and the classifier when created, so these are recorded to tell if a generator is still valid
+	private static final class RecycledGenerator {
+		final Pair<Geometry> pair;
+		final ContactGenerator generator;
+		final double envelopea, envelopeb;
+		final int revision;
+		RecycledGenerator( Pair<Geometry> pair, ContactGenerator generator, int revision ) {
+			this.pair = pair;
+			this.generator = generator;
+			this.envelopea = pair.getFirst().getEnvelope();
+			this.envelopeb = pair.getSecond().getEnvelope();
+			this.revision = revision;
+		}
+	}
+	private final Map<ContactGenerator,RecycledGenerator> created = new IdentityHashMap<ContactGenerator,RecycledGenerator>();
+	private int recycledLimit = 256;
+	private final Map<Pair<Geometry>,RecycledGenerator> recycled = new LinkedHashMap<Pair<Geometry>,RecycledGenerator>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Pair<Geometry>,RecycledGenerator> eldest) {
+			if (size() > recycledLimit) {
+				eldest.getValue().generator.remove();
+				return true;
+			}
+			return false;
+		}
+	};
 
 	// list of contact constraint creators
 	private final List<ContactConstraintCreator> contactConstraintCreators = new ArrayList<ContactConstraintCreator>();
@@ -51,13 +95,28 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 	private final Map<Pair<Body>,ContactConstraint> contactConstraints = new LinkedHashMap<Pair<Body>,ContactConstraint>();
 	private final Map<Pair<Geometry>,ContactGenerator> contactGenerators = new LinkedHashMap<Pair<Geometry>,ContactGenerator>();
 		
+	// contact events. Constraints whose bodies were touching in the last time-step, and removed 
+	// constraints that were touching when they were removed
+	private boolean contactevents = false;
+	private final ContactEventBuffer events = new ContactEventBuffer();
+	private final Set<ContactConstraint> touching = new HashSet<ContactConstraint>();
+	private final List<ContactConstraint> ended = new ArrayList<ContactConstraint>();
+	private final List<NCPConstraint> normalrows = new ArrayList<NCPConstraint>();
+	
 	// the constraint graph to be updated by this contact constraint manager
 	private final ComponentGraph<Body,Constraint, DefaultScene.ConstraintGroup> constraintGraph;
 
+	// speculative contacts and split impulses for new constraints of the default creator
+	private boolean speculative = false;
+	private boolean splitimpulse = false;
+
 	// the default contact constraint creator
 	private final ContactConstraintCreator defaultcreator = new ContactConstraintCreator() {
 		public final ContactConstraint createContactConstraint(Body b1, Body b2, ContactGenerator g) {
-			return new FrictionalContactConstraint(b1,b2,g);
+			final FrictionalContactConstraint constraint = new FrictionalContactConstraint(b1,b2,g);
+			constraint.setSpeculative(speculative);
+			constraint.setSplitImpulse(splitimpulse);
+			return constraint;
 //			return new SimplifiedContactConstraint(b1,b2,g);
 //			return new StabilisationContactConstraint(b1,b2,g);
 //			return new BaumgardeContactConstraint(b1,b2,g);
@@ -89,6 +148,8 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 					if ( b1 == null || b2 == null) return;
 					//ignore overlaps of fixed bodies
 					if ( b1.isFixed() && b2.isFixed() ) return;
+					//sensors never generate contacts, see SensorTrigger
+					if ( inputpair.getFirst().isSensor() || inputpair.getSecond().isSensor() ) return;
 					
 					//always order bodies and geometries the same way, so that normals 
 					//will be pointing the right direction
@@ -177,6 +238,10 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 					if ( a == null || b == null) return;
 					//ignore overlaps of fixed bodies
 					if ( a.isFixed() && b.isFixed() ) return;
+					//sensors are not ignored right away. A geometry may have become a sensor after its contact was
+					//created, and the contact must still be removed. Sensor pairs without a generator never had one
+					if ( !contactGenerators.containsKey(geometrypair) 
+							&& (geometrypair.getFirst().isSensor() || geometrypair.getSecond().isSensor()) ) return;
 					
 					//if this geometry pair has an acting contact constraint,
 					//we must remove the contact generator
@@ -188,12 +253,16 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 							ContactConstraint constraint = contactConstraints.get(bodypair);
 							ContactGenerator cg = contactGenerators.get(geometrypair);
 							
-							//notify contact generator (for possible clean-up)
-							cg.remove();
-							
 							// remove from contact constraint
 							constraint.removeGenerator(cg);
 							
+							// keep the generator for reuse, in the order of the contact constraint
+							if (constraint.getBodies().getFirst() == geometrypair.getFirst().getBody()) {
+								recycle(geometrypair, cg);
+							} else {
+								recycle(new Pair<Geometry>(geometrypair.getSecond(), geometrypair.getFirst()), cg);
+							}
+							
 							//remove the generator from our list
 							contactGenerators.remove(geometrypair);
 
@@ -203,6 +272,10 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 								contactConstraints.remove(bodypair);
 								constraintGraph.removeEdge(bodypair);	
 								
+								// report the end of the contact in the next contact events
+								if (touching.remove(constraint))
+									ended.add(constraint);
+								
 								// signal event handlers
 								for (Handler h: handlers) {
 									h.contactConstraintRemoved(bodypair, constraint);
@@ -272,6 +345,22 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 			}
 		});
 
+		// analytic generators for capsules and boxes, registered directly for their pairs of classes
+		generatorTable.register(UniformCapsule.class, UniformCapsule.class, new ContactGeneratorClassifier() {
+			public final ContactGenerator getGenerator(Geometry a, Geometry b) {
+				return new CapsuleContactGenerator((UniformCapsule)a, (UniformCapsule)b);
+			}
+		});
+		generatorTable.register(UniformCapsule.class, Box.class, new ContactGeneratorClassifier() {
+			public final ContactGenerator getGenerator(Geometry a, Geometry b) {
+				return new CapsuleBoxContactGenerator((UniformCapsule)a, (Box)b);
+			}
+		});
+		generatorTable.register(Box.class, UniformCapsule.class, new ContactGeneratorClassifier() {
+			public final ContactGenerator getGenerator(Geometry a, Geometry b) {
+				return new CapsuleBoxContactGenerator((Box)a, (UniformCapsule)b);
+			}
+		});
 	}
 	
 	/**
@@ -281,7 +370,35 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 	public void removeBroadphaseHandler() {
 		broadphase.removeHandler(handler);
 	}
-	
+
+	/**
+	 * Remove all contact constraints acting on the given body, as if its geometries had separated from
+	 * all other geometries. The overlapping geometry pairs of the body are added to the given list. This
+	 * is used when the fixed or kinematic setting of a body changes, which changes whether its overlaps
+	 * give contact constraints, see restoreContacts().
+	 */
+	public void releaseContacts( Body body, List<Pair<Geometry>> overlaps ) {
+		for (Pair<Geometry> pair: broadphase.getOverlappingPairs()) {
+			if (pair.getFirst().getBody() == body || pair.getSecond().getBody() == body) {
+				overlaps.add(pair);
+			}
+		}
+
+		for (Pair<Geometry> pair: overlaps) {
+			handler.separation(pair);
+		}
+	}
+
+	/**
+	 * Create contact constraints for the given overlapping geometry pairs, previously obtained from
+	 * releaseContacts()
+	 */
+	public void restoreContacts( List<Pair<Geometry>> overlaps ) {
+		for (Pair<Geometry> pair: overlaps) {
+			handler.overlap(pair);
+		}
+	}
+
 	/**
 	 * Add a new ContactConstraintCreator
 	 */
@@ -297,15 +414,225 @@ public class DefaultContactConstraintManager implements ContactConstraintManager
 		contactConstraintCreators.remove(c);
 	}
 	
+	/**
+	 * Add a classifier, that takes precedence over the existing classifiers, including the classifiers registered 
+	 * for built-in pairs such as capsules. Classifiers must decide by the classes of the geometries alone, see 
+	 * {@link ContactGeneratorTable}
+	 */
+	public final void addContactGeneratorClassifier( ContactGeneratorClassifier c ) {
+		geometryClassifiers.add(0, c);
+		generatorTable.setPrecedence(++userclassifiers);
+		
+		// kept generators may no longer be the ones the classifiers would choose
+		for (RecycledGenerator r: recycled.values())
+			r.generator.remove();
+		recycled.clear();
+	}
+	
+	/**
+	 * Get the table used for choosing contact generators for pairs of geometries. Specialised contact 
+	 * generators for pairs of geometry classes can be registered in this table directly. Classifiers added 
+	 * using addContactGeneratorClassifier() take precedence over registered classifiers
+	 */
+	public final ContactGeneratorTable getContactGeneratorTable() {
+		return generatorTable;
+	}
+	
+	/**
+	 * Set the maximum number of generators of separated geometry pairs, that are kept for reuse in case the 
+	 * pairs overlap again. The default is 256
+	 */
+	public final void setGeneratorCacheSize( int size ) {
+		recycledLimit = size;
+		
+		// discard the least recently separated generators
+		Iterator<RecycledGenerator> i = recycled.values().iterator();
+		while (recycled.size() > recycledLimit && i.hasNext()) {
+			i.next().generator.remove();
+			i.remove();
+		}
+	}
+	
+	/**
+	 * Discard the generators kept for reuse, that belong to geometries of the given bodies. This is called when
+	 * bodies are removed from the scene, after their contact constraints are removed, so that the cache does 
+	 * not hold on to removed geometries
+	 */
+	public void removeBodies( Set<Body> bodies ) {
+		Iterator<RecycledGenerator> i = recycled.values().iterator();
+		while (i.hasNext()) {
+			RecycledGenerator r = i.next();
+			if (bodies.contains(r.pair.getFirst().getBody()) || bodies.contains(r.pair.getSecond().getBody())) {
+				r.generator.remove();
+				i.remove();
+			}
+		}
+	}
+	
 	private ContactGenerator getContactGenerator(Pair<Geometry> pair) {
-		for ( ContactGeneratorClassifier gc: geometryClassifiers) {
-			ContactGenerator g = gc.getGenerator(pair.getFirst(), pair.getSecond());
+		// reuse the generator of a recently separated pair, if it has the right order
+		RecycledGenerator r = recycled.get(pair);
+		if (r != null && r.pair.getFirst() == pair.getFirst()) {
+			recycled.remove(pair);
+			
+			// only if the envelopes and the classifiers are unchanged since the generator was created
+			if (r.envelopea == pair.getFirst().getEnvelope() && r.envelopeb == pair.getSecond().getEnvelope() 
+					&& r.revision == generatorTable.getRevision()) {
+				created.put(r.generator, r);
+				return r.generator;
+			}
+			r.generator.remove();
+		}
+		
+		final ContactGenerator generator = generatorTable.getGenerator(pair.getFirst(), pair.getSecond());
+		if (generator != null)
+			created.put(generator, new RecycledGenerator(pair, generator, generatorTable.getRevision()));
+		return generator;
+	}
+	
+	private void recycle(Pair<Geometry> pair, ContactGenerator generator) {
+		// a pair that is already present was re-created in the other order
+		RecycledGenerator previous = recycled.remove(pair);
+		if (previous != null)
+			previous.generator.remove();
+		
+		// generators created in the other order are not kept
+		RecycledGenerator r = created.remove(generator);
+		if (r == null || r.pair.getFirst() != pair.getFirst()) {
+			generator.remove();
+			return;
+		}
+		recycled.put(pair, r);
+	}
+
+	/**
+	 * Enable or disable contact events. When enabled, the contact events of each time-step are available
+	 * from getContactEvents(), after the time-step has been completed. Disabled by default.
+	 */
+	public void setContactEventsEnabled( boolean enabled ) {
+		if (!enabled) {
+			events.clear();
+			touching.clear();
+			ended.clear();
+		}
+		this.contactevents = enabled;
+	}
+	
+	/**
+	 * Enable or disable speculative contacts, see {@link FrictionalContactConstraint#setSpeculative(boolean)}. 
+	 * Applies to present and future contact constraints of the default kind. Disabled by default.
+	 */
+	public void setSpeculativeContactsEnabled( boolean enabled ) {
+		this.speculative = enabled;
+		for (ContactConstraint constraint: contactConstraints.values())
+			if (constraint instanceof FrictionalContactConstraint)
+				((FrictionalContactConstraint)constraint).setSpeculative(enabled);
+	}
+	
+	/**
+	 * Enable or disable split impulses, see {@link FrictionalContactConstraint#setSplitImpulse(boolean)}. 
+	 * Applies to present and future contact constraints of the default kind. Disabled by default.
+	 */
+	public void setSplitImpulseEnabled( boolean enabled ) {
+		this.splitimpulse = enabled;
+		for (ContactConstraint constraint: contactConstraints.values())
+			if (constraint instanceof FrictionalContactConstraint)
+				((FrictionalContactConstraint)constraint).setSplitImpulse(enabled);
+	}
+	
+	/**
+	 * Return the contact events of the latest time-step. The buffer is refilled in each time-step, 
+	 * and is empty unless contact events are enabled, see setContactEventsEnabled()
+	 */
+	public ContactEventBuffer getContactEvents() {
+		return events;
+	}
+	
+	/**
+	 * Fill the contact event buffer. Called by the scene, after the constraints of a time-step have been
+	 * solved. Contacts between bodies that are all deactivated or fixed are not reported, and keep their
+	 * state until the bodies are activated again.
+	 */
+	public void updateContactEvents() {
+		if (!contactevents)
+			return;
+		
+		events.clear();
+		
+		// contacts that were removed while touching
+		for (ContactConstraint constraint: ended) {
+			Pair<Body> bodies = constraint.getBodies();
+			end(constraint, bodies.getFirst(), bodies.getSecond());
+		}
+		ended.clear();
+		
+		for (ContactConstraint constraint: contactConstraints.values()) {
+			final Pair<Body> bodies = constraint.getBodies();
+			final Body b1 = bodies.getFirst(), b2 = bodies.getSecond();
+			
+			// resting contacts are left alone
+			if ((b1.deactivated || b1.isFixed()) && (b2.deactivated || b2.isFixed()))
+				continue;
+
+			// sum up the normal impulses. Normal rows are the ones with no coupling and non-negative force
+			normalrows.clear();
+			double impulse = 0;
+			Iterator<NCPConstraint> rows = constraint.getNcpConstraints();
+			while (rows.hasNext()) {
+				NCPConstraint row = rows.next();
+				if (row.coupling == null && row.lower == 0 && row.upper == Double.POSITIVE_INFINITY) {
+					normalrows.add(row);
+					impulse += row.lambda;
+				}
+			}
 			
-			if (g!=null) {
-				return g;
+			// the bodies touch, if the constraint has any contact points
+			if (normalrows.isEmpty()) {
+				if (touching.remove(constraint))
+					end(constraint, b1, b2);
+				continue;
 			}
+			
+			final ContactEvent event = events.next();
+			event.type = touching.add(constraint)? ContactEvent.BEGIN : ContactEvent.PERSIST;
+			event.body1 = b1;
+			event.body2 = b2;
+			event.constraint = constraint;
+			event.impulse = impulse;
+			event.point.assignZero();
+			event.normal.assignZero();
+			
+			// contact point and normal, weighted by the impulse of each contact point
+			int i = 0;
+			final int n = normalrows.size();
+			Iterator<ContactGenerator> generators = constraint.getGenerators();
+			while (generators.hasNext()) {
+				Iterator<ContactGenerator.ContactPoint> contacts = generators.next().getContacts();
+				while (contacts.hasNext() && i<n) {
+					final ContactGenerator.ContactPoint cp = contacts.next();
+					final double weight = impulse > 0? normalrows.get(i).lambda/impulse : 1.0/n;
+					Vector3.multiplyAndAdd(cp.point, weight, event.point);
+					i++;
+				}
+			}
+			for (NCPConstraint row: normalrows) 
+				Vector3.multiplyAndAdd(row.j1, impulse > 0? row.lambda/impulse : 1.0/n, event.normal);
+			final double norm = event.normal.norm();
+			if (norm > 0)
+				Vector3.multiply(event.normal, 1/norm);
 		}
-		return null;
+		normalrows.clear();
+	}
+	
+	private void end( ContactConstraint constraint, Body b1, Body b2 ) {
+		final ContactEvent event = events.next();
+		event.type = ContactEvent.END;
+		event.body1 = b1;
+		event.body2 = b2;
+		event.constraint = constraint;
+		event.impulse = 0;
+		event.point.assignZero();
+		event.normal.assignZero();
 	}
 
 	@Override
@@ -35,9 +35,12 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 	private final Body b1, b2;                  //bodies in constraint
 	private final List<ContactGenerator> generators = new ArrayList<ContactGenerator>();
 	private final List<NCPConstraint>       ncpconstraints = new ArrayList<NCPConstraint>();
+	private final List<NCPConstraint>       positionconstraints = new ArrayList<NCPConstraint>();
 	private double frictionBoundMagnitude = Double.POSITIVE_INFINITY;
 	
 	private boolean enableCoupling = true;
+	private boolean speculative = false;
+	private boolean splitimpulse = false;
 	
 	/**
 	 * Create a new ContactConstraint, using one initial ContactGenerator
@@ -80,6 +83,7 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 	public final void applyConstraints(ListIterator<NCPConstraint> constraintIterator, double dt) {
 		//clear list of ncp constraints
 		ncpconstraints.clear();
+		positionconstraints.clear();
 		
 		//use ContactGenerators to create new contactpoints
 		for ( ContactGenerator cg: generators) {
@@ -122,7 +126,7 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 		//First off, create the constraint in the normal direction
 		final double e = cp.restitution; //coeficient of restitution
 		final double uni = nJ1.dot(b1.state.velocity) + nJ2.dot(b1.state.omega) + nJ3.dot(b2.state.velocity) + nJ4.dot(b2.state.omega);
-		final double unf = uni<0 ? -e*uni: 0;		
+		double unf = uni<0 ? -e*uni: 0;		
 		
 		//compute B vector
 		final Matrix3 I1 = b1.state.inverseinertia;
@@ -140,12 +144,22 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 
 		//external forces acing at contact (obsolete, external forces are modelled using the delta velocities)
 		//double Fext = B1.dot(b1.state.force) + B2.dot(b1.state.torque) + B3.dot(b2.state.force) + B4.dot(b2.state.torque);
+		// speculative contacts rest at the contact distance rather than inside the shell of the envelope
+		if (speculative)
+			depth = -cp.distance;
+
 		double correction = depth*(1/dt); //the true correction velocity. This velocity corrects the contact in the next timestep.
 		final double escape = (cp.envelope-cp.distance)*(1/dt);
 		final double lowerNormalLimit = 0;
 		final double limit = 2;
 		
+		// speculative contact, where the features are apart. The bodies may approach by exactly the gap 
+		// in this time-step, until they touch, and restitution is applied only once they touch 
+		final boolean separated = speculative && depth < 0;
 		
+		if (separated) {
+			unf = 0;
+		} else
 		// if the unf velocity will make the contact leave the envelope in the next timestep, 
 		// we ignore corrections
 		if (unf > escape) {
@@ -163,14 +177,28 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 			}
 		}
 	
-		// limit the correction velocity
-		correction = correction< -limit? -limit:correction;  
-		correction = correction>  limit?  limit:correction;
-		
-		// take a factor of real correction velocity
-		correction = correction * 0.9;
+		// limit the correction velocity, and take a factor of the real correction velocity. Speculative 
+		// contacts need the exact velocity that closes the gap 
+		if (!separated) {
+			correction = correction< -limit? -limit:correction;  
+			correction = correction>  limit?  limit:correction;
+			correction = correction * 0.9;
+		}
 		
 		//correction=correction>0?0:correction;
+		
+		// with split impulses, penetration is corrected by a separate constraint on the pseudo velocities
+		if (splitimpulse && correction > 0) {
+			final NCPConstraint position = new NCPConstraint();
+			position.assign(b1,b2,
+					nB1, nB2, nB3, nB4,
+					nJ1, nJ2, nJ3, nJ4,
+					lowerNormalLimit, Double.POSITIVE_INFINITY,
+					null,
+					-correction, -correction);
+			positionconstraints.add(position);
+			correction = 0;
+		}
 
 		// the normal constraint
 		final NCPConstraint c = new NCPConstraint();
@@ -262,6 +290,28 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 		this.enableCoupling = coupling;
 	}
 	
+	/**
+	 * Enable or disable speculative contacts. A contact point whose features are apart then gets a normal row 
+	 * that lets the bodies approach by exactly the contact distance in the next time-step, without clamping the 
+	 * velocity and without applying restitution ahead of the impact. Penetration is corrected up to the contact 
+	 * distance, so bodies rest touching, and not inside the shell of the envelope. Fast bodies then stop at the 
+	 * surface in a single time-step, provided the contact was generated, see 
+	 * {@link jinngine.physics.DefaultScene#setSpeculativeContactsEnabled(boolean)}. Disabled by default
+	 */
+	public final void setSpeculative( boolean speculative ) {
+		this.speculative = speculative;
+	}
+	
+	/**
+	 * Enable or disable split impulses. Penetration is then not corrected through the velocities of the bodies, 
+	 * but by separate constraints on pseudo velocities, which only move the bodies apart in the current time-step, 
+	 * see {@link #getPositionNcpConstraints()}. This keeps penetration correction from adding energy to the bodies. 
+	 * Disabled by default
+	 */
+	public final void setSplitImpulse( boolean splitimpulse ) {
+		this.splitimpulse = splitimpulse;
+	}
+	
 	/**
 	 * Set the limits for fixed bound friction
 	 * @param magnitude
@@ -275,6 +325,15 @@ public final class FrictionalContactConstraint implements ContactConstraint {
 		return ncpconstraints.iterator();
 	}
 
+	/**
+	 * Return the position correction constraints created in the latest call to applyConstraints(), when split 
+	 * impulses are enabled. These constraints act on pseudo velocities, and are to be solved separately from the 
+	 * velocity constraints
+	 */
+	public final Iterator<NCPConstraint> getPositionNcpConstraints() {
+		return positionconstraints.iterator();
+	}
+
 	@Override
 	public final Iterator<ContactGenerator> getGenerators() {
 		return generators.iterator();
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics.solver.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import jinngine.physics.Body;
+import jinngine.physics.solver.Solver;
+
+/**
+ * A solver that records every problem it is given, before passing it on to the wrapped solver. Each
+ * call to solve() is written as a single {@link NCPProblem} record, and the stream is flushed after each
+ * record, so that the problems leading up to a crash or an explosion are on disk. Use it in place
+ * of the usual solver, for instance
+ * <p>
+ * new DefaultScene(new SAP2(), new CapturingSolver(new NonsmoothNonlinearConjugateGradient(45), out), new DefaultDeactivationPolicy());
+ * <p>
+ * The captured problems can be replayed offline against any solver using {@link SolverReplay}.
+ */
+public final class CapturingSolver implements Solver {
+	private final Solver solver;
+	private final DataOutputStream out;
+	private int remaining;
+	private int captured = 0;
+
+	/**
+	 * Capture all problems given to this solver
+	 * @param solver the solver that will do the actual work
+	 * @param out stream that receives the problem records
+	 */
+	public CapturingSolver(Solver solver, OutputStream out) {
+		this(solver, out, -1);
+	}
+
+	/**
+	 * Capture the first n problems given to this solver. Problems beyond the first n are solved
+	 * without being recorded.
+	 * @param solver the solver that will do the actual work
+	 * @param out stream that receives the problem records
+	 * @param n number of problems to record, or a negative value for no limit
+	 */
+	public CapturingSolver(Solver solver, OutputStream out, int n) {
+		this.solver = solver;
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.remaining = n;
+	}
+
+	@Override
+	public double solve(List<NCPConstraint> constraints, List<Body> bodies, double epsilon) {
+		if (remaining != 0) {
+			try {
+				NCPProblem.write(out, constraints, bodies, epsilon);
+				out.flush();
+			} catch (IOException e) {
+				throw new IllegalStateException("CapturingSolver: unable to write problem", e);
+			}
+			captured++;
+			if (remaining > 0)
+				remaining--;
+		}
+
+		return solver.solve(constraints, bodies, epsilon);
+	}
+
+	@Override
+	public void setMaximumIterations(int n) {
+		solver.setMaximumIterations(n);
+	}
+
+	/**
+	 * Get the number of problems recorded so far
+	 */
+	public int getCapturedProblems() {
+		return captured;
+	}
+
+	/**
+	 * Stop recording and close the underlying stream. The wrapped solver remains usable through this solver.
+	 */
+	public void close() throws IOException {
+		remaining = 0;
+		out.close();
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics.solver.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.solver.Solver;
+import jinngine.physics.solver.Solver.NCPConstraint;
+
+/**
+ * A self-contained NCP problem, exactly as it was handed to {@link Solver#solve(List, List, double)}.
+ * Problems are written and read in a compact binary format, one record per solve() call. Each record
+ * holds the delta velocities of all involved bodies and every constraint row, including the initial
+ * lambda values used for warm starting, so that a solver run on a loaded problem reproduces the
+ * original run. Bodies that are referenced by constraints, but are not in the body list given to the
+ * solver, are stored after the listed bodies, and are excluded from the body list on reading.
+ */
+public final class NCPProblem {
+	/** Record marker, the ascii characters "JNCP" */
+	public static final int MAGIC = 0x4a4e4350;
+	/** Format version */
+	public static final int VERSION = 1;
+
+	/** Constraint rows of this problem */
+	public final List<NCPConstraint> constraints;
+	/** Bodies given to the solver */
+	public final List<Body> bodies;
+	/** Epsilon given to the solver */
+	public final double epsilon;
+
+	private NCPProblem(List<NCPConstraint> constraints, List<Body> bodies, double epsilon) {
+		this.constraints = constraints;
+		this.bodies = bodies;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Write a single problem record to the given output
+	 */
+	public static void write(DataOutput out, List<NCPConstraint> constraints, List<Body> bodies, double epsilon)
+	throws IOException {
+		// index all bodies, listed bodies first
+		final Map<Body,Integer> bodyindex = new IdentityHashMap<Body,Integer>();
+		final List<Body> allbodies = new ArrayList<Body>(bodies);
+		for (int i=0; i<bodies.size(); i++)
+			bodyindex.put(bodies.get(i), i);
+		for (NCPConstraint ci: constraints) {
+			for (Body b: new Body[] {ci.body1, ci.body2}) {
+				if (!bodyindex.containsKey(b)) {
+					bodyindex.put(b, allbodies.size());
+					allbodies.add(b);
+				}
+			}
+		}
+
+		// index constraint rows, for resolving the friction couplings
+		final Map<NCPConstraint,Integer> rowindex = new IdentityHashMap<NCPConstraint,Integer>();
+		for (NCPConstraint ci: constraints)
+			rowindex.put(ci, rowindex.size());
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeDouble(epsilon);
+		out.writeInt(allbodies.size());
+		out.writeInt(bodies.size());
+		for (Body b: allbodies) {
+			write(out, b.deltavelocity);
+			write(out, b.deltaomega);
+			write(out, b.externaldeltavelocity);
+			write(out, b.externaldeltaomega);
+		}
+
+		out.writeInt(constraints.size());
+		for (NCPConstraint ci: constraints) {
+			out.writeInt(bodyindex.get(ci.body1));
+			out.writeInt(bodyindex.get(ci.body2));
+			Integer coupling = ci.coupling == null? null : rowindex.get(ci.coupling);
+			out.writeInt(coupling == null? -1 : coupling);
+			write(out, ci.j1); write(out, ci.j2); write(out, ci.j3); write(out, ci.j4);
+			write(out, ci.b1); write(out, ci.b2); write(out, ci.b3); write(out, ci.b4);
+			out.writeDouble(ci.lambda);
+			out.writeDouble(ci.lower);
+			out.writeDouble(ci.upper);
+			out.writeDouble(ci.diagonal);
+			out.writeDouble(ci.b);
+			out.writeDouble(ci.c);
+			out.writeDouble(ci.mu);
+			out.writeDouble(ci.damper);
+		}
+	}
+
+	/**
+	 * Read a single problem record from the given input.
+	 * @return the problem, or null if the input was exhausted before the record began
+	 */
+	public static NCPProblem read(DataInput in) throws IOException {
+		final int magic;
+		try {
+			magic = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		if (magic != MAGIC)
+			throw new IOException("NCPProblem: not a problem record");
+
+		final int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("NCPProblem: unsupported version " + version);
+
+		final double epsilon = in.readDouble();
+		final int nbodies = in.readInt();
+		final int nlisted = in.readInt();
+		final Body[] allbodies = new Body[nbodies];
+		final List<Body> bodies = new ArrayList<Body>(nlisted);
+		for (int i=0; i<nbodies; i++) {
+			Body b = new Body("captured"+i);
+			read(in, b.deltavelocity);
+			read(in, b.deltaomega);
+			read(in, b.externaldeltavelocity);
+			read(in, b.externaldeltaomega);
+			allbodies[i] = b;
+			if (i < nlisted)
+				bodies.add(b);
+		}
+
+		final int nrows = in.readInt();
+		final NCPConstraint[] rows = new NCPConstraint[nrows];
+		final int[] couplings = new int[nrows];
+		for (int i=0; i<nrows; i++)
+			rows[i] = new NCPConstraint();
+
+		for (int i=0; i<nrows; i++) {
+			NCPConstraint ci = rows[i];
+			ci.body1 = allbodies[in.readInt()];
+			ci.body2 = allbodies[in.readInt()];
+			couplings[i] = in.readInt();
+			read(in, ci.j1); read(in, ci.j2); read(in, ci.j3); read(in, ci.j4);
+			read(in, ci.b1); read(in, ci.b2); read(in, ci.b3); read(in, ci.b4);
+			ci.lambda = in.readDouble();
+			ci.lower = in.readDouble();
+			ci.upper = in.readDouble();
+			ci.diagonal = in.readDouble();
+			ci.b = in.readDouble();
+			ci.c = in.readDouble();
+			ci.mu = in.readDouble();
+			ci.damper = in.readDouble();
+		}
+
+		// resolve couplings
+		final List<NCPConstraint> constraints = new ArrayList<NCPConstraint>(nrows);
+		for (int i=0; i<nrows; i++) {
+			rows[i].coupling = couplings[i] < 0? null : rows[couplings[i]];
+			constraints.add(rows[i]);
+		}
+
+		return new NCPProblem(constraints, bodies, epsilon);
+	}
+
+	private static void write(DataOutput out, Vector3 v) throws IOException {
+		out.writeDouble(v.x);
+		out.writeDouble(v.y);
+		out.writeDouble(v.z);
+	}
+
+	private static void read(DataInput in, Vector3 v) throws IOException {
+		v.x = in.readDouble();
+		v.y = in.readDouble();
+		v.z = in.readDouble();
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.physics.solver.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import jinngine.physics.solver.ConjugateGradients;
+import jinngine.physics.solver.NonsmoothNonlinearConjugateGradient;
+import jinngine.physics.solver.ProjectedGaussSeidel;
+import jinngine.physics.solver.Solver;
+import jinngine.physics.solver.experimental.FischerNewton;
+
+/**
+ * Offline replay of problems recorded by {@link CapturingSolver}. Every replay works on freshly loaded
+ * copies of the captured problems, so different solvers, or different settings of the same solver,
+ * are compared on identical input, including the captured warm start values. Run as a program, the
+ * captured problems are timed against each of the solvers in Jinngine,
+ * <p>
+ * java jinngine.physics.solver.util.SolverReplay capturefile [repetitions]
+ */
+public final class SolverReplay {
+	private final List<byte[]> problems = new ArrayList<byte[]>();
+
+	/**
+	 * Load all problem records from the given stream. The stream is read to the end, but not closed.
+	 */
+	public SolverReplay(InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		NCPProblem problem;
+		while ((problem = NCPProblem.read(data)) != null) {
+			// keep each problem in its serialised form, to get fresh copies for every replay
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			NCPProblem.write(new DataOutputStream(bytes), problem.constraints, problem.bodies, problem.epsilon);
+			problems.add(bytes.toByteArray());
+		}
+	}
+
+	/**
+	 * Get the number of loaded problems
+	 */
+	public int getNumberOfProblems() {
+		return problems.size();
+	}
+
+	/**
+	 * Get a fresh copy of the i'th loaded problem
+	 */
+	public NCPProblem getProblem(int i) {
+		try {
+			return NCPProblem.read(new DataInputStream(new ByteArrayInputStream(problems.get(i))));
+		} catch (IOException e) {
+			throw new IllegalStateException("SolverReplay: corrupted problem " + i, e);
+		}
+	}
+
+	/**
+	 * Solve all loaded problems using the given solver. Only the time spent inside solve() is measured.
+	 * @param solver solver to replay the problems on
+	 * @param nanos if not null, receives the time spent solving each problem, in nanoseconds
+	 * @param merits if not null, receives the merit value of the solution for each problem, as
+	 * computed by {@link NonsmoothNonlinearConjugateGradient#merit(List, List, boolean)}
+	 * @return total time spent solving, in nanoseconds
+	 */
+	public long replay(Solver solver, long[] nanos, double[] merits) {
+		long total = 0;
+		for (int i=0; i<problems.size(); i++) {
+			NCPProblem problem = getProblem(i);
+
+			long start = System.nanoTime();
+			solver.solve(problem.constraints, problem.bodies, problem.epsilon);
+			long time = System.nanoTime() - start;
+			total += time;
+
+			if (nanos != null)
+				nanos[i] = time;
+			if (merits != null)
+				merits[i] = NonsmoothNonlinearConjugateGradient.merit(problem.constraints, problem.bodies, false);
+		}
+		return total;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("usage: SolverReplay capturefile [repetitions]");
+			return;
+		}
+
+		final FileInputStream in = new FileInputStream(args[0]);
+		final SolverReplay replay;
+		try {
+			replay = new SolverReplay(in);
+		} finally {
+			in.close();
+		}
+		final int repetitions = args.length > 1? Integer.parseInt(args[1]) : 5;
+		final int n = replay.getNumberOfProblems();
+		System.out.println("loaded " + n + " problems");
+		if (n == 0)
+			return;
+
+		final String[] names = {"PGS", "NNCG", "CG", "FischerNewton"};
+		final Solver[] solvers = {
+				new ProjectedGaussSeidel(35),
+				new NonsmoothNonlinearConjugateGradient(45),
+				new ConjugateGradients(),
+				new FischerNewton() };
+
+		final long[] nanos = new long[n];
+		final double[] merits = new double[n];
+		for (int s=0; s<solvers.length; s++) {
+			// warm up the jit before measuring
+			replay.replay(solvers[s], null, null);
+
+			long best = Long.MAX_VALUE, worst = 0;
+			long total = 0;
+			for (int r=0; r<repetitions; r++) {
+				total += replay.replay(solvers[s], nanos, merits);
+				for (long t: nanos) {
+					best = Math.min(best, t);
+					worst = Math.max(worst, t);
+				}
+			}
+
+			double merit = 0;
+			for (double m: merits)
+				merit += m;
+
+			System.out.println(names[s]
+			        + ": total " + (total/repetitions)/1e6 + " ms"
+			        + ", mean " + (total/(repetitions*n))/1e3 + " us"
+			        + ", best " + best/1e3 + " us"
+			        + ", worst " + worst/1e3 + " us"
+			        + ", mean merit " + merit/n );
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import jinngine.geometry.Box;
+import jinngine.geometry.UniformCapsule;
+import jinngine.geometry.contact.CapsuleBoxContactGenerator;
+import jinngine.geometry.contact.CapsuleContactGenerator;
+import jinngine.geometry.contact.ContactGenerator;
+import jinngine.geometry.contact.ContactGenerator.ContactPoint;
+import jinngine.geometry.contact.SupportMapContactGenerator;
+import jinngine.math.Matrix3;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class CapsuleContactGeneratorTest extends TestCase {
+
+	private static final double epsilon = 1e-9;
+
+	// rotation taking the capsule axis (local z) to the x axis
+	private static final Matrix3 alongx = new Matrix3(new Vector3(0,0,-1), new Vector3(0,1,0), new Vector3(1,0,0));
+
+	private static List<ContactPoint> run( ContactGenerator g ) {
+		g.run();
+		List<ContactPoint> result = new ArrayList<ContactPoint>();
+		Iterator<ContactPoint> i = g.getContacts();
+		while (i.hasNext())
+			result.add(i.next());
+		return result;
+	}
+
+	private static void assertVector( Vector3 expected, Vector3 actual ) {
+		assertEquals(expected.x, actual.x, epsilon);
+		assertEquals(expected.y, actual.y, epsilon);
+		assertEquals(expected.z, actual.z, epsilon);
+	}
+
+	/**
+	 * Two capsules crossing at a right angle give one contact, two parallel capsules give two
+	 */
+	public void testCapsuleCapsule() {
+		UniformCapsule a = new UniformCapsule(0.5, 2);
+		UniformCapsule b = new UniformCapsule(0.5, 2);
+		Body ba = new Body("a", a);
+		new Body("b", b);
+		ba.setPosition(0, 1.05, 0);
+		ba.setOrientation(alongx);
+
+		ContactGenerator g = new CapsuleContactGenerator(a, b);
+		List<ContactPoint> contacts = run(g);
+		assertEquals(1, contacts.size());
+		assertEquals(0.05, contacts.get(0).distance, epsilon);
+		assertVector(new Vector3(0,1,0), contacts.get(0).normal);
+		assertVector(new Vector3(0,0.525,0), contacts.get(0).point);
+
+		// parallel, overlapping in x from -0.5 to 1
+		ba.setOrientation(new Matrix3(Matrix3.identity()));
+		ba.setPosition(0, 0.98, 0.5);
+		contacts = run(g);
+		assertEquals(2, contacts.size());
+		for (ContactPoint cp: contacts) {
+			assertEquals(-0.02, cp.distance, epsilon);
+			assertVector(new Vector3(0,1,0), cp.normal);
+		}
+		assertEquals(-0.5, contacts.get(0).point.z, epsilon);
+		assertEquals(1, contacts.get(1).point.z, epsilon);
+
+		// out of the envelope
+		ba.setPosition(0, 2, 0.5);
+		assertEquals(0, run(g).size());
+	}
+
+	/**
+	 * A capsule lying on a box face gives two contacts, clipped to the face. The normal is reversed when
+	 * the geometries are given in the other order
+	 */
+	public void testCapsuleBox() {
+		UniformCapsule capsule = new UniformCapsule(0.5, 2);
+		Box box = new Box(2,1,2);
+		Body bc = new Body("capsule", capsule);
+		Body bb = new Body("box", box);
+		bc.setOrientation(alongx);
+		bc.setPosition(0.5, 1.01, 0.25);
+
+		List<ContactPoint> contacts = run(new CapsuleBoxContactGenerator(capsule, box));
+		assertEquals(2, contacts.size());
+		assertEquals(-0.5, contacts.get(0).point.x, epsilon);
+		assertEquals(1, contacts.get(1).point.x, epsilon);
+		for (ContactPoint cp: contacts) {
+			assertEquals(0.01, cp.distance, epsilon);
+			assertVector(new Vector3(0,1,0), cp.normal);
+			assertSame(bc, cp.b1);
+		}
+
+		contacts = run(new CapsuleBoxContactGenerator(box, capsule));
+		assertEquals(2, contacts.size());
+		for (ContactPoint cp: contacts) {
+			assertVector(new Vector3(0,-1,0), cp.normal);
+			assertSame(bb, cp.b1);
+		}
+
+		// penetrating
+		bc.setPosition(0.5, 0.9, 0.25);
+		contacts = run(new CapsuleBoxContactGenerator(capsule, box));
+		assertEquals(2, contacts.size());
+		assertEquals(-0.1, contacts.get(0).distance, epsilon);
+
+		// across an edge of the box, tilted down
+		bc.setOrientation(new Matrix3(new Vector3(0,0,-1), new Vector3(1,1,0).normalize(), new Vector3(1,-1,0).normalize()));
+		bc.setPosition(1.5, 0.75, 0);
+		contacts = run(new CapsuleBoxContactGenerator(capsule, box));
+		assertEquals(1, contacts.size());
+		assertVector(new Vector3(1,1,0).normalize(), contacts.get(0).normal);
+	}
+
+	/**
+	 * A capsule lying just past the edge of a box face still penetrates the box, and gives the same 
+	 * distance as the support map generator
+	 */
+	public void testCapsuleBoxOverhang() {
+		UniformCapsule capsule = new UniformCapsule(0.5, 2);
+		Box box = new Box(2,2,2);
+		Body bc = new Body("capsule", capsule);
+		new Body("box", box);
+		bc.setOrientation(alongx);
+		bc.setPosition(0, 1.4, 1.01);
+
+		List<ContactPoint> contacts = run(new CapsuleBoxContactGenerator(capsule, box));
+		List<ContactPoint> expected = run(new SupportMapContactGenerator(capsule, capsule, box, box));
+		assertFalse(expected.isEmpty());
+		assertFalse(contacts.isEmpty());
+		double min = Double.POSITIVE_INFINITY;
+		for (ContactPoint cp: contacts)
+			min = Math.min(min, cp.distance);
+		assertEquals(Math.sqrt(0.4*0.4+0.01*0.01)-0.5, min, epsilon);
+		assertEquals(expected.get(0).distance, min, 1e-3);
+
+		// sloping down past the edge, so the clipped segment is farther from the box than the closest points
+		bc.setOrientation(new Matrix3(new Vector3(0,0,-1), new Vector3(0.02,1,0).normalize(), new Vector3(1,-0.02,0).normalize()));
+		bc.setPosition(1.5, 1.44, 0);
+		contacts = run(new CapsuleBoxContactGenerator(capsule, box));
+		expected = run(new SupportMapContactGenerator(capsule, capsule, box, box));
+		min = Double.POSITIVE_INFINITY;
+		for (ContactPoint cp: contacts)
+			min = Math.min(min, cp.distance);
+		double closest = Double.POSITIVE_INFINITY;
+		for (ContactPoint cp: expected)
+			closest = Math.min(closest, cp.distance);
+		assertEquals(closest, min, 1e-6);
+	}
+
+	/**
+	 * A capsule dropped on a fixed box comes to rest on its side
+	 */
+	public void testResting() {
+		DefaultScene scene = new DefaultScene();
+		scene.setTimestep(0.02);
+		Body box = new Body("box", new Box(4,1,4));
+		box.setFixed(true);
+		Body capsule = new Body("capsule", new UniformCapsule(0.5, 2));
+		capsule.setOrientation(alongx);
+		capsule.setPosition(0, 1.5, 0);
+		scene.addBody(box);
+		scene.addBody(capsule);
+		scene.addForce(new GravityForce(capsule));
+
+		for (int i=0; i<300; i++)
+			scene.tick();
+
+		// lying flat on the box, at rest
+		assertEquals(1.0, capsule.getPosition().y, 0.1);
+		assertEquals(0, capsule.getOrientation().column(2).y, 1e-3);
+		assertTrue(capsule.getVelocity().norm() < 0.05);
+		assertTrue(capsule.getAngularVelocity().norm() < 0.05);
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jinngine.collision.SAP2;
+import jinngine.geometry.Box;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultDeactivationPolicy;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.Scene;
+import jinngine.physics.force.GravityForce;
+import jinngine.physics.solver.ProjectedGaussSeidel;
+import jinngine.physics.solver.Solver;
+import jinngine.physics.solver.Solver.NCPConstraint;
+import jinngine.physics.solver.util.CapturingSolver;
+import jinngine.physics.solver.util.NCPProblem;
+import jinngine.physics.solver.util.SolverReplay;
+import junit.framework.TestCase;
+
+public class CapturingSolverTest extends TestCase {
+
+	/**
+	 * A solver that records the solution of every problem it is given
+	 */
+	private static final class RecordingSolver implements Solver {
+		private final Solver solver = new ProjectedGaussSeidel(20);
+		public final List<double[]> solutions = new ArrayList<double[]>();
+		@Override
+		public double solve(List<NCPConstraint> constraints, List<Body> bodies, double epsilon) {
+			double error = solver.solve(constraints, bodies, epsilon);
+			double[] lambdas = new double[constraints.size()];
+			for (int i=0; i<lambdas.length; i++)
+				lambdas[i] = constraints.get(i).lambda;
+			solutions.add(lambdas);
+			return error;
+		}
+		@Override
+		public void setMaximumIterations(int n) {}
+	}
+
+	/**
+	 * Capture the problems of a small scene with a box resting on a fixed box, and replay
+	 * them. The replay must reproduce the original solutions exactly
+	 */
+	public void testCaptureAndReplay() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordingSolver original = new RecordingSolver();
+		CapturingSolver capture = new CapturingSolver(original, out);
+		Scene scene = new DefaultScene(new SAP2(), capture, new DefaultDeactivationPolicy());
+
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		scene.addBody(floor);
+		scene.fixBody(floor, true);
+
+		Body box = new Body("box", new Box(1,1,1));
+		box.setPosition(0,0.5,0);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+
+		for (int i=0; i<10; i++)
+			scene.tick();
+
+		capture.close();
+		assertEquals(10, capture.getCapturedProblems());
+
+		SolverReplay replay = new SolverReplay(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(10, replay.getNumberOfProblems());
+
+		// the box must be in contact in the first problem
+		assertTrue(replay.getProblem(0).constraints.size() > 0);
+
+		RecordingSolver replayed = new RecordingSolver();
+		replay.replay(replayed, null, null);
+		assertEquals(original.solutions.size(), replayed.solutions.size());
+		for (int i=0; i<original.solutions.size(); i++) {
+			double[] expected = original.solutions.get(i);
+			double[] actual = replayed.solutions.get(i);
+			assertEquals(expected.length, actual.length);
+			for (int j=0; j<expected.length; j++)
+				assertEquals(expected[j], actual[j], 0.0);
+		}
+	}
+
+	/**
+	 * Only the requested number of problems must be recorded
+	 */
+	public void testCaptureLimit() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CapturingSolver capture = new CapturingSolver(new ProjectedGaussSeidel(), out, 3);
+		List<NCPConstraint> constraints = new ArrayList<NCPConstraint>();
+		List<Body> bodies = new ArrayList<Body>();
+		for (int i=0; i<5; i++)
+			capture.solve(constraints, bodies, 0);
+
+		assertEquals(3, capture.getCapturedProblems());
+		SolverReplay replay = new SolverReplay(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(3, replay.getNumberOfProblems());
+
+		NCPProblem problem = replay.getProblem(0);
+		assertEquals(0, problem.constraints.size());
+		assertEquals(0, problem.bodies.size());
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import jinngine.geometry.Box;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.constraint.Constraint;
+import jinngine.physics.constraint.joint.BallInSocketJoint;
+import jinngine.physics.force.Force;
+import junit.framework.TestCase;
+
+public class CommandQueueTest extends TestCase {
+
+	private static final int producers = 4;
+	private static final int pairs = 10;
+
+	/** Force counting the number of times it is applied */
+	private static final class CountingForce implements Force {
+		int applied = 0;
+		public void apply(double dt) { applied++; }
+	}
+
+	private final DefaultScene scene = new DefaultScene();
+	private final List<int[]> log = Collections.synchronizedList(new ArrayList<int[]>());
+	private final CountingForce[][] forces = new CountingForce[producers][pairs];
+	private final Throwable[] failures = new Throwable[producers];
+	private int ticks = 0;
+
+	/**
+	 * Producer threads queue additions and removals of bodies, forces and constraints while the scene is
+	 * being ticked. Nothing changes until the next time-step, where the commands of each producer are
+	 * applied before any force, in the order they were queued
+	 */
+	public void testCommandsFromProducerThreads() throws InterruptedException {
+		// a force that runs the producers in the middle of the first time-step
+		scene.addForce(new Force() {
+			public void apply(double dt) {
+				ticks++;
+				if (ticks == 1)
+					runProducers();
+			}
+		});
+
+		scene.tick();
+		for (Throwable t: failures)
+			if (t != null)
+				fail(t.toString());
+
+		// queued commands are not applied during the time-step they were queued in
+		assertEquals(0, count(scene.getBodies()));
+		assertEquals(0, count(scene.getConstraints()));
+		assertEquals(0, log.size());
+
+		// all commands are applied at the beginning of the next time-step
+		scene.tick();
+		assertEquals(producers*pairs, log.size());
+		int[] sequence = new int[producers];
+		for (int[] entry: log) {
+			// applied before the forces of the second time-step
+			assertEquals(1, entry[2]);
+			// in queued order for each producer
+			assertEquals(sequence[entry[0]]++, entry[1]);
+		}
+
+		// pairs with an even index are kept, the others are added and removed again
+		assertEquals(producers*pairs, count(scene.getBodies()));
+		assertEquals(producers*pairs/2, count(scene.getConstraints()));
+		for (int p=0; p<producers; p++)
+			for (int i=0; i<pairs; i++)
+				assertEquals(i%2==0? 1:0, forces[p][i].applied);
+
+		// nothing is left in the queue
+		scene.tick();
+		assertEquals(producers*pairs, log.size());
+	}
+
+	private void runProducers() {
+		Thread[] threads = new Thread[producers];
+		for (int p=0; p<producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread() {
+				public void run() {
+					try {
+						produce(producer);
+					} catch (Throwable t) {
+						failures[producer] = t;
+					}
+				}
+			};
+			threads[p].start();
+		}
+		for (Thread t: threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private void produce( final int producer ) {
+		for (int i=0; i<pairs; i++) {
+			final Body a = new Body("a", new Box(1,1,1));
+			final Body b = new Body("b", new Box(1,1,1));
+			a.setPosition(producer*10, i*10, 0);
+			b.setPosition(producer*10+2, i*10, 0);
+			final Constraint joint = new BallInSocketJoint(a, b, new Vector3(producer*10+1, i*10, 0), new Vector3(0,0,1));
+			forces[producer][i] = new CountingForce();
+
+			scene.queueAddBody(a);
+			scene.queueAddBody(b);
+			scene.queueAddConstraint(joint);
+			scene.queueAddForce(forces[producer][i]);
+
+			// odd pairs are removed again, which only works if the additions are applied first
+			if (i%2 == 1) {
+				scene.queueRemoveForce(forces[producer][i]);
+				scene.queueRemoveConstraint(joint);
+				scene.queueRemoveBody(a);
+				scene.queueRemoveBody(b);
+			}
+
+			// record the order in which the commands of this producer are applied
+			final int sequence = i;
+			scene.queueCommand(new Runnable() {
+				public void run() {
+					log.add(new int[] {producer, sequence, ticks});
+				}
+			});
+		}
+	}
+
+	private static int count( Iterator<?> i ) {
+		int n = 0;
+		while (i.hasNext()) {
+			i.next();
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.geometry.Box;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.constraint.contact.ContactEvent;
+import jinngine.physics.constraint.contact.ContactEventBuffer;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class ContactEventTest extends TestCase {
+
+	/**
+	 * Drop a box on a fixed floor, and lift it off again
+	 */
+	public void testBeginPersistEnd() {
+		DefaultScene scene = new DefaultScene();
+		scene.setTimestep(0.02);
+		scene.setContactEventsEnabled(true);
+
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+
+		Body box = new Body("box", new Box(1,1,1));
+		box.setPosition(0,0.6,0);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+
+		ContactEventBuffer events = scene.getContactEvents();
+		int begins = 0, persists = 0;
+		double impulse = 0;
+		for (int i=0; i<50; i++) {
+			scene.tick();
+			for (int j=0; j<events.size(); j++) {
+				ContactEvent event = events.get(j);
+				assertTrue(event.body1 == box || event.body2 == box);
+				if (event.type == ContactEvent.BEGIN) {
+					assertEquals(0, persists);
+					begins++;
+				}
+				if (event.type == ContactEvent.PERSIST) {
+					persists++;
+					impulse = event.impulse;
+					// resting on the floor, within the collision envelope
+					assertEquals(1, Math.abs(event.normal.y), 1e-6);
+					assertEquals(0.05, event.point.y, 0.05);
+				}
+				assertTrue(event.type != ContactEvent.END);
+			}
+		}
+		assertEquals(1, begins);
+		assertTrue(persists > 0);
+
+		// the floor pushes the box
+		assertTrue(impulse > 0);
+
+		// lift the box away from the floor
+		box.setPosition(0,5,0);
+		box.setVelocity(0,0,0);
+		scene.tick();
+		assertEquals(1, events.size());
+		assertEquals(ContactEvent.END, events.get(0).type);
+		scene.tick();
+		assertEquals(0, events.size());
+	}
+}
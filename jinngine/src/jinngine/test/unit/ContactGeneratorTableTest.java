@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jinngine.geometry.Box;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.Sphere;
+import jinngine.geometry.SupportMap3;
+import jinngine.geometry.UniformCapsule;
+import jinngine.geometry.contact.ContactGenerator;
+import jinngine.geometry.contact.ContactGeneratorClassifier;
+import jinngine.geometry.contact.ContactGeneratorTable;
+import jinngine.geometry.contact.SupportMapContactGenerator;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.constraint.contact.DefaultContactConstraintManager;
+import junit.framework.TestCase;
+
+public class ContactGeneratorTableTest extends TestCase {
+
+	// creates support map generators for pairs of the given class, and counts how often it is asked
+	private static final class CountingClassifier implements ContactGeneratorClassifier {
+		final Class<?> type;
+		int calls = 0;
+		CountingClassifier( Class<?> type ) {
+			this.type = type;
+		}
+		public ContactGenerator getGenerator(Geometry a, Geometry b) {
+			calls++;
+			if (type.isInstance(a) && type.isInstance(b))
+				return new SupportMapContactGenerator((SupportMap3)a, a, (SupportMap3)b, b);
+			return null;
+		}
+	}
+
+	public void testDispatch() {
+		CountingClassifier boxes = new CountingClassifier(Box.class);
+		CountingClassifier other = new CountingClassifier(Sphere.class);
+		List<ContactGeneratorClassifier> classifiers = new ArrayList<ContactGeneratorClassifier>();
+		classifiers.add(other);
+		classifiers.add(boxes);
+		ContactGeneratorTable table = new ContactGeneratorTable(classifiers);
+
+		Box a = new Box(1,1,1), b = new Box(1,1,1);
+		new Body("a", a); new Body("b", b);
+
+		// the list is walked once, after that the table knows the classifier for box pairs
+		assertNotNull(table.getGenerator(a, b));
+		assertNotNull(table.getGenerator(a, b));
+		assertEquals(1, other.calls);
+		assertEquals(2, boxes.calls);
+
+		// unknown pairs
+		Sphere s = new Sphere(1);
+		new Body("s", s);
+		assertNull(table.getGenerator(a, s));
+		assertEquals(3, boxes.calls);
+		assertEquals(table.getShapeId(Box.class), table.getShapeId(a.getClass()));
+		assertTrue(table.getShapeId(Box.class) != table.getShapeId(Sphere.class));
+
+		// a registered classifier bypasses the list
+		CountingClassifier registered = new CountingClassifier(Box.class);
+		table.register(Box.class, Box.class, registered);
+		assertNotNull(table.getGenerator(a, b));
+		assertEquals(1, registered.calls);
+		assertEquals(3, boxes.calls);
+
+		// the first classifier of the list takes precedence over the registered classifier
+		CountingClassifier first = new CountingClassifier(Box.class);
+		classifiers.add(0, first);
+		table.setPrecedence(1);
+		assertNotNull(table.getGenerator(a, b));
+		assertNotNull(table.getGenerator(a, b));
+		assertEquals(2, first.calls);
+		assertEquals(1, registered.calls);
+	}
+
+	/**
+	 * A classifier added to the contact manager overrides the classifier registered for capsule pairs
+	 */
+	public void testUserClassifierOverridesRegistered() {
+		DefaultScene scene = new DefaultScene();
+		DefaultContactConstraintManager manager = (DefaultContactConstraintManager)scene.getContactConstraintManager();
+		CountingClassifier capsules = new CountingClassifier(UniformCapsule.class);
+		manager.addContactGeneratorClassifier(capsules);
+
+		Body a = new Body("a", new UniformCapsule(0.5,1));
+		Body b = new Body("b", new UniformCapsule(0.5,1));
+		a.setFixed(true);
+		b.setPosition(0,0.9,0);
+		scene.addBody(a);
+		scene.addBody(b);
+		scene.tick();
+		assertEquals(1, capsules.calls);
+	}
+
+	/**
+	 * Generators of pairs that separate and overlap again are reused
+	 */
+	public void testRecycling() {
+		DefaultScene scene = new DefaultScene();
+		DefaultContactConstraintManager manager = (DefaultContactConstraintManager)scene.getContactConstraintManager();
+		CountingClassifier boxes = new CountingClassifier(Box.class);
+		manager.getContactGeneratorTable().register(Box.class, Box.class, boxes);
+
+		Body a = new Body("a", new Box(1,1,1));
+		Body b = new Body("b", new Box(1,1,1));
+		a.setFixed(true);
+		b.setPosition(0,1.1,0);
+		scene.addBody(a);
+		scene.addBody(b);
+
+		scene.tick();
+		assertEquals(1, boxes.calls);
+
+		// separate and overlap again
+		b.setPosition(0,5,0);
+		scene.tick();
+		b.setPosition(0,1.1,0);
+		scene.tick();
+		assertEquals(1, boxes.calls);
+
+		// without the cache, a new generator is created
+		manager.setGeneratorCacheSize(0);
+		b.setPosition(0,5,0);
+		scene.tick();
+		b.setPosition(0,1.1,0);
+		scene.tick();
+		assertEquals(2, boxes.calls);
+	}
+
+	/**
+	 * Generators are not reused after the envelopes or the classifiers changed
+	 */
+	public void testRecyclingChangedSettings() {
+		DefaultScene scene = new DefaultScene();
+		DefaultContactConstraintManager manager = (DefaultContactConstraintManager)scene.getContactConstraintManager();
+		CountingClassifier boxes = new CountingClassifier(Box.class);
+		manager.getContactGeneratorTable().register(Box.class, Box.class, boxes);
+
+		Box geometry = new Box(1,1,1);
+		Body a = new Body("a", new Box(1,1,1));
+		Body b = new Body("b", geometry);
+		a.setFixed(true);
+		b.setPosition(0,1.1,0);
+		scene.addBody(a);
+		scene.addBody(b);
+		scene.tick();
+		assertEquals(1, boxes.calls);
+
+		// the envelope changes while the pair is separated
+		b.setPosition(0,5,0);
+		scene.tick();
+		geometry.setEnvelope(0.2);
+		b.setPosition(0,1.1,0);
+		scene.tick();
+		assertEquals(2, boxes.calls);
+
+		// the envelope changes while the pair overlaps
+		geometry.setEnvelope(0.15);
+		b.setPosition(0,5,0);
+		scene.tick();
+		b.setPosition(0,1.1,0);
+		scene.tick();
+		assertEquals(3, boxes.calls);
+
+		// a classifier is registered directly in the table
+		CountingClassifier registered = new CountingClassifier(Box.class);
+		b.setPosition(0,5,0);
+		scene.tick();
+		manager.getContactGeneratorTable().register(Box.class, Box.class, registered);
+		b.setPosition(0,1.1,0);
+		scene.tick();
+		assertEquals(1, registered.calls);
+
+		// a classifier is added to the manager
+		CountingClassifier user = new CountingClassifier(Box.class);
+		b.setPosition(0,5,0);
+		scene.tick();
+		manager.addContactGeneratorClassifier(user);
+		b.setPosition(0,1.1,0);
+		scene.tick();
+		assertEquals(1, user.calls);
+		assertEquals(1, registered.calls);
+		assertEquals(3, boxes.calls);
+	}
+
+	/**
+	 * Generators of removed bodies are not kept for reuse
+	 */
+	public void testRecyclingRemovedBodies() {
+		DefaultScene scene = new DefaultScene();
+		DefaultContactConstraintManager manager = (DefaultContactConstraintManager)scene.getContactConstraintManager();
+		CountingClassifier boxes = new CountingClassifier(Box.class);
+		manager.getContactGeneratorTable().register(Box.class, Box.class, boxes);
+
+		Body a = new Body("a", new Box(1,1,1));
+		Body b = new Body("b", new Box(1,1,1));
+		Body c = new Body("c", new Box(1,1,1));
+		a.setFixed(true);
+		b.setPosition(0,1.1,0);
+		c.setPosition(0,-1.1,0);
+		scene.addBody(a);
+		scene.addBody(b);
+		scene.addBody(c);
+		scene.tick();
+		assertEquals(2, boxes.calls);
+
+		// removing and adding the bodies again creates new generators
+		scene.removeBody(b);
+		scene.addBody(b);
+		scene.tick();
+		assertEquals(3, boxes.calls);
+
+		scene.removeBodies(Arrays.asList(b, c));
+		scene.addBody(b);
+		scene.addBody(c);
+		scene.tick();
+		assertEquals(5, boxes.calls);
+	}
+}
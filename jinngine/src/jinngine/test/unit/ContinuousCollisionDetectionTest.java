@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.geometry.Box;
+import jinngine.geometry.Geometry;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import junit.framework.TestCase;
+
+public class ContinuousCollisionDetectionTest extends TestCase {
+
+	/**
+	 * Shoot a small box at a thin wall, and return its final x position
+	 */
+	private double shoot( boolean continuous ) {
+		return shoot(continuous, ~0, null);
+	}
+
+	/**
+	 * Shoot a small box at a thin wall, with the given collision mask of the bullet and pair filter
+	 */
+	private double shoot( boolean continuous, int mask, BroadphaseCollisionDetection.PairFilter filter ) {
+		DefaultScene scene = new DefaultScene();
+		scene.getBroadphase().setPairFilter(filter);
+		scene.setTimestep(1/30.0);
+
+		// thin fixed wall at x=5
+		Body wall = new Body("wall", new Box(0.1,10,10));
+		wall.setPosition(5,0,0);
+		wall.setFixed(true);
+		scene.addBody(wall);
+
+		// small box moving 5 units per time-step
+		Box box = new Box(0.2,0.2,0.2);
+		box.setCollisionMask(mask);
+		Body bullet = new Body("bullet", box);
+		bullet.setVelocity(150,0,0);
+		bullet.setContinuousCollisionDetection(continuous);
+		scene.addBody(bullet);
+
+		for (int i=0; i<10; i++)
+			scene.tick();
+
+		return bullet.getPosition().x;
+	}
+
+	public void testTunnelling() {
+		// without continuous collision detection, the bullet passes through the wall
+		assertTrue(shoot(false) > 5);
+	}
+
+	public void testStopsAtWall() {
+		// with continuous collision detection, the bullet hits the wall and stays in front of it
+		double x = shoot(true);
+		assertTrue(x < 5-0.05-0.1+0.01);
+	}
+
+	public void testFilteredPassesWall() {
+		// geometries that may not collide are not stopped, by their masks or by the pair filter. The bullet 
+		// then moves 5 units in each of the 10 time-steps
+		assertEquals(50, shoot(true, 0, null), 1e-6);
+		assertEquals(50, shoot(true, ~0, new BroadphaseCollisionDetection.PairFilter() {
+			public boolean accept(Geometry a, Geometry b) { return false; }
+		}), 1e-6);
+	}
+}
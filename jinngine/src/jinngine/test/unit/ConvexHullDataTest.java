@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import jinngine.geometry.ConvexHull;
+import jinngine.geometry.ConvexHullData;
+import jinngine.math.InertiaMatrix;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import junit.framework.TestCase;
+
+public class ConvexHullDataTest extends TestCase {
+
+	private static final double epsilon = 1e-12;
+
+	private static List<Vector3> tetrahedron() {
+		return Arrays.asList(new Vector3(0,0,0), new Vector3(1,0,0), new Vector3(0,1,0), new Vector3(0,0,1));
+	}
+
+	private static List<Vector3> octahedron() {
+		return Arrays.asList(new Vector3(1,0,0), new Vector3(-1,0,0), new Vector3(0,1,0),
+				new Vector3(0,-1,0), new Vector3(0,0,1), new Vector3(0,0,-1));
+	}
+
+	/**
+	 * Volume, centre of mass and inertia of the unit corner tetrahedron, compared to closed form values
+	 */
+	public void testTetrahedron() {
+		ConvexHullData data = ConvexHullData.build(tetrahedron());
+		assertEquals(4, data.getNumberOfVertices());
+		assertEquals(1.0/6, data.getMass(), epsilon);
+
+		Vector3 com = data.getCentreOfMass();
+		assertEquals(0.25, com.x, epsilon);
+		assertEquals(0.25, com.y, epsilon);
+		assertEquals(0.25, com.z, epsilon);
+
+		InertiaMatrix I = data.getInertiaMatrix();
+		assertEquals(1.0/80, I.a11, epsilon);
+		assertEquals(1.0/80, I.a22, epsilon);
+		assertEquals(1.0/80, I.a33, epsilon);
+		assertEquals(1.0/480, I.a12, epsilon);
+		assertEquals(1.0/480, I.a13, epsilon);
+		assertEquals(1.0/480, I.a23, epsilon);
+
+		// the hull is given in centre of mass coordinates
+		ConvexHull hull = new ConvexHull(data);
+		new Body("hull", hull);
+		Vector3 p = hull.supportPoint(new Vector3(1,0,0));
+		assertEquals(0.75, p.x, epsilon);
+	}
+
+	/**
+	 * Octahedron with vertices on the unit axes, with volume 4/3 and a diagonal inertia tensor
+	 */
+	public void testOctahedron() {
+		ConvexHull hull = new ConvexHull(octahedron());
+		assertEquals(4.0/3, hull.getMass(), epsilon);
+		assertEquals(0, hull.getCentreOfMass().norm(), epsilon);
+
+		InertiaMatrix I = hull.getInertialMatrix();
+		assertEquals(4.0/15, I.a11, epsilon);
+		assertEquals(4.0/15, I.a22, epsilon);
+		assertEquals(4.0/15, I.a33, epsilon);
+		assertEquals(0, I.a12, epsilon);
+		assertEquals(0, I.a13, epsilon);
+		assertEquals(0, I.a23, epsilon);
+	}
+
+	/**
+	 * Hulls created from the same data share the shape, but have their own scale and mass
+	 */
+	public void testSharedInstances() {
+		ConvexHullData data = ConvexHullData.build(octahedron());
+		ConvexHull h1 = new ConvexHull(data);
+		ConvexHull h2 = new ConvexHull(data);
+		assertSame(h1.getHullData(), h2.getHullData());
+
+		h2.setLocalScale(new Vector3(2,2,2));
+		h2.setMass(8);
+		new Body("h1", h1);
+		new Body("h2", h2);
+
+		Vector3 d = new Vector3(1,0,0);
+		assertEquals(1, h1.supportPoint(d).x, epsilon);
+		assertEquals(2, h2.supportPoint(d).x, epsilon);
+		assertEquals(1, h1.getMaxBounds().x, epsilon);
+		assertEquals(2, h2.getMaxBounds().x, epsilon);
+		assertEquals(4.0/3, h1.getMass(), epsilon);
+		assertEquals(4.0/15, h1.getInertialMatrix().a11, epsilon);
+	}
+
+	/**
+	 * Random points on the unit sphere give a hull with a cube map. Support points and faces found through the
+	 * cube map are compared to an exhaustive search, for random directions
+	 */
+	public void testCubeMap() {
+		Random random = new Random(1);
+		List<Vector3> points = new ArrayList<Vector3>();
+		for (int i=0; i<100; i++)
+			points.add(new Vector3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize());
+
+		ConvexHullData data = ConvexHullData.build(points);
+		assertTrue(data.getCubeMapResolution() > 0);
+		assertEquals(0, ConvexHullData.build(points, 0).getCubeMapResolution());
+
+		ConvexHull hull = new ConvexHull(data);
+		new Body("hull", hull);
+		final double[] feature = new double[3*hull.getMaxFeatureSize()];
+
+		for (int n=0; n<1000; n++) {
+			Vector3 d = new Vector3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+
+			// exhaustive search
+			double best = Double.NEGATIVE_INFINITY;
+			Iterator<Vector3> vertices = hull.getVertices();
+			while (vertices.hasNext())
+				best = Math.max(best, d.dot(vertices.next()));
+			assertEquals(best, d.dot(hull.supportPoint(d)), epsilon);
+
+			// the support face has the normal closest to d
+			double bestnormal = Double.NEGATIVE_INFINITY;
+			Iterator<Vector3[]> faces = hull.getFaces();
+			while (faces.hasNext())
+				bestnormal = Math.max(bestnormal, d.dot(normal(faces.next())));
+			List<Vector3> face = new ArrayList<Vector3>();
+			hull.supportFeature(d, face);
+			assertEquals(bestnormal, d.dot(normal(face.toArray(new Vector3[0]))), epsilon);
+
+			// the same face is written to an array
+			assertEquals(face.size(), hull.supportFeature(d, feature));
+			for (int i=0; i<face.size(); i++)
+				assertEquals(0, face.get(i).sub(new Vector3(feature[3*i], feature[3*i+1], feature[3*i+2])).norm(), epsilon);
+		}
+	}
+
+	private static Vector3 normal( Vector3[] face ) {
+		return face[1].sub(face[0]).cross(face[2].sub(face[0])).normalize();
+	}
+
+	/**
+	 * Hull data written to a file and loaded again through a mapped buffer gives identical hulls
+	 */
+	public void testSaveLoad() throws IOException {
+		List<ConvexHullData> hulls = new ArrayList<ConvexHullData>();
+		hulls.add(ConvexHullData.build(tetrahedron()));
+		hulls.add(ConvexHullData.build(octahedron(), 4));
+
+		File file = File.createTempFile("hulls", ".bin");
+		try {
+			ConvexHullData.save(file, hulls);
+			assertEquals(hulls.get(0).getByteSize()+hulls.get(1).getByteSize(), file.length());
+
+			List<ConvexHullData> loaded = ConvexHullData.load(file);
+			assertEquals(2, loaded.size());
+
+			for (int i=0; i<2; i++) {
+				ConvexHullData expected = hulls.get(i);
+				ConvexHullData actual = loaded.get(i);
+				assertEquals(expected.getNumberOfVertices(), actual.getNumberOfVertices());
+				assertEquals(expected.getNumberOfFaces(), actual.getNumberOfFaces());
+				assertEquals(expected.getCubeMapResolution(), actual.getCubeMapResolution());
+				assertEquals(expected.getMass(), actual.getMass());
+				assertEquals(0.0, expected.getCentreOfMass().sub(actual.getCentreOfMass()).norm());
+				assertEquals(expected.getInertiaMatrix().a12, actual.getInertiaMatrix().a12);
+
+				// support points and features agree
+				ConvexHull h1 = new ConvexHull(expected);
+				ConvexHull h2 = new ConvexHull(actual);
+				new Body("h1", h1);
+				new Body("h2", h2);
+				Vector3 d = new Vector3(0.3,-0.7,0.2);
+				assertEquals(0.0, h1.supportPoint(d).sub(h2.supportPoint(d)).norm());
+				List<Vector3> f1 = new ArrayList<Vector3>();
+				List<Vector3> f2 = new ArrayList<Vector3>();
+				h1.supportFeature(d, f1);
+				h2.supportFeature(d, f2);
+				assertEquals(f1.size(), f2.size());
+			}
+		} finally {
+			file.delete();
+		}
+
+		// garbage is rejected
+		try {
+			ConvexHullData.read(ByteBuffer.allocate(64));
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+}
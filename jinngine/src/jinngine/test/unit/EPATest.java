@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.collision.EPA;
+import jinngine.collision.GJK;
+import jinngine.geometry.Box;
+import jinngine.geometry.SupportMap3;
+import jinngine.geometry.UniformCapsule;
+import jinngine.math.Matrix3;
+import jinngine.math.Quaternion;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import junit.framework.TestCase;
+
+public class EPATest extends TestCase {
+
+	//error tolerance
+	double epsilon = 1e-7;
+
+	private final GJK gjk = new GJK();
+	private final EPA epa = new EPA();
+	private final Vector3 pa = new Vector3();
+	private final Vector3 pb = new Vector3();
+	private final Vector3 normal = new Vector3();
+
+	/**
+	 * Run GJK, expect intersection, and return the EPA depth
+	 */
+	private double depth( SupportMap3 Sa, SupportMap3 Sb ) {
+		gjk.run(Sa, Sb, pa, pb, Double.POSITIVE_INFINITY, epsilon, 31);
+		assertTrue(gjk.getState().intersection);
+		return epa.run(Sa, Sb, gjk.getState(), pa, pb, normal, epsilon);
+	}
+
+	private void assertNormal( double x, double y, double z ) {
+		assertEquals(x, normal.x, 1e-6);
+		assertEquals(y, normal.y, 1e-6);
+		assertEquals(z, normal.z, 1e-6);
+	}
+
+	/*
+	 * Two unit cubes, box 1 displaced upwards from box 2, at different depths. We expect box 1 to be
+	 * pushed out along the y axis.
+	 */
+	public void testBoxBox() {
+		Box box1 = new Box(1,1,1);
+		Body b1 = new Body("box1", box1);
+		Box box2 = new Box(1,1,1);
+		new Body("box2", box2);
+
+		// shallow
+		b1.setPosition(0.1, 0.8, 0);
+		assertEquals(0.2, depth(box1, box2), 1e-6);
+		assertNormal(0,1,0);
+
+		// the witness points are depth times normal apart
+		assertEquals(0.2, pb.sub(pa).dot(normal), 1e-6);
+		assertEquals(0, pb.sub(pa).cross(normal).norm(), 1e-6);
+
+		// deep
+		b1.setPosition(0, 0.05, 0.01);
+		assertEquals(0.95, depth(box1, box2), 1e-6);
+		assertNormal(0,1,0);
+
+		// the smallest overlap is along the x axis
+		b1.setPosition(-0.9, 0.5, 0);
+		assertEquals(0.1, depth(box1, box2), 1e-6);
+		assertNormal(-1,0,0);
+	}
+
+	/*
+	 * A cube rotated 45 degrees about the z axis, with an edge pointing into the cube below it
+	 */
+	public void testRotatedBox() {
+		Box box1 = new Box(1,1,1);
+		Body b1 = new Body("box1", box1);
+		Box box2 = new Box(1,1,1);
+		new Body("box2", box2);
+
+		b1.setOrientation(Quaternion.toRotationMatrix3(Quaternion.rotation(Math.PI/4, new Vector3(0,0,1)), new Matrix3()));
+		b1.setPosition(0, 1.1, 0);
+		assertEquals(0.5*Math.sqrt(2)-0.6, depth(box1, box2), 1e-6);
+		assertNormal(0,1,0);
+		assertEquals(1.1-0.5*Math.sqrt(2), pa.y, 1e-6);
+	}
+
+	/*
+	 * The cores of two capsules are crossing segments, whose difference is flat. EPA cannot
+	 * build a polytope, and reports positive infinity
+	 */
+	public void testFlat() {
+		UniformCapsule c1 = new UniformCapsule(0.5, 2);
+		Body b1 = new Body("capsule1", c1);
+		UniformCapsule c2 = new UniformCapsule(0.5, 2);
+		new Body("capsule2", c2);
+		b1.setOrientation(Quaternion.toRotationMatrix3(Quaternion.rotation(Math.PI/2, new Vector3(0,1,0)), new Matrix3()));
+
+		assertEquals(Double.POSITIVE_INFINITY, depth(c1, c2));
+	}
+}
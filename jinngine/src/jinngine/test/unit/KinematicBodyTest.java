@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.geometry.Box;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class KinematicBodyTest extends TestCase {
+
+	private DefaultScene scene;
+	private Body floor, platform, box;
+
+	/**
+	 * A box resting on a kinematic platform, which rests on a fixed floor
+	 */
+	@Override
+	protected void setUp() {
+		scene = new DefaultScene();
+		scene.setTimestep(0.02);
+
+		floor = new Body("floor", new Box(20,1,20));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+
+		platform = new Body("platform", new Box(4,0.5,4));
+		platform.setPosition(0,0.25,0);
+		platform.setKinematic(true);
+		scene.addBody(platform);
+		scene.addForce(new GravityForce(platform));
+
+		box = new Body("box", new Box(1,1,1));
+		box.setPosition(0,1.0,0);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+	}
+
+	/**
+	 * The platform follows its velocity, unaffected by gravity and by the box on top of it
+	 */
+	public void testVelocityDriven() {
+		assertTrue(platform.isFixed());
+		platform.setVelocity(1,0,0);
+		for (int i=0; i<50; i++)
+			scene.tick();
+
+		assertEquals(1.0, platform.getPosition().x, 1e-9);
+		assertEquals(0.25, platform.getPosition().y, 1e-9);
+		assertFalse(platform.deactivated);
+
+		// the box is carried along on top of the platform
+		assertEquals(1.0, box.getPosition().y, 0.1);
+		assertEquals(1.0, box.getPosition().x, 0.1);
+	}
+
+	/**
+	 * A platform that starts moving wakes the box resting on it
+	 */
+	public void testWakesRestingBodies() {
+		for (int i=0; i<100; i++)
+			scene.tick();
+		assertTrue(box.deactivated);
+		assertFalse(platform.deactivated);
+
+		platform.setVelocity(0,1,0);
+		scene.tick();
+		scene.tick();
+		assertFalse(box.deactivated);
+		assertTrue(box.getPosition().y > 1.0);
+	}
+
+	/**
+	 * Toggle the platform between kinematic and dynamic during animation
+	 */
+	public void testToggle() {
+		// lift the platform, and let it fall onto the floor as a dynamic body
+		platform.setVelocity(0,1,0);
+		for (int i=0; i<25; i++)
+			scene.tick();
+		assertEquals(0.75, platform.getPosition().y, 1e-9);
+
+		platform.setVelocity(0,0,0);
+		scene.setKinematic(platform, false);
+		assertFalse(platform.isFixed());
+		for (int i=0; i<150; i++)
+			scene.tick();
+		assertEquals(0.25, platform.getPosition().y, 0.1);
+		assertEquals(1.0, box.getPosition().y, 0.15);
+		assertTrue(box.deactivated);
+
+		// kinematic again, the platform carries the sleeping box along
+		scene.setKinematic(platform, true);
+		final double z = box.getPosition().z;
+		platform.setVelocity(0,0,1);
+		for (int i=0; i<50; i++)
+			scene.tick();
+		assertEquals(1.0, platform.getPosition().z, 0.01);
+		assertTrue(box.getPosition().z - z > 0.5);
+
+		// fixing and releasing a body must also keep the scene consistent
+		platform.setVelocity(0,0,0);
+		scene.setKinematic(platform, false);
+		scene.fixBody(box, true);
+		scene.fixBody(box, false);
+		for (int i=0; i<100; i++)
+			scene.tick();
+		assertEquals(0.25, platform.getPosition().y, 0.1);
+		assertEquals(1.0, box.getPosition().y, 0.15);
+	}
+}
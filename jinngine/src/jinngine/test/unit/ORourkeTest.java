@@ -871,6 +871,119 @@ public class ORourkeTest extends TestCase {
 
 
 	
+	/**
+	 * Run the array variant, and return the points on poly1 and poly2 in p and q
+	 */
+	private int runArray( List<Vector3> poly1, List<Vector3> poly2, List<Vector3> p, List<Vector3> q ) {
+		final int n = poly1.size(), m = poly2.size();
+		final double[] a = new double[3*n], b = new double[3*m];
+		for (int i=0; i<n; i++) { a[3*i] = poly1.get(i).x; a[3*i+1] = poly1.get(i).y; a[3*i+2] = poly1.get(i).z; }
+		for (int i=0; i<m; i++) { b[3*i] = poly2.get(i).x; b[3*i+1] = poly2.get(i).y; b[3*i+2] = poly2.get(i).z; }
+		final double[] result = new double[6*(n+m)];
+		final int points = ORourke.run(a, n, b, m, result, new double[3*(n+m)]);
+		p.clear(); q.clear();
+		for (int i=0; i<points; i++) {
+			p.add(new Vector3(result[6*i], result[6*i+1], result[6*i+2]));
+			q.add(new Vector3(result[6*i+3], result[6*i+4], result[6*i+5]));
+		}
+		return points;
+	}
+	
+	private static List<Vector3> box( double x0, double y0, double x1, double y1, double zx, double zy, double z0 ) {
+		// counter clock wise box in the plane z = z0 + zx x + zy y
+		List<Vector3> box = new ArrayList<Vector3>();
+		box.add(new Vector3(x0, y0, z0+zx*x0+zy*y0));
+		box.add(new Vector3(x1, y0, z0+zx*x1+zy*y0));
+		box.add(new Vector3(x1, y1, z0+zx*x1+zy*y1));
+		box.add(new Vector3(x0, y1, z0+zx*x0+zy*y1));
+		return box;
+	}
+	
+	public void testArrayBoxBox() {
+		// overlapping boxes in two different planes, the result has the z values of each plane
+		List<Vector3> box1 = box(0,0,1,1, 0.1,0,0);
+		List<Vector3> box2 = box(0.5,0.5,1.5,1.5, 0,0.2,1);
+		List<Vector3> p = new ArrayList<Vector3>();
+		List<Vector3> q = new ArrayList<Vector3>();
+		assertEquals(4, runArray(box1, box2, p, q));
+		assertTrue(verifyPolygon(p, box(0.5,0.5,1,1, 0.1,0,0)));
+		assertTrue(verifyPolygon(q, box(0.5,0.5,1,1, 0,0.2,1)));
+		
+		// same as the list variant, which reports the points on poly2
+		List<Vector3> result = new ArrayList<Vector3>();
+		ORourke.run(box1, box2, result);
+		assertTrue(verifyPolygon(q, result));
+		
+		// contained, both ways
+		box1 = box(-1,-1,1,1, 0,0,0);
+		box2 = box(-0.5,-0.5,0.5,0.5, 0,0,0);
+		assertEquals(4, runArray(box1, box2, p, q));
+		assertTrue(verifyPolygon(p, box2));
+		assertEquals(4, runArray(box2, box1, p, q));
+		assertTrue(verifyPolygon(p, box2));
+		
+		// coinciding
+		assertEquals(4, runArray(box1, box1, p, q));
+		assertTrue(verifyPolygon(p, box1));
+		
+		// separated
+		assertEquals(0, runArray(box1, box(2,2,3,3, 0,0,0), p, q));
+	}
+	
+	public void testArrayLineBox() {
+		List<Vector3> box1 = box(0,0,1,1, 0,0,1);
+		List<Vector3> line = new ArrayList<Vector3>();
+		line.add(new Vector3(0.5,0.5,0));
+		line.add(new Vector3(1.5,0.5,0));
+		List<Vector3> p = new ArrayList<Vector3>();
+		List<Vector3> q = new ArrayList<Vector3>();
+		
+		List<Vector3> expected = new ArrayList<Vector3>();
+		expected.add(new Vector3(0.5,0.5,0));
+		expected.add(new Vector3(1.0,0.5,0));
+		assertEquals(2, runArray(line, box1, p, q));
+		assertTrue(verifyPolygon(p, expected));
+		for (Vector3 v: q)
+			assertEquals(1, v.z, epsilon);
+		
+		// swapped arguments
+		assertEquals(2, runArray(box1, line, p, q));
+		assertTrue(verifyPolygon(q, expected));
+		
+		// point in box
+		List<Vector3> point = new ArrayList<Vector3>();
+		point.add(new Vector3(0.25,0.75,0));
+		assertEquals(1, runArray(point, box1, p, q));
+		assertEquals(0, q.get(0).sub(new Vector3(0.25,0.75,1)).norm(), epsilon);
+	}
+	
+	public void testArrayLineLine() {
+		List<Vector3> line1 = new ArrayList<Vector3>();
+		List<Vector3> line2 = new ArrayList<Vector3>();
+		List<Vector3> p = new ArrayList<Vector3>();
+		List<Vector3> q = new ArrayList<Vector3>();
+		
+		// crossing
+		line1.add(new Vector3(0,0,0));
+		line1.add(new Vector3(1,1,0));
+		line2.add(new Vector3(0,1,1));
+		line2.add(new Vector3(1,0,1));
+		assertEquals(1, runArray(line1, line2, p, q));
+		assertEquals(0, p.get(0).sub(new Vector3(0.5,0.5,0)).norm(), epsilon);
+		assertEquals(0, q.get(0).sub(new Vector3(0.5,0.5,1)).norm(), epsilon);
+		
+		// parallel and overlapping, same as the list variant
+		line1.clear(); line2.clear();
+		line1.add(new Vector3(0,0,0));
+		line1.add(new Vector3(2,0,0));
+		line2.add(new Vector3(3,0,1));
+		line2.add(new Vector3(1,0,1));
+		List<Vector3> result = new ArrayList<Vector3>();
+		ORourke.run(line1, line2, result);
+		assertEquals(2, runArray(line1, line2, p, q));
+		assertTrue(verifyPolygon(q, result));
+	}
+	
 	private boolean verifyPolygon( List<Vector3> poly1, List<Vector3> poly2) {
 		// this is an auxiliary method that poly1 contains the same sequence of points 
 		// as poly2, and vice versa. 
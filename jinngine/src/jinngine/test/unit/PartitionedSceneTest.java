@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.Iterator;
+
+import jinngine.geometry.Box;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.PartitionedScene;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class PartitionedSceneTest extends TestCase {
+
+	private final PartitionedScene.GhostFactory factory = new PartitionedScene.GhostFactory() {
+		public Body createGhost(Body body) {
+			return new Body("ghost", body.identifier.equals("large")? new Box(4,1,1) : new Box(1,1,1));
+		}
+	};
+
+	private PartitionedScene scene;
+
+	/**
+	 * Two regions along the x axis, each 10 units wide
+	 */
+	@Override
+	protected void setUp() {
+		scene = new PartitionedScene(new Vector3(), 10, 2, 1, 0.5, factory);
+		scene.setTimestep(0.02);
+	}
+
+	@Override
+	protected void tearDown() {
+		scene.shutdown();
+	}
+
+	private static int count( Iterator<Body> bodies ) {
+		int n = 0;
+		while (bodies.hasNext()) {
+			bodies.next();
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * A body moving across the region boundary changes owner, and has a ghost while near the boundary
+	 */
+	public void testMigration() {
+		Body box = new Body("box", new Box(1,1,1));
+		box.setPosition(8,0,5);
+		box.setVelocity(2,0,0);
+		scene.addBody(box);
+		assertSame(scene.getRegion(0,0), scene.getRegion(box));
+		assertEquals(0, count(scene.getRegion(1,0).getBodies()));
+
+		// within the margin of the second region
+		for (int i=0; i<30; i++)
+			scene.tick();
+		assertEquals(9.2, box.getPosition().x, 1e-9);
+		assertSame(scene.getRegion(0,0), scene.getRegion(box));
+		assertEquals(1, count(scene.getRegion(1,0).getBodies()));
+		Body ghost = scene.getRegion(1,0).getBodies().next();
+		assertFalse(ghost.isKinematic());
+		assertEquals(box.getMass(), ghost.getMass(), 1e-12);
+		assertEquals(9.2, ghost.getPosition().x, 1e-9);
+
+		// into the second region, the ghost is now in the first region
+		for (int i=0; i<30; i++)
+			scene.tick();
+		assertSame(scene.getRegion(1,0), scene.getRegion(box));
+		assertEquals(1, count(scene.getRegion(1,0).getBodies()));
+		assertSame(box, scene.getRegion(1,0).getBodies().next());
+		assertEquals(1, count(scene.getRegion(0,0).getBodies()));
+
+		// far from the boundary
+		for (int i=0; i<60; i++)
+			scene.tick();
+		assertEquals(0, count(scene.getRegion(0,0).getBodies()));
+
+		scene.removeBody(box);
+		assertEquals(0, count(scene.getRegion(1,0).getBodies()));
+		assertNull(scene.getRegion(box));
+	}
+
+	/**
+	 * Bodies in different regions collide through their ghosts
+	 */
+	public void testBoundaryContact() {
+		Body moving = new Body("moving", new Box(1,1,1));
+		moving.setPosition(8.5,0,5);
+		moving.setVelocity(2,0,0);
+		scene.addBody(moving);
+
+		Body resting = new Body("resting", new Box(1,1,1));
+		resting.setPosition(10.6,0,5);
+		scene.addBody(resting);
+		assertSame(scene.getRegion(1,0), scene.getRegion(resting));
+
+		for (int i=0; i<50; i++)
+			scene.tick();
+
+		// the resting box was pushed, and the boxes did not pass through each other
+		assertTrue(resting.getPosition().x > 10.7);
+		assertTrue(resting.getPosition().x - moving.getPosition().x > 0.9);
+
+		// the contact is solved once, with the real masses of both boxes
+		assertEquals(2.0, moving.getVelocity().x + resting.getVelocity().x, 1e-9);
+		assertTrue(moving.getVelocity().x < 1.5);
+	}
+
+	/**
+	 * Boxes resting on a floor that spans the region boundary, added to the scene of each region
+	 */
+	public void testFloorAcrossBoundary() {
+		for (int i=0; i<2; i++) {
+			Body floor = new Body("floor", new Box(20,1,10));
+			floor.setPosition(10,-0.5,5);
+			floor.setFixed(true);
+			scene.getRegion(i,0).addBody(floor);
+		}
+
+		// one box near the boundary, with ghosts in both regions, and one far from it
+		Body near = new Body("near", new Box(1,1,1));
+		near.setPosition(10.3,1,5);
+		scene.addBody(near);
+		scene.addForce(near, new GravityForce(near));
+		Body far = new Body("far", new Box(1,1,1));
+		far.setPosition(15,1,5);
+		scene.addBody(far);
+		scene.addForce(far, new GravityForce(far));
+
+		for (int i=0; i<200; i++)
+			scene.tick();
+
+		// the floor impulse is only applied once, so both boxes come to rest on the floor
+		assertEquals(0.5, near.getPosition().y, 0.1);
+		assertEquals(0.5, far.getPosition().y, 0.1);
+		assertEquals(0.0, near.getVelocity().norm(), 0.1);
+	}
+
+	/**
+	 * A large body reaching far into the next region pushes a body that is not near the region boundary
+	 */
+	public void testLargeBodyAcrossBoundary() {
+		Body large = new Body("large", new Box(4,1,1));
+		large.setPosition(7.5,0,5);
+		large.setVelocity(2,0,0);
+		scene.addBody(large);
+
+		Body resting = new Body("resting", new Box(1,1,1));
+		resting.setPosition(11.2,0,5);
+		scene.addBody(resting);
+
+		for (int i=0; i<50; i++)
+			scene.tick();
+
+		assertSame(scene.getRegion(0,0), scene.getRegion(large));
+		assertTrue(resting.getPosition().x > 11.5);
+		assertTrue(resting.getPosition().x - large.getPosition().x > 2.4);
+		assertEquals(4*2.0, 4*large.getVelocity().x + resting.getVelocity().x, 1e-9);
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jinngine.geometry.Box;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.SupportMap3;
+import jinngine.math.Vector3;
+import jinngine.physics.BatchRayCast;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.SceneQuery;
+import junit.framework.TestCase;
+
+public class SceneQueryTest extends TestCase {
+
+	private final DefaultScene scene = new DefaultScene();
+	private final SceneQuery query = new SceneQuery(scene);
+	private final Box[] boxes = new Box[10];
+
+	/**
+	 * Ten fixed unit boxes along the x axis, with a spacing of 3 units
+	 */
+	@Override
+	protected void setUp() {
+		for (int i=0; i<boxes.length; i++) {
+			boxes[i] = new Box(1,1,1);
+			Body body = new Body("box"+i, boxes[i]);
+			body.setPosition(i*3,0,0);
+			body.setFixed(true);
+			scene.addBody(body);
+		}
+		scene.tick();
+	}
+
+	public void testRaycastClosest() {
+		SceneQuery.Hit hit = new SceneQuery.Hit();
+
+		// from the left, along the x axis
+		assertTrue(query.raycast(new Vector3(-10,0,0), new Vector3(1,0,0), Double.POSITIVE_INFINITY, null, hit));
+		assertSame(boxes[0], hit.geometry);
+		assertEquals(9.5, hit.parameter, 0.02);
+		assertEquals(-1, hit.normal.x, 1e-3);
+
+		// from the right, ignoring the last box
+		SceneQuery.Filter filter = new SceneQuery.Filter() {
+			public boolean accept(Geometry g) { return g != boxes[9]; }
+		};
+		assertTrue(query.raycast(new Vector3(40,0,0), new Vector3(-1,0,0), Double.POSITIVE_INFINITY, filter, hit));
+		assertSame(boxes[8], hit.geometry);
+
+		// too short to reach anything
+		assertFalse(query.raycast(new Vector3(-10,0,0), new Vector3(1,0,0), 5, null, hit));
+
+		// passing above the boxes
+		assertFalse(query.raycast(new Vector3(-10,2,0), new Vector3(1,0,0), Double.POSITIVE_INFINITY, null, hit));
+	}
+
+	public void testRaycastAll() {
+		SceneQuery.HitBuffer hits = new SceneQuery.HitBuffer(2);
+		assertEquals(10, query.raycastAll(new Vector3(-10,0,0), new Vector3(1,0,0), Double.POSITIVE_INFINITY, null, hits));
+		assertEquals(10, hits.size());
+		for (int i=0; i<hits.size(); i++)
+			assertSame(boxes[i], hits.get(i).geometry);
+
+		// ray ends inside the fourth box
+		hits.clear();
+		assertEquals(4, query.raycastAll(new Vector3(-10,0,0), new Vector3(1,0,0), 19, null, hits));
+	}
+
+	public void testOverlap() {
+		List<Geometry> result = new ArrayList<Geometry>();
+
+		// box covering the 3rd and 4th box
+		assertEquals(2, query.overlapBox(new Vector3(5,-1,-1), new Vector3(9.2,1,1), null, result));
+		assertTrue(result.contains(boxes[2]));
+		assertTrue(result.contains(boxes[3]));
+
+		// sphere reaching the 5th box only
+		result.clear();
+		assertEquals(1, query.overlapSphere(new Vector3(12,2,0), 1.6, null, result));
+		assertSame(boxes[4], result.get(0));
+
+		// the bounding box of this sphere overlaps the corner of the 5th box, but the sphere does not
+		result.clear();
+		assertEquals(0, query.overlapSphere(new Vector3(13.8,1.8,1.8), 1.5, null, result));
+	}
+
+	public void testShapeCast() {
+		// sphere of radius 0.5, centred at the start point
+		final SupportMap3 sphere = new SupportMap3() {
+			public Vector3 supportPoint(Vector3 direction) { return new Vector3(); }
+			public void supportFeature(Vector3 direction, List<Vector3> face) { face.add(new Vector3()); }
+			public double sphereSweepRadius() { return 0.5; }
+		};
+		SceneQuery.Hit hit = new SceneQuery.Hit();
+
+		// head on
+		assertTrue(query.shapeCast(sphere, new Vector3(-10,0,0), new Vector3(1,0,0), Double.POSITIVE_INFINITY, null, hit));
+		assertSame(boxes[0], hit.geometry);
+		assertEquals(9.0, hit.parameter, 0.02);
+		assertEquals(-1, hit.normal.x, 1e-3);
+
+		// a ray along this path would pass above the boxes, but the sphere hits the top of the second box
+		assertTrue(query.shapeCast(sphere, new Vector3(3,1.8,0), new Vector3(0,-1,0), 5, null, hit));
+		assertSame(boxes[1], hit.geometry);
+		assertEquals(0.8, hit.parameter, 0.02);
+		assertEquals(1, hit.normal.y, 1e-3);
+		assertFalse(query.raycast(new Vector3(4.8,1.8,0), new Vector3(1,0,0), 5, null, hit));
+		assertTrue(query.shapeCast(sphere, new Vector3(4.8,0.9,0), new Vector3(1,0,0), 5, null, hit));
+		assertSame(boxes[2], hit.geometry);
+
+		// sweeping between the boxes
+		assertFalse(query.shapeCast(sphere, new Vector3(1.5,5,0), new Vector3(0,-1,0), 10, null, hit));
+	}
+
+	public void testBatchRayCast() {
+		// random rays aimed at the row of boxes
+		final int n = 1000;
+		final Random random = new Random(7);
+		final double[] origins = new double[3*n], directions = new double[3*n], lengths = new double[n];
+		for (int i=0; i<n; i++) {
+			origins[3*i] = random.nextDouble()*30-3; origins[3*i+1] = 5; origins[3*i+2] = random.nextDouble()*4-2;
+			directions[3*i] = random.nextDouble()-0.5; directions[3*i+1] = -1; directions[3*i+2] = random.nextDouble()-0.5;
+			lengths[i] = random.nextDouble()*10;
+		}
+
+		final double[] distances = new double[n], normals = new double[3*n];
+		final Geometry[] geometries = new Geometry[n];
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			BatchRayCast batch = new BatchRayCast(scene, executor, 4);
+			batch.setChunkSize(16);
+			int hits = batch.cast(n, origins, directions, lengths, null, distances, normals, geometries);
+			assertTrue(hits > 0 && hits < n);
+
+			// compare with single ray casts
+			SceneQuery.Hit hit = new SceneQuery.Hit();
+			int count = 0;
+			for (int i=0; i<n; i++) {
+				Vector3 point = new Vector3(origins[3*i], origins[3*i+1], origins[3*i+2]);
+				Vector3 direction = new Vector3(directions[3*i], directions[3*i+1], directions[3*i+2]);
+				if (query.raycast(point, direction, lengths[i], null, hit)) {
+					count++;
+					assertSame(hit.geometry, geometries[i]);
+					assertEquals(hit.parameter, distances[i], 0.01);
+					Vector3 normal = new Vector3(normals[3*i], normals[3*i+1], normals[3*i+2]);
+					assertEquals(1, normal.norm(), 1e-9);
+					assertTrue(normal.dot(direction) < 0);
+				} else {
+					assertNull(geometries[i]);
+					assertEquals(Double.POSITIVE_INFINITY, distances[i]);
+				}
+			}
+			assertEquals(count, hits);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A ray hitting a box near the envelope gives the same result, no matter which rays were cast before it
+	 */
+	public void testRaycastIndependentOfEarlierRays() {
+		final Vector3 point = new Vector3(12.71682100059656, 5.0, -1.370764022407986);
+		final Vector3 direction = new Vector3(-0.23843627339492002, -1.0, 0.2513935590915912);
+		SceneQuery.Hit hit = new SceneQuery.Hit();
+
+		assertTrue(query.raycast(point, direction, 10, null, hit));
+		final Geometry geometry = hit.geometry;
+		final double parameter = hit.parameter;
+		final Vector3 normal = new Vector3(hit.normal);
+
+		// another ray, then the same ray again
+		query.raycast(new Vector3(24.06272578523271, 5.0, 0.1751148967589331), 
+				new Vector3(0.08857714644356751, -1.0, -0.4580632320051716), 10, null, hit);
+		assertTrue(query.raycast(point, direction, 10, null, hit));
+		assertSame(geometry, hit.geometry);
+		assertEquals(parameter, hit.parameter, 0.0);
+		assertEquals(0.0, normal.sub(hit.normal).norm(), 0.0);
+	}
+}
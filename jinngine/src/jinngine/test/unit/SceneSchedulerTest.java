@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jinngine.physics.DefaultScene;
+import jinngine.physics.SceneScheduler;
+import jinngine.physics.force.Force;
+import junit.framework.TestCase;
+
+public class SceneSchedulerTest extends TestCase {
+
+	/** Force counting the ticks of a scene, optionally sleeping in each tick */
+	private static final class TickForce implements Force {
+		final long sleep;
+		volatile int ticks = 0;
+		TickForce( long sleep ) { this.sleep = sleep; }
+		public void apply(double dt) {
+			ticks++;
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private static DefaultScene scene( Force force ) {
+		DefaultScene scene = new DefaultScene();
+		scene.addForce(force);
+		return scene;
+	}
+
+	/**
+	 * A scene at half the rate of another scene is ticked half as often
+	 */
+	public void testTickRates() {
+		TickForce fast = new TickForce(0), slow = new TickForce(0);
+		DefaultScene a = scene(fast), b = scene(slow);
+		SceneScheduler scheduler = new SceneScheduler();
+		try {
+			scheduler.setMaximumTicksPerAdvance(100);
+			scheduler.addScene(a, 64);
+			scheduler.addScene(b, 32);
+			for (int i=0; i<4; i++)
+				scheduler.advance(0.25);
+			assertEquals(64, fast.ticks);
+			assertEquals(32, slow.ticks);
+			assertEquals(64, scheduler.getStatistics(a).getTicks());
+			assertEquals(32, scheduler.getStatistics(b).getTicks());
+
+			// time left over is carried to the next call
+			scheduler.advance(1.0/128);
+			assertEquals(64, fast.ticks);
+			scheduler.advance(1.0/128);
+			assertEquals(65, fast.ticks);
+			assertEquals(32, slow.ticks);
+
+			// change of rate. The 1/64 s carried over by the second scene gives one more tick at the new rate
+			scheduler.setTickRate(b, 64);
+			scheduler.advance(0.25);
+			assertEquals(81, fast.ticks);
+			assertEquals(49, slow.ticks);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * A scene that does not complete its ticks within its tick period misses its deadline, and ticks that
+	 * exceed the maximum number of ticks per advance are dropped. Step times are recorded for each scene
+	 */
+	public void testDeadlinesAndStatistics() {
+		TickForce slowforce = new TickForce(40), fastforce = new TickForce(0);
+		DefaultScene slow = scene(slowforce), fast = scene(fastforce);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		SceneScheduler scheduler = new SceneScheduler(executor);
+		try {
+			// a tick period of 1/16 s = 62.5 ms, where each tick of the slow scene takes at least 40 ms
+			scheduler.addScene(slow, 16);
+			scheduler.addScene(fast, 16);
+			scheduler.advance(1.0/16);
+			SceneScheduler.Statistics statistics = scheduler.getStatistics(slow);
+			assertEquals(1, statistics.getTicks());
+			assertEquals(0, statistics.getMissedDeadlines());
+			scheduler.advance(2.0/16);
+			assertEquals(3, statistics.getTicks());
+			assertEquals(1, statistics.getMissedDeadlines());
+			assertEquals(0, scheduler.getStatistics(fast).getMissedDeadlines());
+
+			// step times
+			assertTrue(statistics.getLastStepTime() >= 0.04);
+			assertTrue(statistics.getMaximumStepTime() >= statistics.getLastStepTime());
+			assertTrue(statistics.getMeanStepTime() >= 0.04);
+			assertTrue(statistics.getMeanStepTime() <= statistics.getMaximumStepTime());
+			assertTrue(scheduler.getStatistics(fast).getMeanStepTime() < statistics.getMeanStepTime());
+
+			// a scene that falls too far behind drops ticks
+			statistics.reset();
+			assertEquals(0, statistics.getTicks());
+			assertEquals(0.0, statistics.getMaximumStepTime());
+			scheduler.setMaximumTicksPerAdvance(2);
+			scheduler.advance(5.0/16);
+			assertEquals(2, statistics.getTicks());
+			assertEquals(3, statistics.getSkippedTicks());
+			assertEquals(1, statistics.getMissedDeadlines());
+			assertEquals(5, slowforce.ticks);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * An exception thrown by one scene reaches the caller of advance(), after the other scenes completed
+	 * their ticks
+	 */
+	public void testFailingScene() throws InterruptedException {
+		final RuntimeException exception = new RuntimeException("failing scene");
+		final TickForce other = new TickForce(10);
+		final DefaultScene failing = scene(new Force() {
+			public void apply(double dt) { throw exception; }
+		});
+		final DefaultScene working = scene(other);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		final SceneScheduler scheduler = new SceneScheduler(executor);
+		final Throwable[] thrown = new Throwable[1];
+		try {
+			scheduler.addScene(failing, 16);
+			scheduler.addScene(working, 16);
+
+			// advance in a separate thread, which must not hang
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						scheduler.advance(4.0/16);
+					} catch (Throwable t) {
+						thrown[0] = t;
+					}
+				}
+			};
+			thread.start();
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+
+			assertTrue(thrown[0] instanceof IllegalStateException);
+			assertSame(exception, thrown[0].getCause());
+			assertEquals(4, other.ticks);
+			assertEquals(4, scheduler.getStatistics(working).getTicks());
+
+			// the working scene is still scheduled normally
+			scheduler.removeScene(failing);
+			scheduler.advance(1.0/16);
+			assertEquals(5, other.ticks);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
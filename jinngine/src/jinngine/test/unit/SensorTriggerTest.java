@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jinngine.geometry.Box;
+import jinngine.geometry.Geometry;
+import jinngine.geometry.Sphere;
+import jinngine.math.Matrix3;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.SensorTrigger;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class SensorTriggerTest extends TestCase {
+
+	private final List<String> events = new ArrayList<String>();
+	private final SensorTrigger.Callback callback = new SensorTrigger.Callback() {
+		public void enter(Geometry sensor, Geometry other) { events.add("enter " + other.getBody().identifier); }
+		public void exit(Geometry sensor, Geometry other) { events.add("exit " + other.getBody().identifier); }
+	};
+
+	/**
+	 * Move a box through a fixed spherical sensor, and record the events
+	 */
+	private void run( boolean confirm ) {
+		DefaultScene scene = new DefaultScene();
+		scene.setTimestep(0.1);
+
+		Sphere zone = new Sphere(1);
+		zone.setSensor(true);
+		Body sensor = new Body("sensor", zone);
+		sensor.setFixed(true);
+		scene.addBody(sensor);
+
+		// the box moves one unit per time-step and passes the sensor off-centre, such that the bounding boxes overlap before the geometries do
+		Body box = new Body("box", new Box(0.5,0.5,0.5));
+		box.setPosition(-3,0.9,0.9);
+		box.setVelocity(10,0,0);
+		scene.addBody(box);
+
+		scene.addTrigger(new SensorTrigger(callback, confirm));
+		for (int i=0; i<10; i++) {
+			scene.tick();
+			events.add("tick");
+		}
+
+		// the box was never disturbed by the sensor, and no contact constraint was created
+		assertEquals(10, box.getVelocity().x, 1e-9);
+		assertFalse(scene.getConstraints(box).hasNext());
+	}
+
+	/**
+	 * A box resting on a fixed box is made a sensor and back again, while the two boxes overlap
+	 */
+	public void testToggleSensor() {
+		DefaultScene scene = new DefaultScene();
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+		Box geometry = new Box(1,1,1);
+		Body box = new Body("box", geometry);
+		box.setPosition(0,0.5,0);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+
+		scene.tick();
+		assertTrue(scene.getConstraints(box).hasNext());
+
+		// the contact is removed at once, and the box starts falling through the floor
+		scene.setSensor(geometry, true);
+		assertTrue(geometry.isSensor());
+		assertFalse(scene.getConstraints(box).hasNext());
+		scene.tick();
+		scene.tick();
+		assertFalse(scene.getConstraints(box).hasNext());
+		assertTrue(box.getVelocity().y < 0);
+
+		// the contact is back while the boxes still overlap
+		scene.setSensor(geometry, false);
+		assertTrue(scene.getConstraints(box).hasNext());
+		scene.tick();
+		assertTrue(scene.getConstraints(box).hasNext());
+
+		// setting the flag directly keeps the contact until the boxes separate, but it is still removed then
+		geometry.setSensor(true);
+		box.setPosition(0,5,0);
+		box.setVelocity(0,0,0);
+		scene.tick();
+		assertFalse(scene.getConstraints(box).hasNext());
+	}
+
+	/**
+	 * A body with a solid and a sensor geometry rests on a fixed box, and is moved until the sensor separates 
+	 * from the fixed box, while the solid geometry is still in contact
+	 */
+	public void testSensorSeparationWithContact() {
+		DefaultScene scene = new DefaultScene();
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+
+		// a sensor next to the solid box, 1.5 units along the x axis
+		Box solid = new Box(1,1,1);
+		Box zone = new Box(1,1,1);
+		zone.setSensor(true);
+		zone.setLocalTransform(Matrix3.identity(), new Vector3(1.5,0,0));
+		List<Geometry> geometries = new ArrayList<Geometry>();
+		geometries.add(solid);
+		geometries.add(zone);
+		Body body = new Body("body", geometries.iterator());
+		body.setPosition(3.75,0.5,0);
+		scene.addBody(body);
+
+		scene.tick();
+		assertTrue(scene.getConstraints(body).hasNext());
+
+		// the sensor leaves the floor, the solid box is still on it
+		body.setPosition(5.15,0.5,0);
+		scene.tick();
+		assertTrue(scene.getConstraints(body).hasNext());
+	}
+
+	public void testBoundingBoxEvents() {
+		// bounding boxes include the collision envelopes, so the box is reported early and leaves late
+		run(false);
+		assertEquals("[tick, enter box, tick, tick, tick, tick, tick, exit box, tick, tick, tick, tick]", events.toString());
+	}
+
+	public void testConfirmedEvents() {
+		// the box only intersects the sphere at x=0
+		run(true);
+		assertEquals("[tick, tick, tick, enter box, tick, exit box, tick, tick, tick, tick, tick, tick]", events.toString());
+	}
+}
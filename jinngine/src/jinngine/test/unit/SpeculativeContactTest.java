@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.geometry.Box;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class SpeculativeContactTest extends TestCase {
+
+	/**
+	 * A fast box approaching a fixed floor, with the default envelope. With speculative contacts, the contact is
+	 * found ahead of the impact, the box closes the gap to the floor in one time-step, and only bounces off once 
+	 * it touches the floor
+	 */
+	public void testFastBoxStopsAtSurface() {
+		DefaultScene scene = new DefaultScene();
+		scene.setTimestep(0.05);
+		scene.setSpeculativeContactsEnabled(true);
+
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+
+		Box geometry = new Box(1,1,1);
+		final double envelope = geometry.getEnvelope();
+		Body box = new Body("box", geometry);
+		box.setPosition(0,3.3,0);
+		box.setVelocity(0,-20,0);
+		scene.addBody(box);
+
+		// free motion, 1 per time-step. Envelopes are only widened during a time-step
+		scene.tick();
+		assertEquals(2.3, box.getPosition().y, 1e-6);
+		assertEquals(envelope, geometry.getEnvelope());
+		scene.tick();
+		assertEquals(1.3, box.getPosition().y, 1e-6);
+
+		// the box is 0.8 from the floor, which it closes exactly
+		scene.tick();
+		assertEquals(0.5, box.getPosition().y, 1e-3);
+
+		// then the box bounces off
+		for (int i=0; i<5; i++) {
+			scene.tick();
+			assertTrue(box.getPosition().y > 0.5-1e-3);
+			assertTrue(box.getVelocity().y > 0);
+		}
+	}
+
+	/**
+	 * A box dropped on a fixed floor with speculative contacts comes to rest touching the floor, not in the 
+	 * shell of the envelope
+	 */
+	public void testRestsTouching() {
+		DefaultScene scene = new DefaultScene();
+		scene.setTimestep(0.02);
+		scene.setSpeculativeContactsEnabled(true);
+
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+
+		Box geometry = new Box(1,1,1);
+		geometry.setEnvelope(1);
+		Body box = new Body("box", geometry);
+		box.setPosition(0,2,0);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+
+		for (int i=0; i<200; i++)
+			scene.tick();
+
+		assertEquals(0.5, box.getPosition().y, 0.01);
+	}
+}
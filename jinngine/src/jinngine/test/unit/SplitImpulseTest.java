@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.geometry.Box;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class SplitImpulseTest extends TestCase {
+
+	/**
+	 * A box placed into a fixed floor is moved out of penetration by the pseudo velocities, without gaining
+	 * any upward velocity, and is deactivated once resting on the floor
+	 */
+	public void testPenetrationWithoutVelocity() {
+		DefaultScene scene = new DefaultScene();
+		scene.setTimestep(0.02);
+		scene.setSplitImpulseEnabled(true);
+
+		Body floor = new Body("floor", new Box(10,1,10));
+		floor.setPosition(0,-0.5,0);
+		floor.setFixed(true);
+		scene.addBody(floor);
+
+		Body box = new Body("box", new Box(1,1,1));
+		box.setPosition(0,0.3,0);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+
+		// moving up while penetrating
+		double previous = box.getPosition().y;
+		for (int i=0; i<7; i++) {
+			scene.tick();
+			assertTrue(box.getVelocity().y < 1e-2);
+			assertTrue(box.getPosition().y > previous);
+			previous = box.getPosition().y;
+		}
+
+		// resting at the envelope distance
+		for (int i=0; i<20; i++)
+			scene.tick();
+		assertEquals(0.5625, box.getPosition().y, 1e-2);
+		assertTrue(box.deactivated);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import java.util.Iterator;
+
+import jinngine.geometry.Box;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.constraint.joint.BallInSocketJoint;
+import jinngine.physics.force.Force;
+import jinngine.physics.force.GravityForce;
+import junit.framework.TestCase;
+
+public class StepDivisorTest extends TestCase {
+
+	private final DefaultScene scene = new DefaultScene();
+
+	/**
+	 * Add a box hanging from a fixed anchor by a ball joint, at the given x coordinate
+	 */
+	private Body addPendulum( double x ) {
+		Body anchor = new Body("anchor");
+		anchor.setPosition(x,0,0);
+		anchor.setFixed(true);
+		Body box = new Body("box", new Box(1,1,1));
+		box.setPosition(x+1.5,0,0);
+		scene.addBody(anchor);
+		scene.addBody(box);
+		scene.addForce(new GravityForce(box));
+		scene.addConstraint(new BallInSocketJoint(anchor, box, new Vector3(x,0,0), new Vector3(0,0,1)));
+		return box;
+	}
+
+	/**
+	 * A distant pendulum is stepped at a quarter of the rate, but swings about the same distance
+	 */
+	public void testDistantGroups() {
+		scene.setTimestep(0.01);
+		final Body near = addPendulum(0);
+		final Body far = addPendulum(100);
+
+		final int[] calls = new int[1];
+		scene.setStepDivisor(new DefaultScene.StepDivisor() {
+			public int getDivisor(Iterator<Body> bodies) {
+				calls[0]++;
+				return bodies.next().getPosition().x > 50? 4 : 1;
+			}
+		});
+
+		int nearmoves = 0, farmoves = 0;
+		for (int i=0; i<40; i++) {
+			final double nearY = near.getPosition().y, farY = far.getPosition().y;
+			scene.tick();
+			if (near.getPosition().y != nearY) nearmoves++;
+			if (far.getPosition().y != farY) farmoves++;
+		}
+
+		assertEquals(40, nearmoves);
+		assertTrue(farmoves >= 10 && farmoves <= 11);
+		assertEquals(nearmoves+farmoves, calls[0]);
+
+		final double nearfall = -near.getPosition().y, farfall = -far.getPosition().y;
+		assertTrue(nearfall > 0.5);
+		assertEquals(1.0, farfall/nearfall, 0.15);
+
+		// back to full rate
+		scene.setStepDivisor(null);
+		final double farY = far.getPosition().y;
+		scene.tick();
+		assertTrue(far.getPosition().y < farY);
+	}
+
+	/**
+	 * Forces applied to a distant pendulum while its group waits for its turn are not lost
+	 */
+	public void testForcesWhileWaiting() {
+		scene.setTimestep(0.01);
+		final Body near = addPendulum(0);
+		final Body far = addPendulum(100);
+		scene.setStepDivisor(new DefaultScene.StepDivisor() {
+			public int getDivisor(Iterator<Body> bodies) {
+				return bodies.next().getPosition().x > 50? 4 : 1;
+			}
+		});
+
+		// push both pendulums sideways in a few time-steps only
+		final int[] tick = new int[1];
+		scene.addForce(new Force() {
+			public void apply(double dt) {
+				if (tick[0] >= 3 && tick[0] < 6) {
+					near.applyForce(new Vector3(), new Vector3(0,0,100), dt);
+					far.applyForce(new Vector3(), new Vector3(0,0,100), dt);
+				}
+			}
+		});
+
+		for (tick[0]=0; tick[0]<12; tick[0]++) 
+			scene.tick();
+		assertTrue(near.getVelocity().z > 1);
+		assertEquals(1.0, far.getVelocity().z/near.getVelocity().z, 0.15);
+	}
+}
@@ -9,6 +9,7 @@ import jinngine.geometry.Box;
 import jinngine.geometry.contact.ContactGenerator;
 import jinngine.geometry.contact.SupportMapContactGenerator;
 import jinngine.geometry.contact.ContactGenerator.ContactPoint;
+import jinngine.math.Matrix3;
 import jinngine.math.Vector3;
 import jinngine.physics.Body;
 import junit.framework.TestCase;
@@ -147,6 +148,85 @@ public class SupportMapContactGeneratorTest extends TestCase {
 	
 	
 	
+	/**
+	 * Contact points are reused while the boxes stay put relative to each other, and follow the 
+	 * boxes when they are moved together. Moving one box further recomputes the contacts
+	 */
+	public void testRelativeMotionCache() {
+		final List<Vector3> result = new ArrayList<Vector3>();
+		final List<Vector3> expect = new ArrayList<Vector3>();
+		final Box box1 = new Box(1,1,1);		
+		box1.setEnvelope(1);
+		final Box box2 = new Box(1,1,1);
+		box2.setEnvelope(1);
+		final Body body1 = new Body("box1", box1);		
+		final Body body2 = new Body("box2", box2);
+		ContactGenerator g = new SupportMapContactGenerator(box1,box1,box2,box2);
+
+		body2.setPosition(0, 1.5, 0);
+		g.run();
+		
+		// rotate both boxes a quarter turn around the z axis, and move them along the x axis
+		final Matrix3 R = new Matrix3(new Vector3(0,1,0), new Vector3(-1,0,0), new Vector3(0,0,1));
+		body1.setOrientation(R);
+		body2.setOrientation(R);
+		body1.setPosition(10, 0, 0);
+		body2.setPosition(8.5, 0, 0);
+		g.run();
+		
+		result.clear();
+		Iterator<ContactPoint> i = g.getContacts();
+		while (i.hasNext()) {
+			ContactPoint cp = i.next();
+			assertEquals(0, cp.normal.sub(new Vector3(1,0,0)).norm(), epsilon);
+			result.add(new Vector3(cp.point));
+		}
+		expect.clear();
+		expect.add(new Vector3(9.25, 0.5, 0.5));
+		expect.add(new Vector3(9.25,-0.5, 0.5));
+		expect.add(new Vector3(9.25,-0.5,-0.5));
+		expect.add(new Vector3(9.25, 0.5,-0.5));
+		assertTrue(verifyPolygon(expect, result));
+		
+		// a tiny displacement reuses the contacts
+		body2.setPosition(8.5-1e-5, 0, 0);
+		g.run();
+		i = g.getContacts();
+		assertTrue(i.hasNext());
+		while (i.hasNext())
+			assertEquals(0.5, i.next().distance, epsilon);
+		
+		// a larger displacement does not
+		body2.setPosition(8.4, 0, 0);
+		g.run();
+		i = g.getContacts();
+		assertTrue(i.hasNext());
+		while (i.hasNext())
+			assertEquals(0.6, i.next().distance, epsilon);
+	}
+	
+	/**
+	 * Box features written to arrays match the features given as lists, for vertex, edge and face directions
+	 */
+	public void testFlatFeatures() {
+		final Box box = new Box(1,2,3);
+		final Body body = new Body("box", box);
+		body.setPosition(1, 2, 3);
+		body.setOrientation(new Matrix3(new Vector3(0,1,0), new Vector3(-1,0,0), new Vector3(0,0,1)));
+		
+		final double[] feature = new double[3*box.getMaxFeatureSize()];
+		final List<Vector3> list = new ArrayList<Vector3>();
+		final Vector3[] directions = { new Vector3(1,1,1), new Vector3(-1,1,0), new Vector3(0,0,-1), 
+				new Vector3(0,1,0), new Vector3(-1,0,0), new Vector3(0.5,-1,0.01) };
+		for (Vector3 d: directions) {
+			list.clear();
+			box.supportFeature(d, list);
+			assertEquals(list.size(), box.supportFeature(d, feature));
+			for (int i=0; i<list.size(); i++)
+				assertEquals(0, list.get(i).sub(new Vector3(feature[3*i], feature[3*i+1], feature[3*i+2])).norm(), epsilon);
+		}
+	}
+	
 	private boolean verifyPolygon( List<Vector3> poly1, List<Vector3> poly2) {
 		// this is an auxiliary method that poly1 contains the same sequence of points 
 		// as poly2, and vice versa. 
@@ -7,7 +7,15 @@
  * at http://www.gnu.org/copyleft/gpl.html. 
  */
 package jinngine.test.unit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
 import jinngine.collision.BroadphaseCollisionDetection;
+import jinngine.collision.ExhaustiveSearch;
 import jinngine.collision.SAP2;
 import jinngine.collision.SweepAndPrune;
 import jinngine.collision.BroadphaseCollisionDetection.Handler;
@@ -97,4 +105,290 @@ public class SweepAndPruneTest extends TestCase {
 		sweep.run();
 		assertTrue( sweep.getOverlappingPairs().contains(new Pair<Geometry>(box1,box2)));
 	}
+
+	/**
+	 * Random boxes are moved around, bulk added and bulk removed. After each run, the set of overlapping 
+	 * pairs is compared to a brute force computation, and to the pairs reported to the handler
+	 */
+	public void testSweepAndPruneRandom() {
+		final Random random = new Random(42);
+		final Set<Pair<Geometry>> reported = new HashSet<Pair<Geometry>>();
+		BroadphaseCollisionDetection sweep = new SAP2();
+		sweep.addHandler(new Handler() {
+			public void overlap(Pair<Geometry> pair) {
+				assertTrue(reported.add(pair));
+			}
+			public void separation(Pair<Geometry> pair) {
+				assertTrue(reported.remove(pair));
+			}
+		});
+
+		List<Geometry> inserted = new ArrayList<Geometry>();
+		List<Body> bodies = new ArrayList<Body>();
+		for (int step=0; step<60; step++) {
+			// bulk add some boxes
+			if (step%10 == 0) {
+				List<Geometry> batch = new ArrayList<Geometry>();
+				for (int i=0; i<40; i++) {
+					Box box = new Box(1,1,1);
+					box.setEnvelope(0.1);
+					Body body = new Body("box", box);
+					body.setPosition(random.nextDouble()*10, random.nextDouble()*10, random.nextDouble()*3);
+					batch.add(box);
+					bodies.add(body);
+				}
+				sweep.addAll(batch);
+				inserted.addAll(batch);
+			}
+
+			// bulk remove some boxes
+			if (step%10 == 5) {
+				List<Geometry> batch = new ArrayList<Geometry>();
+				for (int i=0; i<15; i++) {
+					Geometry g = inserted.remove(random.nextInt(inserted.size()));
+					bodies.remove(g.getBody());
+					batch.add(g);
+				}
+				sweep.removeAll(batch);
+			}
+
+			// move all boxes a little
+			for (Body b: bodies) {
+				Vector3 p = b.getPosition();
+				b.setPosition(p.x+random.nextGaussian()*0.3, p.y+random.nextGaussian()*0.3, p.z+random.nextGaussian()*0.3);
+			}
+
+			sweep.run();
+
+			// brute force
+			Set<Pair<Geometry>> expected = new HashSet<Pair<Geometry>>();
+			for (int i=0; i<inserted.size(); i++) {
+				for (int j=i+1; j<inserted.size(); j++) {
+					Geometry a = inserted.get(i), b = inserted.get(j);
+					Vector3 mina = a.getMinBounds(), maxa = a.getMaxBounds();
+					Vector3 minb = b.getMinBounds(), maxb = b.getMaxBounds();
+					if (mina.x <= maxb.x && minb.x <= maxa.x && mina.y <= maxb.y && minb.y <= maxa.y 
+							&& mina.z <= maxb.z && minb.z <= maxa.z)
+						expected.add(new Pair<Geometry>(a,b));
+				}
+			}
+
+			assertEquals(expected, sweep.getOverlappingPairs());
+			assertEquals(expected, reported);
+		}
+	}
+
+	/**
+	 * A bulk removal with an unknown or repeated geometry fails without removing anything
+	 */
+	public void testRemoveAllInvalid() {
+		final Set<Pair<Geometry>> reported = new HashSet<Pair<Geometry>>();
+		SAP2 sweep = new SAP2();
+		sweep.addHandler(new Handler() {
+			public void overlap(Pair<Geometry> pair) { assertTrue(reported.add(pair)); }
+			public void separation(Pair<Geometry> pair) { assertTrue(reported.remove(pair)); }
+		});
+
+		// three overlapping boxes
+		Box[] boxes = new Box[3];
+		for (int i=0; i<3; i++) {
+			boxes[i] = new Box(1,1,1);
+			new Body("box"+i, boxes[i]).setPosition(i*0.5, 0, 0);
+			sweep.add(boxes[i]);
+		}
+		sweep.run();
+		assertEquals(3, reported.size());
+
+		Box unknown = new Box(1,1,1);
+		new Body("unknown", unknown);
+		try {
+			sweep.removeAll(Arrays.<Geometry>asList(boxes[0], unknown));
+			fail();
+		} catch (IllegalArgumentException e) {}
+		try {
+			sweep.removeAll(Arrays.<Geometry>asList(boxes[1], boxes[1]));
+			fail();
+		} catch (IllegalArgumentException e) {}
+
+		// nothing was removed
+		sweep.run();
+		assertEquals(3, reported.size());
+		assertEquals(reported, sweep.getOverlappingPairs());
+		try {
+			sweep.add(boxes[0]);
+			fail();
+		} catch (IllegalArgumentException e) {}
+
+		// a valid removal still works, and the boxes can be added again
+		sweep.removeAll(Arrays.<Geometry>asList(boxes[0], boxes[1]));
+		assertTrue(reported.isEmpty());
+		sweep.addAll(Arrays.<Geometry>asList(boxes[0], boxes[1]));
+		sweep.run();
+		assertEquals(3, reported.size());
+		assertEquals(reported, sweep.getOverlappingPairs());
+	}
+
+	/**
+	 * The cached bounding box of a geometry is the box at the last run
+	 */
+	public void testGetBounds() {
+		SAP2 sweep = new SAP2();
+		Box box = new Box(1,1,1);
+		Body body = new Body("box", box);
+		body.setPosition(1,2,3);
+		Vector3 min = new Vector3(), max = new Vector3();
+
+		// not present before the first run
+		sweep.add(box);
+		assertFalse(sweep.getBounds(box, min, max));
+		sweep.run();
+		assertTrue(sweep.getBounds(box, min, max));
+		assertEquals(0.0, min.sub(box.getMinBounds()).norm(), 1e-12);
+		assertEquals(0.0, max.sub(box.getMaxBounds()).norm(), 1e-12);
+
+		// moving the body does not change the box until the next run
+		body.setPosition(5,2,3);
+		sweep.getBounds(box, min, max);
+		assertTrue(max.x < 2);
+		sweep.run();
+		sweep.getBounds(box, min, max);
+		assertTrue(min.x > 4);
+
+		sweep.remove(box);
+		assertFalse(sweep.getBounds(box, min, max));
+	}
+
+	/**
+	 * Box queries in a scene with a large floor box agree with a brute force search
+	 */
+	public void testQueryWithOversizedBox() {
+		final Random random = new Random(3);
+		SAP2 sweep = new SAP2();
+		List<Geometry> all = new ArrayList<Geometry>();
+
+		Box floor = new Box(100,1,100);
+		new Body("floor", floor).setPosition(0,-0.5,0);
+		sweep.add(floor);
+		all.add(floor);
+		for (int i=0; i<200; i++) {
+			Box box = new Box(1,1,1);
+			new Body("box", box).setPosition(random.nextDouble()*40-20, random.nextDouble()*4, random.nextDouble()*40-20);
+			sweep.add(box);
+			all.add(box);
+		}
+		sweep.run();
+
+		List<Geometry> result = new ArrayList<Geometry>();
+		for (int n=0; n<100; n++) {
+			Vector3 min = new Vector3(random.nextDouble()*60-30, random.nextDouble()*6-2, random.nextDouble()*60-30);
+			Vector3 max = min.add(new Vector3(random.nextDouble()*5, random.nextDouble()*3, random.nextDouble()*5));
+			result.clear();
+			sweep.query(min, max, result);
+
+			Set<Geometry> expected = new HashSet<Geometry>();
+			for (Geometry g: all) {
+				Vector3 gmin = g.getMinBounds(), gmax = g.getMaxBounds();
+				if (min.x <= gmax.x && gmin.x <= max.x && min.y <= gmax.y && gmin.y <= max.y 
+						&& min.z <= gmax.z && gmin.z <= max.z)
+					expected.add(g);
+			}
+			assertEquals(expected.size(), result.size());
+			assertEquals(expected, new HashSet<Geometry>(result));
+		}
+	}
+
+	/**
+	 * Pairs rejected by categories, masks, or the pair filter must never be reported
+	 */
+	public void testCollisionFilter() {
+		final int debris = 2, world = 1;
+		BroadphaseCollisionDetection[] broadphases = { new SAP2(), new SweepAndPrune(), new ExhaustiveSearch() };
+		for (BroadphaseCollisionDetection sweep: broadphases) {
+			final Set<Pair<Geometry>> reported = new HashSet<Pair<Geometry>>();
+			sweep.addHandler(new Handler() {
+				public void overlap(Pair<Geometry> pair) { reported.add(pair); }
+				public void separation(Pair<Geometry> pair) { reported.remove(pair); }
+			});
+
+			// three overlapping debris boxes and a world box, that overlaps all of them
+			Box[] boxes = new Box[4];
+			for (int i=0; i<4; i++) {
+				boxes[i] = new Box(1,1,1);
+				Body body = new Body("box"+i, boxes[i]);
+				body.setPosition(i*0.1, 0, 0);
+				boxes[i].setCollisionCategory(i<3? debris : world);
+				boxes[i].setCollisionMask(i<3? world : world|debris);
+			}
+
+			// the last debris box is excluded by the pair filter
+			final Box excluded = boxes[2];
+			sweep.setPairFilter(new BroadphaseCollisionDetection.PairFilter() {
+				public boolean accept(Geometry a, Geometry b) { return a != excluded && b != excluded; }
+			});
+
+			for (Box box: boxes)
+				sweep.add(box);
+			sweep.run();
+
+			// only the debris-world pairs of the first two boxes remain
+			assertEquals(2, reported.size());
+			assertTrue(reported.contains(new Pair<Geometry>(boxes[0],boxes[3])));
+			assertTrue(reported.contains(new Pair<Geometry>(boxes[1],boxes[3])));
+			assertEquals(reported, sweep.getOverlappingPairs());
+
+			// move the boxes through each other
+			for (int n=0; n<20; n++) {
+				for (int i=0; i<4; i++)
+					boxes[i].getBody().setPosition((i-1.5)*(n-10)*0.1, 0, 0);
+				sweep.run();
+				for (Pair<Geometry> pair: reported)
+					assertTrue(pair.contains(boxes[3]) && !pair.contains(excluded));
+			}
+		}
+	}
+
+	/**
+	 * A pair reported before its mask changed must still separate, and is reported again when it may 
+	 * collide and its boxes overlap anew
+	 */
+	public void testCollisionFilterChange() {
+		BroadphaseCollisionDetection[] broadphases = { new SAP2(), new SweepAndPrune(), new ExhaustiveSearch() };
+		for (BroadphaseCollisionDetection sweep: broadphases) {
+			final Set<Pair<Geometry>> reported = new HashSet<Pair<Geometry>>();
+			sweep.addHandler(new Handler() {
+				public void overlap(Pair<Geometry> pair) { assertTrue(reported.add(pair)); }
+				public void separation(Pair<Geometry> pair) { assertTrue(reported.remove(pair)); }
+			});
+
+			Box a = new Box(1,1,1), b = new Box(1,1,1);
+			new Body("a", a);
+			Body body = new Body("b", b);
+			body.setPosition(0.5, 0, 0);
+			sweep.add(a);
+			sweep.add(b);
+			sweep.run();
+			assertEquals(1, reported.size());
+
+			// reject the pair while it overlaps, then separate the boxes
+			b.setCollisionMask(0);
+			body.setPosition(5, 0, 0);
+			sweep.run();
+			assertTrue(reported.isEmpty());
+			assertTrue(sweep.getOverlappingPairs().isEmpty());
+
+			// overlapping again, but rejected
+			body.setPosition(0.5, 0, 0);
+			sweep.run();
+			assertTrue(reported.isEmpty());
+
+			// accepted once more, after the boxes separate and overlap again
+			b.setCollisionMask(~0);
+			body.setPosition(5, 0, 0);
+			sweep.run();
+			body.setPosition(0.5, 0, 0);
+			sweep.run();
+			assertEquals(1, reported.size());
+			assertEquals(reported, sweep.getOverlappingPairs());
+		}
+	}
 }
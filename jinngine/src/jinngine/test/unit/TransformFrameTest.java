@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2008-2010  Morten Silcowitz.
+ *
+ * This file is part of the Jinngine physics library
+ *
+ * Jinngine is published under the GPL license, available
+ * at http://www.gnu.org/copyleft/gpl.html.
+ */
+package jinngine.test.unit;
+
+import jinngine.geometry.Box;
+import jinngine.math.Matrix4;
+import jinngine.math.Vector3;
+import jinngine.physics.Body;
+import jinngine.physics.DefaultScene;
+import jinngine.physics.TransformFrame;
+import junit.framework.TestCase;
+
+public class TransformFrameTest extends TestCase {
+
+	/**
+	 * A frame held by a reader must not change, while new frames keep being published
+	 */
+	public void testHeldFrameIsStable() {
+		DefaultScene scene = new DefaultScene();
+		assertNull(scene.acquireTransformFrame());
+
+		Body body = new Body("box", new Box(1,1,1));
+		body.setVelocity(1,0,0);
+		scene.addBody(body);
+		scene.setTransformFramePublishing(true);
+
+		TransformFrame first = scene.acquireTransformFrame();
+		assertEquals(0, first.getTick());
+		assertEquals(1, first.getNumberOfBodies());
+		assertSame(body, first.getBody(0));
+		double x = first.getPosition(0, new Vector3()).x;
+
+		// keep ticking while holding the first frame
+		for (int i=0; i<5; i++)
+			scene.tick();
+
+		assertEquals(0, first.getTick());
+		assertEquals(x, first.getPosition(0, new Vector3()).x);
+
+		// the latest frame must reflect the current state
+		TransformFrame latest = scene.acquireTransformFrame();
+		assertNotSame(first, latest);
+		assertEquals(5, latest.getTick());
+		assertEquals(body.getPosition().x, latest.getPosition(0, new Vector3()).x);
+		assertEquals(1.0, latest.getVelocity(0, new Vector3()).x);
+
+		Matrix4 M = latest.getTransform(0, new Matrix4());
+		assertEquals(body.getPosition().x, M.a14);
+		assertEquals(1.0, M.a11, 1e-12);
+
+		first.release();
+		latest.release();
+	}
+}